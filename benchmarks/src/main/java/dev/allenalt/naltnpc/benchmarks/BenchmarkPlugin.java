@@ -0,0 +1,18 @@
+package dev.allenalt.naltnpc.benchmarks;
+
+import dev.allenalt.naltnpc.NaltNPC;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+
+// The plugin as the benchmarks see it, never enabled. getConfig() answers from the bundled config.yml.
+class BenchmarkPlugin extends NaltNPC {
+
+    @SuppressWarnings("deprecation")
+    BenchmarkPlugin(File dataFolder) {
+        super(new JavaPluginLoader(Bukkit.getServer()), new PluginDescriptionFile("NaltNPC", "1.0.0", NaltNPC.class.getName()),
+                dataFolder, new File(dataFolder, "NaltNPC.jar"));
+    }
+}
@@ -0,0 +1,163 @@
+package dev.allenalt.naltnpc.benchmarks;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+// Just enough of a Bukkit server for NaltNPC to run outside one. Every fake is a dynamic proxy that answers
+// the few methods the benchmarked code calls and returns null, 0 or false for everything else.
+// Scheduled tasks never run, the benchmarks call the code they measure directly.
+final class Fakes {
+
+    // Shared by every fixture in the fork, Bukkit only accepts one server per JVM
+    static final List<Player> ONLINE = new CopyOnWriteArrayList<>();
+    static final World WORLD = world("world");
+
+    private static boolean installed;
+
+    private Fakes() {
+    }
+
+    interface Answer {
+        Object answer(Object[] args);
+    }
+
+    static synchronized void installServer() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        Logger logger = Logger.getLogger("FakeServer");
+        BukkitTask task = fake(BukkitTask.class, new HashMap<>());
+        Map<String, Answer> scheduler = new HashMap<>();
+        for (String method : new String[] {"runTask", "runTaskLater", "runTaskTimer", "runTaskAsynchronously",
+                "runTaskLaterAsynchronously", "runTaskTimerAsynchronously"}) {
+            scheduler.put(method, args -> task);
+        }
+
+        Map<String, Answer> server = new HashMap<>();
+        server.put("getName", args -> "FakeServer");
+        server.put("getVersion", args -> "benchmark");
+        server.put("getBukkitVersion", args -> "1.21.3-R0.1-SNAPSHOT");
+        server.put("getLogger", args -> logger);
+        server.put("isPrimaryThread", args -> true);
+        server.put("getOnlinePlayers", args -> ONLINE);
+        server.put("getMaxPlayers", args -> 1000);
+        server.put("getScheduler", args -> fake(BukkitScheduler.class, scheduler));
+        server.put("getPluginManager", args -> fake(PluginManager.class, new HashMap<>()));
+        server.put("getWorld", args -> args[0].equals(WORLD.getName()) || args[0].equals(WORLD.getUID()) ? WORLD : null);
+        server.put("getWorlds", args -> List.of(WORLD));
+        Bukkit.setServer(fake(Server.class, server));
+    }
+
+    static World world(String name) {
+        UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+        Map<String, Answer> answers = new HashMap<>();
+        answers.put("getName", args -> name);
+        answers.put("getUID", args -> uid);
+        answers.put("getPlayers", args -> ONLINE);
+        return fake(World.class, answers);
+    }
+
+    // The location is live, moving the player is changing it
+    static Player player(String name, Location location) {
+        UUID uuid = UUID.nameUUIDFromBytes(name.getBytes());
+        Map<String, Answer> answers = new HashMap<>();
+        answers.put("getName", args -> name);
+        answers.put("getDisplayName", args -> name);
+        answers.put("getUniqueId", args -> uuid);
+        answers.put("getWorld", args -> location.getWorld());
+        answers.put("getLocation", args -> args == null ? location.clone() : copy(location, (Location) args[0]));
+        answers.put("getEyeHeight", args -> 1.62);
+        answers.put("isOnline", args -> true);
+        answers.put("isOp", args -> true);
+        answers.put("hasPermission", args -> true);
+        return fake(Player.class, answers);
+    }
+
+    static Entity entity(Location location) {
+        UUID uuid = UUID.randomUUID();
+        Map<String, Answer> answers = new HashMap<>();
+        answers.put("getUniqueId", args -> uuid);
+        answers.put("getWorld", args -> location.getWorld());
+        answers.put("getLocation", args -> args == null ? location.clone() : copy(location, (Location) args[0]));
+        answers.put("isValid", args -> true);
+        answers.put("setRotation", args -> {
+            location.setYaw((Float) args[0]);
+            location.setPitch((Float) args[1]);
+            return null;
+        });
+        return fake(Entity.class, answers);
+    }
+
+    private static Location copy(Location from, Location to) {
+        to.setWorld(from.getWorld());
+        to.setX(from.getX());
+        to.setY(from.getY());
+        to.setZ(from.getZ());
+        to.setYaw(from.getYaw());
+        to.setPitch(from.getPitch());
+        return to;
+    }
+
+    static <T> T fake(Class<T> type, Map<String, Answer> answers) {
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            Answer answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.answer(args);
+            }
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Fake" + type.getSimpleName();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == float.class) {
+            return 0.0F;
+        }
+        if (type == double.class) {
+            return 0.0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+}
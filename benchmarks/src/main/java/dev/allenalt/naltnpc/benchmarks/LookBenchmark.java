@@ -0,0 +1,57 @@
+package dev.allenalt.naltnpc.benchmarks;
+
+import dev.allenalt.naltnpc.LookBehaviour;
+import dev.allenalt.naltnpc.NPCData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// One pass of the look behaviour over every NPC, what the scheduler runs when all of them are due
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LookBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int npcs;
+
+    @Param({"1", "20", "100"})
+    public int players;
+
+    private NPCFixture fixture;
+    private LookBehaviour look;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = NPCFixture.create(npcs, players);
+        look = new LookBehaviour(fixture.plugin, fixture.npcManager);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void lookAtPlayers() {
+        fixture.stepPlayers();
+        for (NPCData data : fixture.npcs) {
+            look.update(data);
+        }
+    }
+}
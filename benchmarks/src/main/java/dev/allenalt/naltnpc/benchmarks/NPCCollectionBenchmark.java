@@ -0,0 +1,62 @@
+package dev.allenalt.naltnpc.benchmarks;
+
+import dev.allenalt.naltnpc.NPCData;
+import dev.allenalt.naltnpc.NPCSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// What reading all NPCs costs: the live view commands and tab completion use, and the copy-on-write
+// snapshot other threads read, which is republished at the end of every tick with a change
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NPCCollectionBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int npcs;
+
+    private NPCFixture fixture;
+    private boolean lookAtPlayers;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = NPCFixture.create(npcs, 0);
+        fixture.npcManager.getRegistry().publish();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void iterateAllNPCs(Blackhole blackhole) {
+        for (NPCData data : fixture.npcManager.getAllNPCs().values()) {
+            blackhole.consume(data.getLocation());
+        }
+    }
+
+    @Benchmark
+    public NPCSnapshot publishAfterOneChange() {
+        lookAtPlayers = !lookAtPlayers;
+        fixture.npcManager.setLookAtPlayers("npc0", lookAtPlayers);
+        return fixture.npcManager.getRegistry().publish();
+    }
+}
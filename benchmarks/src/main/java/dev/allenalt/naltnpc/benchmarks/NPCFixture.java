@@ -0,0 +1,92 @@
+package dev.allenalt.naltnpc.benchmarks;
+
+import dev.allenalt.naltnpc.Hologram;
+import dev.allenalt.naltnpc.NPCData;
+import dev.allenalt.naltnpc.NPCManager;
+import org.bukkit.Location;
+import org.bukkit.entity.Display;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// A lobby of NPCs on a 3 block grid with players walking between them, built on the fake server
+final class NPCFixture {
+
+    private static final double SPACING = 3.0;
+
+    final File dataFolder;
+    final BenchmarkPlugin plugin;
+    final NPCManager npcManager;
+    final List<NPCData> npcs;
+    final List<Player> players;
+    private final List<Location> playerLocations;
+    private boolean stepped;
+
+    private NPCFixture(int npcCount, int playerCount) throws IOException {
+        Fakes.installServer();
+        this.dataFolder = Files.createTempDirectory("naltnpc-bench").toFile();
+        this.plugin = new BenchmarkPlugin(dataFolder);
+
+        int side = (int) Math.ceil(Math.sqrt(npcCount));
+        Random random = new Random(42);
+        this.players = new ArrayList<>(playerCount);
+        this.playerLocations = new ArrayList<>(playerCount);
+        Fakes.ONLINE.clear();
+        for (int i = 0; i < playerCount; i++) {
+            Location location = new Location(Fakes.WORLD, random.nextDouble() * side * SPACING, 64.0,
+                    random.nextDouble() * side * SPACING);
+            playerLocations.add(location);
+            players.add(Fakes.player("Player" + i, location));
+        }
+        Fakes.ONLINE.addAll(players);
+
+        // Picks the online players up into its spatial grid
+        this.npcManager = new NPCManager(plugin);
+        this.npcs = new ArrayList<>(npcCount);
+        for (int i = 0; i < npcCount; i++) {
+            Location location = new Location(Fakes.WORLD, (i % side) * SPACING, 64.0, (i / side) * SPACING);
+            NPCData data = new NPCData("npc" + i, EntityType.VILLAGER, "Server " + i, Fakes.entity(location.clone()), location);
+            data.setLookAtPlayers(true);
+            data.setHologram(new Hologram(Arrays.asList("&6Server " + i, "&7{online} players online"), false, null,
+                    Display.Billboard.CENTER, 1.0F));
+            data.addAction("PLAYER", "server lobby" + i);
+            data.addTag("lobby");
+            data.setSpawned(true);
+            npcManager.registerNPC(data);
+            npcs.add(data);
+        }
+    }
+
+    static NPCFixture create(int npcCount, int playerCount) throws IOException {
+        return new NPCFixture(npcCount, playerCount);
+    }
+
+    // Moves every player two blocks and back on alternate calls, so NPCs keep turning instead of settling
+    void stepPlayers() {
+        double offset = stepped ? -2.0 : 2.0;
+        stepped = !stepped;
+        for (int i = 0; i < players.size(); i++) {
+            Location location = playerLocations.get(i);
+            location.setX(location.getX() + offset);
+            npcManager.getSpatialGrid().updatePlayer(players.get(i), location);
+        }
+    }
+
+    void close() throws IOException {
+        npcManager.shutdown();
+        Fakes.ONLINE.clear();
+        try (Stream<Path> files = Files.walk(dataFolder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
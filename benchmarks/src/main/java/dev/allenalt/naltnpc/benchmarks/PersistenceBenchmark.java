@@ -0,0 +1,108 @@
+package dev.allenalt.naltnpc.benchmarks;
+
+import dev.allenalt.naltnpc.BinaryNPCStorage;
+import dev.allenalt.naltnpc.NPCData;
+import dev.allenalt.naltnpc.NPCRecord;
+import dev.allenalt.naltnpc.NPCStorage;
+import dev.allenalt.naltnpc.SqlNPCStorage;
+import dev.allenalt.naltnpc.YamlNPCStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Saving every NPC (what saveNPCs() used to do on each change), saving one moved NPC (what a command
+// causes now) and loading everything, for each storage format
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PersistenceBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int npcs;
+
+    @Param({"yaml", "binary", "sql"})
+    public String format;
+
+    private final Logger logger = Logger.getLogger("PersistenceBenchmark");
+    private NPCFixture fixture;
+    private Map<String, NPCRecord> records;
+    private NPCStorage storage;
+    private NPCData moved;
+    private boolean stepped;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = NPCFixture.create(npcs, 0);
+        records = new HashMap<>();
+        for (NPCData data : fixture.npcs) {
+            records.put(data.getId(), data.snapshot());
+        }
+        moved = fixture.npcs.get(0);
+        Files.write(new File(fixture.dataFolder, "npcs.yml").toPath(), new byte[0]);
+        storage = open();
+        storage.load();
+        storage.write(records, Collections.emptySet());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+        fixture.close();
+    }
+
+    private NPCStorage open() {
+        switch (format) {
+            case "binary":
+                return new BinaryNPCStorage(new File(fixture.dataFolder, "npcs.dat"), logger, null);
+            case "sql":
+                return new SqlNPCStorage("jdbc:h2:" + new File(fixture.dataFolder, "npcs").getAbsolutePath(),
+                        "sa", "", 1, logger, null);
+            default:
+                return new YamlNPCStorage(new File(fixture.dataFolder, "npcs.yml"), logger);
+        }
+    }
+
+    @Benchmark
+    public void saveAll() throws IOException {
+        storage.write(records, Collections.emptySet());
+    }
+
+    @Benchmark
+    public void saveOne() throws IOException {
+        stepped = !stepped;
+        moved.getLocation().setX(moved.getLocation().getX() + (stepped ? 1.0 : -1.0));
+        storage.write(Collections.singletonMap(moved.getId(), moved.snapshot()), Collections.emptySet());
+    }
+
+    @Benchmark
+    public List<NPCRecord> load() throws IOException {
+        NPCStorage fresh = open();
+        try {
+            return fresh.load();
+        } finally {
+            fresh.close();
+        }
+    }
+}
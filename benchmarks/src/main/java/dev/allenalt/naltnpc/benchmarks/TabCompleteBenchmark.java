@@ -0,0 +1,64 @@
+package dev.allenalt.naltnpc.benchmarks;
+
+import dev.allenalt.naltnpc.NPCTabCompleter;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Completing NPC ids runs on every key press in chat, so it is paid per player per character typed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TabCompleteBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int npcs;
+
+    private NPCFixture fixture;
+    private NPCTabCompleter completer;
+    private Player sender;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = NPCFixture.create(npcs, 1);
+        completer = new NPCTabCompleter(fixture.plugin, fixture.npcManager);
+        sender = fixture.players.get(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public List<String> subcommand() {
+        return completer.onTabComplete(sender, null, "npc", new String[] {"t"});
+    }
+
+    @Benchmark
+    public List<String> npcIdPrefix() {
+        return completer.onTabComplete(sender, null, "npc", new String[] {"tp", "npc1"});
+    }
+
+    @Benchmark
+    public List<String> npcIdEmpty() {
+        return completer.onTabComplete(sender, null, "npc", new String[] {"tp", ""});
+    }
+}
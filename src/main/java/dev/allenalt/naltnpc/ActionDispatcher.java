@@ -0,0 +1,113 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+
+// Runs NPC click actions a limited number per tick, so a crowd clicking one NPC cannot stall a tick
+public class ActionDispatcher {
+
+    private static final String BUNGEE_CHANNEL = "BungeeCord";
+    private final NaltNPC plugin;
+    private final int commandsPerTick;
+    private final Deque<PendingAction> queue;
+
+    public ActionDispatcher(NaltNPC plugin) {
+        this.plugin = plugin;
+        this.commandsPerTick = Math.max(1, plugin.getConfig().getInt("interactions.commands-per-tick", 10));
+        this.queue = new ArrayDeque<>();
+
+        // SERVER actions send the player to another server behind the proxy
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, BUNGEE_CHANNEL);
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < commandsPerTick && !queue.isEmpty(); i++) {
+                    dispatch(queue.pollFirst());
+                }
+            }
+        }.runTaskTimer(plugin, 1L, 1L);
+    }
+
+    public void enqueue(Player player, NPCData data) {
+        for (NPCData.NPCAction action : data.getActions()) {
+            // The name is read at the click, never from a cached placeholder value
+            if (action.hasPlayerToken() && action.getExecutorType().equals("CONSOLE") && !isPlainName(player.getName())) {
+                plugin.getLogger().warning("Not running console action of NPC '" + data.getId() + "' for '"
+                        + player.getName() + "', the name is not a plain player name.");
+                continue;
+            }
+            queue.addLast(new PendingAction(player.getUniqueId(), action.getExecutorType(), action.render(player.getName())));
+        }
+    }
+
+    // What Mojang allows in a player name, anything else (proxies, offline mode) is not put into console commands
+    private static boolean isPlainName(String name) {
+        if (name.isEmpty() || name.length() > 16) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    private void dispatch(PendingAction action) {
+        try {
+            switch (action.executorType) {
+                case "CONSOLE":
+                    plugin.getServer().dispatchCommand(plugin.getServer().getConsoleSender(), action.command);
+                    break;
+                case "PLAYER":
+                    Player player = plugin.getServer().getPlayer(action.playerId);
+                    if (player != null) {
+                        player.performCommand(action.command);
+                    }
+                    break;
+                case "SERVER":
+                    Player target = plugin.getServer().getPlayer(action.playerId);
+                    if (target != null) {
+                        connect(target, action.command);
+                    }
+                    break;
+            }
+        } catch (Exception e) {
+            plugin.getLogger().severe("Could not run NPC action '" + action.command + "'!");
+            e.printStackTrace();
+        }
+    }
+
+    private void connect(Player player, String server) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF("Connect");
+        out.writeUTF(server);
+        player.sendPluginMessage(plugin, BUNGEE_CHANNEL, bytes.toByteArray());
+    }
+
+    private static class PendingAction {
+        private final UUID playerId;
+        private final String executorType;
+        private final String command;
+
+        private PendingAction(UUID playerId, String executorType, String command) {
+            this.playerId = playerId;
+            this.executorType = executorType;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Locale;
+
+// Answers /npc completions from Paper's AsyncTabCompleteEvent, off the main thread, so a slow tick
+// never delays them. Looked up by reflection because the plugin is built against the Spigot API;
+// on Spigot nothing is registered and completion stays with the synchronous TabCompleter.
+public class AsyncTabCompletion implements Listener {
+
+    private static final String EVENT_CLASS = "com.destroystokyo.paper.event.server.AsyncTabCompleteEvent";
+
+    private final NPCTabCompleter completer;
+    private final PluginCommand command;
+    private final MethodHandle getBuffer;
+    private final MethodHandle isCommand;
+    private final MethodHandle getSender;
+    private final MethodHandle setCompletions;
+    private final MethodHandle setHandled;
+
+    private AsyncTabCompletion(NPCTabCompleter completer, PluginCommand command, Class<?> eventClass) throws ReflectiveOperationException {
+        this.completer = completer;
+        this.command = command;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        this.getBuffer = lookup.findVirtual(eventClass, "getBuffer", MethodType.methodType(String.class));
+        this.isCommand = lookup.findVirtual(eventClass, "isCommand", MethodType.methodType(boolean.class));
+        this.getSender = lookup.findVirtual(eventClass, "getSender", MethodType.methodType(CommandSender.class));
+        this.setCompletions = lookup.findVirtual(eventClass, "setCompletions", MethodType.methodType(void.class, List.class));
+        this.setHandled = lookup.findVirtual(eventClass, "setHandled", MethodType.methodType(void.class, boolean.class));
+    }
+
+    // Returns false when the server has no async tab completion
+    @SuppressWarnings("unchecked")
+    public static boolean register(NaltNPC plugin, NPCTabCompleter completer, PluginCommand command) {
+        Class<? extends Event> eventClass;
+        AsyncTabCompletion listener;
+        try {
+            eventClass = (Class<? extends Event>) Class.forName(EVENT_CLASS);
+            listener = new AsyncTabCompletion(completer, command, eventClass);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+        plugin.getServer().getPluginManager().registerEvent(eventClass, listener, EventPriority.NORMAL,
+                (ignored, event) -> listener.complete(event), plugin, true);
+        return true;
+    }
+
+    private void complete(Event event) {
+        try {
+            if (!(boolean) isCommand.invoke(event)) {
+                return;
+            }
+            String buffer = (String) getBuffer.invoke(event);
+            // Only the arguments, the server itself completes the command name
+            int space = buffer.indexOf(' ');
+            if (space < 0 || !isOurLabel(buffer.substring(buffer.startsWith("/") ? 1 : 0, space))) {
+                return;
+            }
+            CommandSender sender = (CommandSender) getSender.invoke(event);
+            if (!command.testPermissionSilent(sender)) {
+                return;
+            }
+            String[] args = buffer.substring(space + 1).split(" ", -1);
+            setCompletions.invoke(event, completer.onTabComplete(sender, command, buffer.substring(0, space), args));
+            setHandled.invoke(event, true);
+        } catch (Throwable e) {
+            // Not handled, the server falls back to the synchronous completer
+        }
+    }
+
+    private boolean isOurLabel(String label) {
+        String name = label.toLowerCase(Locale.ROOT);
+        int namespace = name.indexOf(':');
+        if (namespace >= 0) {
+            if (!name.substring(0, namespace).equals(command.getPlugin().getName().toLowerCase(Locale.ROOT))) {
+                return false;
+            }
+            name = name.substring(namespace + 1);
+        }
+        if (name.equals(command.getName().toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+        for (String alias : command.getAliases()) {
+            if (name.equals(alias.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
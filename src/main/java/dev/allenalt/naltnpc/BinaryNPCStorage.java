@@ -0,0 +1,504 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Display;
+import org.bukkit.entity.EntityType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+// Compact alternative to npcs.yml. The file is a header followed by length-prefixed entries, each either a
+// full NPC or a removal marker. Changes are appended, so saving one NPC writes only that NPC, and the latest
+// entry for an id wins. An id -> offset index tracks the live entries and the file is rewritten without the
+// superseded ones once they take up more space than the live ones.
+public class BinaryNPCStorage implements NPCStorage {
+
+    private static final int MAGIC = 0x4E4E5043; // "NNPC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte ENTRY_NPC = 1;
+    private static final byte ENTRY_REMOVED = 2;
+
+    // Below this much dead space compacting is not worth a full rewrite
+    private static final long MIN_COMPACT_BYTES = 64 * 1024L;
+    // Compaction copies live entries through a buffer of at least this size
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final File tempFile;
+    private final Logger logger;
+    // npcs.yml to migrate from when the binary file does not exist yet, may be null
+    private final File legacyFile;
+
+    // Only touched by the persistence writer thread
+    private final Map<String, Slot> index;
+    private FileChannel channel;
+    private long end;
+    private long deadBytes;
+    // Raised after a failed compaction so the next attempt waits for more dead space
+    private long compactThreshold = MIN_COMPACT_BYTES;
+    private boolean loaded;
+
+    public BinaryNPCStorage(File file, Logger logger, File legacyFile) {
+        this.file = file;
+        this.tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        this.logger = logger;
+        this.legacyFile = legacyFile;
+        this.index = new HashMap<>();
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public List<NPCRecord> load() throws IOException {
+        if (!file.exists()) {
+            if (legacyFile != null && legacyFile.exists()) {
+                migrate();
+            } else {
+                replace(new ArrayList<>());
+            }
+        }
+        close();
+        index.clear();
+        deadBytes = 0;
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(file.getName() + " is too large");
+        }
+        // Never kept past load(), records copy what they need out of it. The file stays mapped until it is
+        // collected though, so compact() reads instead of mapping and dropTail() copes with a refused truncate.
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file.getName() + " is not an NPC file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file.getName() + " has unsupported version " + buffer.getInt(4));
+        }
+
+        Map<String, NPCRecord> records = new HashMap<>();
+        int position = HEADER_SIZE;
+        while (position < size) {
+            int length = size - position >= 4 ? buffer.getInt(position) : -1;
+            if (length <= 0 || length > size - position - 4) {
+                // A save that was cut off halfway, everything before it is intact
+                break;
+            }
+            ByteBuffer entry = buffer.duplicate();
+            entry.position(position + 4).limit(position + 4 + length);
+            Slot slot = new Slot(position, 4 + length);
+            position += slot.size;
+
+            byte kind;
+            String id;
+            try {
+                kind = entry.get();
+                id = readString(entry);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupt entry at offset " + slot.offset + " of " + file.getName(), e);
+            }
+            Slot previous = kind == ENTRY_REMOVED ? index.remove(id) : index.put(id, slot);
+            if (previous != null) {
+                deadBytes += previous.size;
+            }
+            if (kind == ENTRY_REMOVED) {
+                records.remove(id);
+                deadBytes += slot.size;
+                continue;
+            }
+
+            NPCRecord record;
+            try {
+                record = readRecord(id, entry, logger);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupt entry for NPC '" + id + "' in " + file.getName(), e);
+            }
+            // Unreadable NPCs stay indexed, so they survive compaction like they would in npcs.yml
+            if (record != null) {
+                records.put(id, record);
+            } else {
+                records.remove(id);
+            }
+        }
+        if (position < size) {
+            logger.warning("Dropping " + (size - position) + " bytes of an incomplete save at the end of " + file.getName() + ".");
+            dropTail(position, size);
+        }
+        end = position;
+        loaded = true;
+        return new ArrayList<>(records.values());
+    }
+
+    @Override
+    public void write(Map<String, NPCRecord> changed, Set<String> removed) throws IOException {
+        if (!loaded) {
+            // Writing now could shadow NPCs we failed to read
+            throw new IOException(file.getName() + " was not loaded, refusing to write to it");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<String, Slot> written = new HashMap<>();
+        for (String id : removed) {
+            if (index.containsKey(id)) {
+                written.put(id, appendEntry(out, bytes, end, id, null));
+            }
+        }
+        for (NPCRecord record : changed.values()) {
+            written.put(record.getId(), appendEntry(out, bytes, end, record.getId(), record));
+        }
+        if (written.isEmpty()) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long position = end;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        end = position;
+
+        for (Map.Entry<String, Slot> entry : written.entrySet()) {
+            Slot previous = index.remove(entry.getKey());
+            if (previous != null) {
+                deadBytes += previous.size;
+            }
+            if (removed.contains(entry.getKey())) {
+                deadBytes += entry.getValue().size;
+            } else {
+                index.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (deadBytes > compactThreshold && deadBytes > end - HEADER_SIZE - deadBytes) {
+            compact();
+        }
+    }
+
+    // The file is still mapped by load() until the buffer is collected, and a mapped file cannot be truncated
+    // on Windows. Zeroed bytes read as an empty entry, so loading stops there just the same.
+    private void dropTail(long position, long size) throws IOException {
+        try {
+            channel.truncate(position);
+        } catch (IOException e) {
+            ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(size - position, COPY_BUFFER_SIZE));
+            for (long at = position; at < size; at += zeros.capacity()) {
+                zeros.clear().limit((int) Math.min(zeros.capacity(), size - at));
+                while (zeros.hasRemaining()) {
+                    channel.write(zeros, at + zeros.position());
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    // Serializes one entry onto out and returns where it will land once the batch is appended at base
+    private static Slot appendEntry(DataOutputStream out, ByteArrayOutputStream bytes, long base, String id,
+                                    NPCRecord record) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeByte(record != null ? ENTRY_NPC : ENTRY_REMOVED);
+        writeString(bodyOut, id);
+        if (record != null) {
+            writeRecord(bodyOut, record);
+        }
+        bodyOut.flush();
+
+        Slot slot = new Slot(base + bytes.size(), 4 + body.size());
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.flush();
+        return slot;
+    }
+
+    // Copies the live entries into a fresh file, skipping everything superseded or removed. Read, not mapped:
+    // Windows cannot replace a file that is still mapped, and a mapping is only released once it is collected.
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        long before = end;
+        Map<String, Slot> moved = new HashMap<>();
+        long position = HEADER_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, header());
+            for (Map.Entry<String, Slot> entry : index.entrySet()) {
+                Slot slot = entry.getValue();
+                if (slot.size > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(slot.size);
+                }
+                buffer.clear().limit(slot.size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, slot.offset + buffer.position()) < 0) {
+                        throw new IOException("Entry at offset " + slot.offset + " of " + file.getName() + " ends early");
+                    }
+                }
+                buffer.flip();
+                writeFully(out, buffer);
+                moved.put(entry.getKey(), new Slot(position, slot.size));
+                position += slot.size;
+            }
+            out.force(true);
+        }
+
+        close();
+        try {
+            move(tempFile, file);
+        } catch (IOException e) {
+            // The appended save is already safe in the old file, keep using it and try again after more changes
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            compactThreshold = deadBytes * 2;
+            logger.warning("Could not replace " + file.getName() + " with its compacted copy, keeping the old file: " + e.getMessage());
+            return;
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        index.putAll(moved);
+        end = position;
+        deadBytes = 0;
+        compactThreshold = MIN_COMPACT_BYTES;
+        logger.info("Compacted " + file.getName() + " from " + before / 1024 + "KB to " + end / 1024 + "KB in "
+                + (System.nanoTime() - start) / 1_000_000L + "ms.");
+    }
+
+    // One-shot conversion of npcs.yml
+    private void migrate() throws IOException {
+        List<NPCRecord> records = new YamlNPCStorage(legacyFile, logger).load();
+        replace(records);
+        YamlNPCStorage.keepAsBackup(legacyFile, records.size(), file.getName(), logger);
+    }
+
+    // Writes a complete file holding exactly these NPCs
+    private void replace(List<NPCRecord> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (NPCRecord record : records) {
+            appendEntry(out, bytes, 0, record.getId(), record);
+        }
+        out.flush();
+        Files.write(tempFile.toPath(), bytes.toByteArray());
+        move(tempFile, file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Also the wire format of NPCSync
+    static void writeRecord(DataOutputStream out, NPCRecord record) throws IOException {
+        writeString(out, record.getType().name());
+        writeString(out, record.getName());
+        writeString(out, record.getWorld());
+        out.writeDouble(record.getX());
+        out.writeDouble(record.getY());
+        out.writeDouble(record.getZ());
+        out.writeFloat(record.getYaw());
+        out.writeFloat(record.getPitch());
+        out.writeBoolean(record.isLookAtPlayers());
+        writeString(out, record.getSkinName());
+        out.writeDouble(record.getRenderDistance());
+
+        Hologram hologram = record.getHologram();
+        out.writeBoolean(hologram != null);
+        if (hologram != null) {
+            out.writeInt(hologram.getLines().size());
+            for (String line : hologram.getLines()) {
+                writeString(out, line);
+            }
+            out.writeBoolean(hologram.isShadow());
+            out.writeBoolean(hologram.getBackground() != null);
+            out.writeInt(hologram.getBackground() != null ? hologram.getBackground() : 0);
+            writeString(out, hologram.getBillboard().name());
+            out.writeFloat(hologram.getScale());
+        }
+
+        out.writeInt(record.getActions().size());
+        for (NPCData.NPCAction action : record.getActions()) {
+            writeString(out, action.getExecutorType());
+            writeString(out, action.getCommand());
+        }
+        out.writeInt(record.getTags().size());
+        for (String tag : record.getTags()) {
+            writeString(out, tag);
+        }
+
+        Route route = record.getRoute();
+        out.writeBoolean(route != null);
+        if (route != null) {
+            out.writeDouble(route.getSpeed());
+            out.writeBoolean(route.isLoop());
+            out.writeInt(route.size());
+            for (Route.Waypoint waypoint : route.getWaypoints()) {
+                out.writeDouble(waypoint.getX());
+                out.writeDouble(waypoint.getY());
+                out.writeDouble(waypoint.getZ());
+                out.writeInt(waypoint.getPauseTicks());
+            }
+        }
+
+        writeString(out, record.getTemplate());
+        out.writeInt(record.getOverrides());
+    }
+
+    static NPCRecord readRecord(String id, ByteBuffer in, Logger logger) {
+        String typeName = readString(in);
+        String name = readString(in);
+        String world = readString(in);
+        double x = in.getDouble();
+        double y = in.getDouble();
+        double z = in.getDouble();
+        float yaw = in.getFloat();
+        float pitch = in.getFloat();
+        boolean lookAtPlayers = in.get() != 0;
+        String skinName = readString(in);
+        double renderDistance = in.getDouble();
+
+        Hologram hologram = null;
+        if (in.get() != 0) {
+            int count = readCount(in);
+            List<String> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                lines.add(readString(in));
+            }
+            boolean shadow = in.get() != 0;
+            boolean hasBackground = in.get() != 0;
+            int background = in.getInt();
+            String billboardName = readString(in);
+            float scale = in.getFloat();
+            Display.Billboard billboard;
+            try {
+                billboard = Display.Billboard.valueOf(billboardName);
+            } catch (IllegalArgumentException e) {
+                billboard = Display.Billboard.CENTER;
+            }
+            hologram = new Hologram(lines, shadow, hasBackground ? background : null, billboard, scale);
+        }
+
+        int actionCount = readCount(in);
+        List<NPCData.NPCAction> actions = new ArrayList<>(actionCount);
+        for (int i = 0; i < actionCount; i++) {
+            actions.add(new NPCData.NPCAction(readString(in), readString(in)));
+        }
+        int tagCount = readCount(in);
+        Set<String> tags = new LinkedHashSet<>();
+        for (int i = 0; i < tagCount; i++) {
+            tags.add(readString(in));
+        }
+        Route route = null;
+        if (in.get() != 0) {
+            double speed = in.getDouble();
+            boolean loop = in.get() != 0;
+            int waypointCount = readCount(in);
+            List<Route.Waypoint> waypoints = new ArrayList<>(waypointCount);
+            for (int i = 0; i < waypointCount; i++) {
+                waypoints.add(new Route.Waypoint(in.getDouble(), in.getDouble(), in.getDouble(), in.getInt()));
+            }
+            route = new Route(waypoints, speed, loop);
+        }
+        String template = readString(in);
+        int overrides = in.getInt();
+
+        EntityType type;
+        try {
+            type = EntityType.valueOf(typeName);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Skipping NPC '" + id + "': invalid entity type '" + typeName + "'.");
+            return null;
+        }
+        return new NPCRecord(id, type, name, world, x, y, z, yaw, pitch, hologram, lookAtPlayers, skinName,
+                renderDistance, actions, tags, route, template, overrides);
+    }
+
+    // Length-prefixed UTF-8, -1 for null
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Every element takes at least a byte, so a count past the remaining bytes is corrupt. Checked before
+    // it sizes a list, the entry may come from another server.
+    private static int readCount(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Slot {
+        private final long offset;
+        private final int size;
+
+        private Slot(long offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
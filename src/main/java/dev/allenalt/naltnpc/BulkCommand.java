@@ -0,0 +1,295 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// /npc bulk, edits the player's selection of NPCs as one transaction
+public class BulkCommand {
+
+    private final NaltNPC plugin;
+    private final NPCManager npcManager;
+    private final NPCPersistence persistence;
+
+    public BulkCommand(NaltNPC plugin, NPCManager npcManager, NPCPersistence persistence) {
+        this.plugin = plugin;
+        this.npcManager = npcManager;
+        this.persistence = persistence;
+    }
+
+    public boolean handle(Player player, String[] args) {
+        if (args.length < 2) {
+            sendUsage(player);
+            return true;
+        }
+
+        switch (args[1].toLowerCase()) {
+            case "select":
+                return handleSelect(player, args);
+            case "import":
+                return handleImport(player, args);
+            case "move":
+                return handleMove(player, args);
+            case "hologram":
+                return handleHologram(player, args);
+            case "action":
+                return handleAction(player, args);
+            case "tag":
+                return handleTag(player, args);
+            case "remove":
+                List<String> selection = requireSelection(player);
+                if (selection != null) {
+                    commit(player, "Remove", npcManager.removeNPCs(selection));
+                    npcManager.clearBulkSelection(player);
+                }
+                return true;
+            default:
+                sendUsage(player);
+                return true;
+        }
+    }
+
+    private boolean handleSelect(Player player, String[] args) {
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk select <radius/region/tag/all/clear> [...]");
+            return true;
+        }
+
+        List<String> ids;
+        switch (args[2].toLowerCase()) {
+            case "radius":
+                if (args.length < 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc bulk select radius <blocks>");
+                    return true;
+                }
+                try {
+                    ids = npcManager.selectInRadius(player.getLocation(), Double.parseDouble(args[3]));
+                } catch (NumberFormatException e) {
+                    player.sendMessage(ChatColor.RED + "Invalid radius!");
+                    return true;
+                }
+                break;
+            case "region":
+                if (args.length < 9) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc bulk select region <x1> <y1> <z1> <x2> <y2> <z2>");
+                    return true;
+                }
+                try {
+                    Location corner1 = new Location(player.getWorld(), Double.parseDouble(args[3]),
+                            Double.parseDouble(args[4]), Double.parseDouble(args[5]));
+                    Location corner2 = new Location(player.getWorld(), Double.parseDouble(args[6]),
+                            Double.parseDouble(args[7]), Double.parseDouble(args[8]));
+                    ids = npcManager.selectInRegion(player.getWorld(), corner1, corner2);
+                } catch (NumberFormatException e) {
+                    player.sendMessage(ChatColor.RED + "Invalid coordinates!");
+                    return true;
+                }
+                break;
+            case "tag":
+                if (args.length < 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc bulk select tag <tag>");
+                    return true;
+                }
+                ids = npcManager.selectByTag(args[3]);
+                break;
+            case "all":
+                ids = new ArrayList<>(npcManager.getAllNPCs().keySet());
+                break;
+            case "clear":
+                npcManager.clearBulkSelection(player);
+                player.sendMessage(ChatColor.GREEN + "Selection cleared!");
+                return true;
+            default:
+                player.sendMessage(ChatColor.RED + "Invalid selection! Use radius, region, tag, all or clear.");
+                return true;
+        }
+
+        npcManager.setBulkSelection(player, ids);
+        player.sendMessage(ChatColor.GREEN + "Selected " + ids.size() + " NPCs.");
+        return true;
+    }
+
+    private boolean handleImport(Player player, String[] args) {
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk import <file>");
+            return true;
+        }
+        String name = args[2].endsWith(".yml") ? args[2] : args[2] + ".yml";
+        File importDir = new File(plugin.getDataFolder(), "imports");
+        File file = new File(importDir, name);
+        if (!file.getParentFile().equals(importDir) || !file.isFile()) {
+            player.sendMessage(ChatColor.RED + "No file '" + name + "' in plugins/NaltNPC/imports!");
+            return true;
+        }
+
+        // Same format as npcs.yml, parsed off the main thread
+        long start = System.nanoTime();
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return new YamlNPCStorage(file, plugin.getLogger()).load();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).whenComplete((records, error) -> plugin.getServer().getScheduler().runTask(plugin, () -> {
+            if (error != null) {
+                player.sendMessage(ChatColor.RED + "Could not read " + name + ": " + error.getCause().getMessage());
+                return;
+            }
+            player.sendMessage(ChatColor.YELLOW + "Parsed " + records.size() + " NPCs from " + name + " in "
+                    + (System.nanoTime() - start) / 1_000_000L + "ms.");
+            BulkTransaction bulk = npcManager.createNPCs(records);
+            commit(player, "Import", bulk);
+            npcManager.setBulkSelection(player, bulk.getChanged());
+        }));
+        return true;
+    }
+
+    private boolean handleMove(Player player, String[] args) {
+        if (args.length < 5) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk move <dx> <dy> <dz>");
+            return true;
+        }
+        double dx;
+        double dy;
+        double dz;
+        try {
+            dx = Double.parseDouble(args[2]);
+            dy = Double.parseDouble(args[3]);
+            dz = Double.parseDouble(args[4]);
+        } catch (NumberFormatException e) {
+            player.sendMessage(ChatColor.RED + "Invalid offset!");
+            return true;
+        }
+        List<String> selection = requireSelection(player);
+        if (selection != null) {
+            commit(player, "Move", npcManager.moveNPCs(selection, dx, dy, dz));
+        }
+        return true;
+    }
+
+    private boolean handleHologram(Player player, String[] args) {
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk hologram <add/set/remove> [text]");
+            return true;
+        }
+        String action = args[2].toLowerCase();
+        if (!action.equals("remove") && args.length < 4) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk hologram " + action + " <text>");
+            return true;
+        }
+        String text = ChatColor.translateAlternateColorCodes('&', join(args, 3));
+
+        List<String> selection = requireSelection(player);
+        if (selection == null) {
+            return true;
+        }
+        switch (action) {
+            case "add":
+                commit(player, "Hologram add", npcManager.addHologramLines(selection, text));
+                break;
+            case "set":
+                commit(player, "Hologram set", npcManager.setHolograms(selection, text));
+                break;
+            case "remove":
+                commit(player, "Hologram remove", npcManager.removeHolograms(selection));
+                break;
+            default:
+                player.sendMessage(ChatColor.RED + "Invalid action! Use add, set, or remove.");
+        }
+        return true;
+    }
+
+    private boolean handleAction(Player player, String[] args) {
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk action <add/remove> [CONSOLE/PLAYER/SERVER] [command]");
+            return true;
+        }
+        String action = args[2].toLowerCase();
+        if (action.equals("remove")) {
+            List<String> selection = requireSelection(player);
+            if (selection != null) {
+                commit(player, "Action remove", npcManager.clearActions(selection));
+            }
+            return true;
+        }
+        if (!action.equals("add") || args.length < 5) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk action add <CONSOLE/PLAYER/SERVER> <command>");
+            return true;
+        }
+        String executorType = args[3].toUpperCase();
+        if (!executorType.equals("CONSOLE") && !executorType.equals("PLAYER") && !executorType.equals("SERVER")) {
+            player.sendMessage(ChatColor.RED + "Invalid executor type! Use CONSOLE, PLAYER, or SERVER.");
+            return true;
+        }
+        List<String> selection = requireSelection(player);
+        if (selection != null) {
+            commit(player, "Action add", npcManager.addActions(selection, executorType, join(args, 4)));
+        }
+        return true;
+    }
+
+    private boolean handleTag(Player player, String[] args) {
+        if (args.length < 4) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc bulk tag <add/remove> <tag>");
+            return true;
+        }
+        List<String> selection = requireSelection(player);
+        if (selection == null) {
+            return true;
+        }
+        switch (args[2].toLowerCase()) {
+            case "add":
+                commit(player, "Tag add", npcManager.addTags(selection, args[3]));
+                break;
+            case "remove":
+                commit(player, "Tag remove", npcManager.removeTags(selection, args[3]));
+                break;
+            default:
+                player.sendMessage(ChatColor.RED + "Invalid action! Use add or remove.");
+        }
+        return true;
+    }
+
+    private List<String> requireSelection(Player player) {
+        List<String> selection = npcManager.getBulkSelection(player);
+        if (selection.isEmpty()) {
+            player.sendMessage(ChatColor.RED + "No NPCs selected! Use /npc bulk select first.");
+            return null;
+        }
+        return selection;
+    }
+
+    // One save for the whole edit, then the world catches up over the next ticks
+    void commit(Player player, String description, BulkTransaction bulk) {
+        for (String id : bulk.getChanged()) {
+            persistence.markDirty(id);
+        }
+        persistence.flush();
+        bulk.apply(plugin, player, description);
+    }
+
+    private static String join(String[] args, int from) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = from; i < args.length; i++) {
+            builder.append(args[i]).append(" ");
+        }
+        return builder.toString().trim();
+    }
+
+    private void sendUsage(Player player) {
+        player.sendMessage(ChatColor.GOLD + "=== Bulk NPC Commands ===");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk select <radius/region/tag/all/clear> [...]" + ChatColor.WHITE + " - Select NPCs");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk import <file>" + ChatColor.WHITE + " - Create NPCs from plugins/NaltNPC/imports/<file>.yml");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk move <dx> <dy> <dz>" + ChatColor.WHITE + " - Move the selection by an offset");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk hologram <add/set/remove> [text]" + ChatColor.WHITE + " - Edit holograms of the selection");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk action <add/remove> [type] [command]" + ChatColor.WHITE + " - Edit actions of the selection");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk tag <add/remove> <tag>" + ChatColor.WHITE + " - Tag the selection");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk remove" + ChatColor.WHITE + " - Remove the selection");
+    }
+}
@@ -0,0 +1,109 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+// Collects the NPC changes of one bulk edit. Data changes apply immediately, entity
+// updates are queued here and applied later under a per-tick time budget.
+public class BulkTransaction {
+
+    private static final long PROGRESS_INTERVAL_NANOS = 2_000_000_000L;
+
+    private final long startNanos;
+    private final Set<String> changed;
+    private final Deque<Runnable> effects;
+    private int skipped;
+    private long dataNanos;
+
+    public BulkTransaction() {
+        this.startNanos = System.nanoTime();
+        this.changed = new LinkedHashSet<>();
+        this.effects = new ArrayDeque<>();
+    }
+
+    public void markChanged(String id) {
+        changed.add(id);
+    }
+
+    public void defer(Runnable effect) {
+        effects.add(effect);
+    }
+
+    // Ids of every NPC that was created, changed or removed
+    public Set<String> getChanged() {
+        return Collections.unmodifiableSet(changed);
+    }
+
+    public void markSkipped() {
+        skipped++;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    void finishData() {
+        dataNanos = System.nanoTime() - startNanos;
+    }
+
+    public int getPendingEffects() {
+        return effects.size();
+    }
+
+    // Applies the queued entity updates over as many ticks as needed, reporting progress to the sender
+    public void apply(NaltNPC plugin, CommandSender sender, String description) {
+        int total = effects.size();
+        long budgetNanos = (long) (Math.max(0.1, plugin.getConfig().getDouble("bulk.tick-budget-ms", 5.0)) * 1_000_000L);
+        sender.sendMessage(ChatColor.GREEN + description + ": " + changed.size() + " NPCs changed in "
+                + formatMillis(dataNanos) + ", " + total + " world updates queued."
+                + (skipped > 0 ? ChatColor.YELLOW + " " + skipped + " skipped." : ""));
+        if (total == 0) {
+            return;
+        }
+
+        long applyStart = System.nanoTime();
+        new BukkitRunnable() {
+            private int ticks;
+            private int done;
+            private long lastProgress = applyStart;
+
+            @Override
+            public void run() {
+                ticks++;
+                long tickStart = System.nanoTime();
+                // Always make progress, even if a single update takes longer than the budget
+                do {
+                    Runnable effect = effects.pollFirst();
+                    try {
+                        effect.run();
+                    } catch (RuntimeException e) {
+                        plugin.getLogger().severe("A bulk NPC update failed!");
+                        e.printStackTrace();
+                    }
+                    done++;
+                } while (!effects.isEmpty() && System.nanoTime() - tickStart < budgetNanos);
+
+                long now = System.nanoTime();
+                if (effects.isEmpty()) {
+                    cancel();
+                    sender.sendMessage(ChatColor.GREEN + description + ": applied " + done + " world updates over "
+                            + ticks + " ticks in " + formatMillis(now - applyStart) + ".");
+                } else if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    sender.sendMessage(ChatColor.YELLOW + description + ": " + done + "/" + total + " world updates applied...");
+                }
+            }
+        }.runTaskTimer(plugin, 1L, 1L);
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,48 @@
+package dev.allenalt.naltnpc;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+// Per player and NPC click cooldowns, expired entries are purged instead of piling up
+public class ClickCooldowns {
+
+    private final long cooldownMillis;
+    // Player -> NPC id -> time the cooldown ends, most players only ever click a few NPCs
+    private final Map<UUID, Map<String, Long>> expiries;
+
+    public ClickCooldowns(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+        this.expiries = new HashMap<>();
+    }
+
+    // Returns false while the player is still on cooldown for this NPC
+    public boolean tryClick(UUID playerId, String npcId, long now) {
+        if (cooldownMillis <= 0) {
+            return true;
+        }
+        Map<String, Long> playerExpiries = expiries.computeIfAbsent(playerId, key -> new HashMap<>(4));
+        Long expiry = playerExpiries.get(npcId);
+        if (expiry != null && expiry > now) {
+            return false;
+        }
+        playerExpiries.put(npcId, now + cooldownMillis);
+        return true;
+    }
+
+    public void forget(UUID playerId) {
+        expiries.remove(playerId);
+    }
+
+    public void purge(long now) {
+        Iterator<Map<String, Long>> iterator = expiries.values().iterator();
+        while (iterator.hasNext()) {
+            Map<String, Long> playerExpiries = iterator.next();
+            playerExpiries.values().removeIf(expiry -> expiry <= now);
+            if (playerExpiries.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.TextDisplay;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.util.Transformation;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import java.util.List;
+import java.util.UUID;
+
+public class EntityNPCRenderer implements NPCRenderer {
+
+    // Where the old ArmorStand holograms were placed
+    private static final double LEGACY_HOLOGRAM_OFFSET = 2.5;
+
+    private final NaltNPC plugin;
+    private final PlaceholderManager placeholders;
+    private final NPCRegistry registry;
+
+    // Tags written to our entities so a restart can find them again
+    private final NamespacedKey npcKey;
+    private final NamespacedKey hologramKey;
+
+    private final LatencyHistogram spawnTimer;
+    private final LatencyHistogram teleportTimer;
+    private final LatencyHistogram hologramTimer;
+
+    // Reused by every walking step
+    private final Location step;
+
+    public EntityNPCRenderer(NaltNPC plugin, PlaceholderManager placeholders, NPCRegistry registry) {
+        this.plugin = plugin;
+        this.placeholders = placeholders;
+        this.registry = registry;
+        this.npcKey = new NamespacedKey(plugin, "npc");
+        this.hologramKey = new NamespacedKey(plugin, "hologram");
+        this.spawnTimer = plugin.getMetrics().timer(NPCMetrics.SPAWN);
+        this.teleportTimer = plugin.getMetrics().timer(NPCMetrics.TELEPORT);
+        this.hologramTimer = plugin.getMetrics().timer(NPCMetrics.HOLOGRAM);
+        this.step = new Location(null, 0, 0, 0);
+    }
+
+    @Override
+    public void spawn(NPCData data) {
+        spawnEntity(data);
+        updateHologram(data);
+    }
+
+    @Override
+    public void restore(NPCData data) {
+        Location location = data.getLocation();
+        Chunk chunk = location.getChunk();
+        Location legacyHologramLoc = location.clone().add(0, LEGACY_HOLOGRAM_OFFSET, 0);
+
+        for (Entity entity : chunk.getEntities()) {
+            PersistentDataContainer container = entity.getPersistentDataContainer();
+            if (data.getId().equals(container.get(npcKey, PersistentDataType.STRING))) {
+                adoptEntity(data, entity);
+            } else if (data.getId().equals(container.get(hologramKey, PersistentDataType.STRING))) {
+                // Hologram lines are cheap to respawn, so they are never adopted
+                entity.remove();
+            } else if (isUntagged(container)) {
+                // Entities spawned before tagging existed, matched on what they look like
+                if (entity.getType() == data.getType() && data.getName().equals(entity.getCustomName())
+                        && entity.getLocation().distanceSquared(location) < 1.0) {
+                    container.set(npcKey, PersistentDataType.STRING, data.getId());
+                    adoptEntity(data, entity);
+                } else if (entity instanceof ArmorStand && ((ArmorStand) entity).isMarker()
+                        && isLegacyHologramText(data.getHologram(), entity.getCustomName())
+                        && entity.getLocation().distanceSquared(legacyHologramLoc) < 1.0) {
+                    // Replaced by TextDisplay lines below
+                    entity.remove();
+                }
+            }
+        }
+
+        if (data.getEntity() == null) {
+            spawnEntity(data);
+        }
+        updateHologram(data);
+    }
+
+    private static boolean isLegacyHologramText(Hologram hologram, String name) {
+        return hologram != null && name != null && String.join("\n", hologram.getLines()).equals(name);
+    }
+
+    private boolean isUntagged(PersistentDataContainer container) {
+        return !container.has(npcKey, PersistentDataType.STRING) && !container.has(hologramKey, PersistentDataType.STRING);
+    }
+
+    private void adoptEntity(NPCData data, Entity entity) {
+        if (data.getEntity() == null) {
+            entity.setVisibleByDefault(false);
+            entity.setPersistent(false);
+            data.setEntity(entity);
+            registry.indexEntity(entity.getUniqueId(), data);
+        } else if (data.getEntity() != entity) {
+            entity.remove(); // Duplicate left behind by an earlier crash
+        }
+    }
+
+    private void spawnEntity(NPCData data) {
+        long start = System.nanoTime();
+        Location location = data.getLocation();
+        Entity entity = location.getWorld().spawnEntity(location, data.getType());
+        entity.getPersistentDataContainer().set(npcKey, PersistentDataType.STRING, data.getId());
+        // Only players the VisibilityEngine shows it to receive the entity
+        entity.setVisibleByDefault(false);
+        entity.setCustomName(data.getName());
+        entity.setCustomNameVisible(true);
+        entity.setGravity(false);
+        entity.setInvulnerable(true);
+        // Never saved with the chunk, the lifecycle manager respawns it when the chunk loads
+        entity.setPersistent(false);
+
+        // Prevent NPC from moving
+        if (entity instanceof LivingEntity) {
+            LivingEntity living = (LivingEntity) entity;
+            living.setAI(false);
+            living.setCollidable(false);
+        }
+
+        data.setEntity(entity);
+        registry.indexEntity(entity.getUniqueId(), data);
+        spawnTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void despawn(NPCData data) {
+        if (data.getEntity() != null) {
+            registry.unindexEntity(data.getEntity().getUniqueId());
+            data.getEntity().remove();
+            data.setEntity(null);
+        }
+        removeHologramDisplays(data);
+        // Replacement entities start hidden and are shown again on the next visibility pass
+        data.getViewers().clear();
+    }
+
+    @Override
+    public void teleport(NPCData data, Location location) {
+        long start = System.nanoTime();
+        if (data.getEntity() != null) {
+            data.getEntity().teleport(location);
+        }
+        List<TextDisplay> displays = data.getHologramDisplays();
+        for (int i = 0; i < displays.size(); i++) {
+            displays.get(i).teleport(lineLocation(data.getHologram(), location, i));
+        }
+        teleportTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void move(NPCData data) {
+        // Real entities are tracked by the server, which sends their viewers small relative moves itself
+        Location location = data.getLocation();
+        step.setWorld(location.getWorld());
+        step.setX(location.getX());
+        step.setY(location.getY());
+        step.setZ(location.getZ());
+        step.setYaw(data.getHeadYaw());
+        step.setPitch(data.getHeadPitch());
+        if (data.getEntity() != null) {
+            data.getEntity().teleport(step);
+        }
+        List<TextDisplay> displays = data.getHologramDisplays();
+        for (int i = 0; i < displays.size(); i++) {
+            step.setY(location.getY() + data.getHologram().getLineOffset(i));
+            step.setYaw(0);
+            step.setPitch(0);
+            displays.get(i).teleport(step);
+        }
+    }
+
+    @Override
+    public void rotate(NPCData data, float yaw, float pitch) {
+        // Only the rotation changes, no position update or chunk checks like a teleport
+        Entity entity = data.getEntity();
+        if (entity != null) {
+            entity.setRotation(yaw, pitch);
+        }
+    }
+
+    @Override
+    public void rotateFor(Player viewer, NPCData data, float yaw, float pitch) {
+        // A real entity faces the same way for everyone
+        rotate(data, yaw, pitch);
+    }
+
+    @Override
+    public void updateSkin(NPCData data) {
+        // Mobs have no skin, player NPCs are only available as virtual NPCs
+    }
+
+    @Override
+    public void updateHologram(NPCData data) {
+        long start = System.nanoTime();
+        Hologram hologram = data.getHologram();
+        List<TextDisplay> displays = data.getHologramDisplays();
+        if (hologram == null) {
+            removeHologramDisplays(data);
+            hologramTimer.record(System.nanoTime() - start);
+            return;
+        }
+
+        // Drop surplus lines, restyle and reposition the ones that stay, then spawn what is missing
+        while (displays.size() > hologram.size()) {
+            TextDisplay display = displays.remove(displays.size() - 1);
+            registry.unindexEntity(display.getUniqueId());
+            display.remove();
+        }
+        for (int i = 0; i < displays.size(); i++) {
+            TextDisplay display = displays.get(i);
+            applyStyle(display, hologram);
+            display.setText(placeholders.render(data, i, null));
+            display.teleport(lineLocation(hologram, data.getLocation(), i));
+        }
+        for (int i = displays.size(); i < hologram.size(); i++) {
+            displays.add(spawnHologramLine(data, i));
+        }
+        hologramTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void updateHologramLine(NPCData data, int line) {
+        List<TextDisplay> displays = data.getHologramDisplays();
+        if (data.getHologram() == null || line >= displays.size()) {
+            updateHologram(data);
+            return;
+        }
+        // Only the text changes, so this is a single metadata update for viewers
+        long start = System.nanoTime();
+        displays.get(line).setText(placeholders.render(data, line, null));
+        hologramTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void setHologramLineText(NPCData data, int line, Player viewer, String text) {
+        // Every viewer sees the same entity, so per-viewer text cannot be shown here
+        List<TextDisplay> displays = data.getHologramDisplays();
+        if (viewer == null && line < displays.size()) {
+            long start = System.nanoTime();
+            displays.get(line).setText(text);
+            hologramTimer.record(System.nanoTime() - start);
+        }
+    }
+
+    private TextDisplay spawnHologramLine(NPCData data, int line) {
+        Hologram hologram = data.getHologram();
+        Location lineLoc = lineLocation(hologram, data.getLocation(), line);
+        // Configured inside the spawn callback so players never see the display unstyled
+        TextDisplay display = lineLoc.getWorld().spawn(lineLoc, TextDisplay.class, spawned -> {
+            spawned.getPersistentDataContainer().set(hologramKey, PersistentDataType.STRING, data.getId());
+            spawned.setVisibleByDefault(false);
+            spawned.setPersistent(false);
+            spawned.setGravity(false);
+            spawned.setInvulnerable(true);
+            spawned.setText(placeholders.render(data, line, null));
+            applyStyle(spawned, hologram);
+        });
+        registry.indexEntity(display.getUniqueId(), data);
+        for (UUID viewerId : data.getViewers()) {
+            Player viewer = Bukkit.getPlayer(viewerId);
+            if (viewer != null) {
+                viewer.showEntity(plugin, display);
+            }
+        }
+        return display;
+    }
+
+    private static void applyStyle(TextDisplay display, Hologram hologram) {
+        display.setShadowed(hologram.isShadow());
+        display.setBillboard(hologram.getBillboard());
+        if (hologram.getBackground() == null) {
+            display.setDefaultBackground(true);
+        } else {
+            display.setDefaultBackground(false);
+            display.setBackgroundColor(Color.fromARGB(hologram.getBackground()));
+        }
+        float scale = hologram.getScale();
+        display.setTransformation(new Transformation(new Vector3f(), new Quaternionf(),
+                new Vector3f(scale, scale, scale), new Quaternionf()));
+    }
+
+    private static Location lineLocation(Hologram hologram, Location base, int line) {
+        return base.clone().add(0, hologram.getLineOffset(line), 0);
+    }
+
+    private void removeHologramDisplays(NPCData data) {
+        for (TextDisplay display : data.getHologramDisplays()) {
+            registry.unindexEntity(display.getUniqueId());
+            display.remove();
+        }
+        data.getHologramDisplays().clear();
+    }
+
+    @Override
+    public void showTo(Player player, NPCData data) {
+        if (data.getEntity() != null) {
+            player.showEntity(plugin, data.getEntity());
+        }
+        List<TextDisplay> displays = data.getHologramDisplays();
+        for (int i = 0; i < displays.size(); i++) {
+            TextDisplay display = displays.get(i);
+            if (data.getViewers().size() == 1) {
+                // Placeholders are only refreshed while someone is watching, catch up for the first viewer
+                display.setText(placeholders.render(data, i, null));
+            }
+            player.showEntity(plugin, display);
+        }
+    }
+
+    @Override
+    public void hideFrom(Player player, NPCData data) {
+        if (data.getEntity() != null) {
+            player.hideEntity(plugin, data.getEntity());
+        }
+        for (TextDisplay display : data.getHologramDisplays()) {
+            player.hideEntity(plugin, display);
+        }
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return false;
+    }
+
+    @Override
+    public void shutdown() {
+        // Tagged entities left behind by a reload are re-attached by restore()
+    }
+}
@@ -0,0 +1,104 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Display;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Immutable hologram definition, every line is rendered as its own TextDisplay
+public class Hologram {
+
+    public static final double BASE_OFFSET = 2.3;
+    private static final double LINE_HEIGHT = 0.27;
+
+    private final List<String> lines;
+    private final boolean shadow;
+    private final Integer background; // ARGB, null uses the client default
+    private final Display.Billboard billboard;
+    private final float scale;
+
+    public Hologram(List<String> lines, boolean shadow, Integer background, Display.Billboard billboard, float scale) {
+        // Interned, many NPCs show the same lines
+        List<String> interned = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            interned.add(line.intern());
+        }
+        this.lines = Collections.unmodifiableList(interned);
+        this.shadow = shadow;
+        this.background = background;
+        this.billboard = billboard;
+        this.scale = scale;
+    }
+
+    public static Hologram of(String line) {
+        return new Hologram(Collections.singletonList(line), false, null, Display.Billboard.CENTER, 1.0F);
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    public boolean isShadow() {
+        return shadow;
+    }
+
+    public Integer getBackground() {
+        return background;
+    }
+
+    public Display.Billboard getBillboard() {
+        return billboard;
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    // Height above the NPC's feet, the first line sits on top
+    public double getLineOffset(int index) {
+        return BASE_OFFSET + (lines.size() - 1 - index) * LINE_HEIGHT * scale;
+    }
+
+    public Hologram withLines(List<String> lines) {
+        return new Hologram(lines, shadow, background, billboard, scale);
+    }
+
+    public Hologram withLine(int index, String text) {
+        List<String> copy = new ArrayList<>(lines);
+        copy.set(index, text);
+        return withLines(copy);
+    }
+
+    public Hologram withAddedLine(String text) {
+        List<String> copy = new ArrayList<>(lines);
+        copy.add(text);
+        return withLines(copy);
+    }
+
+    public Hologram withoutLine(int index) {
+        List<String> copy = new ArrayList<>(lines);
+        copy.remove(index);
+        return withLines(copy);
+    }
+
+    public Hologram withShadow(boolean shadow) {
+        return new Hologram(lines, shadow, background, billboard, scale);
+    }
+
+    public Hologram withBackground(Integer background) {
+        return new Hologram(lines, shadow, background, billboard, scale);
+    }
+
+    public Hologram withBillboard(Display.Billboard billboard) {
+        return new Hologram(lines, shadow, background, billboard, scale);
+    }
+
+    public Hologram withScale(float scale) {
+        return new Hologram(lines, shadow, background, billboard, scale);
+    }
+}
@@ -0,0 +1,162 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Re-renders hologram lines whose placeholders changed, a limited number of lines per tick
+public class HologramRefresher implements NPCBehaviour {
+
+    private final NPCManager npcManager;
+    private final PlaceholderManager placeholders;
+    private final int interval;
+    private final int updatesPerTick;
+
+    private final Map<String, LiveHologram> live;
+    private int budget;
+
+    public HologramRefresher(NaltNPC plugin, NPCManager npcManager) {
+        this.npcManager = npcManager;
+        this.placeholders = npcManager.getPlaceholders();
+        this.interval = Math.max(1, plugin.getConfig().getInt("holograms.refresh-interval-ticks", 5));
+        this.updatesPerTick = Math.max(1, plugin.getConfig().getInt("holograms.updates-per-tick", 100));
+        this.live = new HashMap<>();
+
+        npcManager.getScheduler().register(this);
+    }
+
+    @Override
+    public String getName() {
+        return "holograms";
+    }
+
+    @Override
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public void startTick(long tick) {
+        placeholders.tick();
+        budget = updatesPerTick;
+    }
+
+    // Nobody sees it, the renderer shows current values when a viewer arrives
+    @Override
+    public boolean appliesTo(NPCData data) {
+        return data.getHologram() != null && !data.getViewers().isEmpty();
+    }
+
+    @Override
+    public void update(NPCData data) {
+        LiveHologram hologram = live.get(data.getId());
+        if (hologram == null || hologram.data != data) {
+            hologram = new LiveHologram(data, placeholders.getTick());
+            live.put(data.getId(), hologram);
+        }
+        hologram.markDirty();
+        // Lines left over once the tick's budget is spent go out on the NPC's next update
+        if (budget > 0) {
+            budget -= hologram.flush(budget);
+        }
+    }
+
+    @Override
+    public void forget(NPCData data) {
+        LiveHologram hologram = live.get(data.getId());
+        if (hologram != null && hologram.data == data) {
+            live.remove(data.getId());
+        }
+    }
+
+    private class LiveHologram {
+        private final NPCData data;
+        private final BitSet dirty;
+        // Placeholder tick the lines were last compared against
+        private long checkedTick;
+
+        // Last text sent for each line, compared against so unchanged lines are never resent
+        private Hologram source;
+        private String[] shared;
+        private Map<Integer, Map<UUID, String>> perViewer;
+
+        private LiveHologram(NPCData data, long tick) {
+            this.data = data;
+            this.dirty = new BitSet();
+            this.checkedTick = tick;
+        }
+
+        private void markDirty() {
+            long tick = placeholders.getTick();
+            if (tick == checkedTick) {
+                return;
+            }
+            List<String> lines = data.getHologram().getLines();
+            for (int i = 0; i < lines.size(); i++) {
+                if (placeholders.compile(lines.get(i)).refreshedSince(checkedTick)) {
+                    dirty.set(i);
+                }
+            }
+            checkedTick = tick;
+        }
+
+        // Returns how much of the tick's budget was used
+        private int flush(int budget) {
+            Hologram hologram = data.getHologram();
+            if (hologram != source) {
+                // Lines were edited, the renderer already showed fresh text for the new layout
+                source = hologram;
+                shared = new String[hologram.size()];
+                perViewer = new HashMap<>();
+            }
+
+            int used = 0;
+            int line = dirty.nextSetBit(0);
+            while (line >= 0 && used < budget) {
+                dirty.clear(line);
+                if (line < hologram.size()) {
+                    used += refreshLine(line);
+                }
+                line = dirty.nextSetBit(line + 1);
+            }
+            return used;
+        }
+
+        private int refreshLine(int line) {
+            NPCRenderer renderer = npcManager.getRenderer();
+            PlaceholderText text = placeholders.compile(source.getLines().get(line));
+
+            if (!text.isPerPlayer() || !renderer.isVirtual()) {
+                String value = text.render(null);
+                if (!value.equals(shared[line])) {
+                    shared[line] = value;
+                    renderer.setHologramLineText(data, line, null, value);
+                }
+                return 1;
+            }
+
+            Set<UUID> viewers = data.getViewers();
+            Map<UUID, String> sent = perViewer.computeIfAbsent(line, key -> new HashMap<>());
+            if (sent.size() > viewers.size()) {
+                sent.keySet().retainAll(viewers);
+            }
+            for (UUID viewerId : viewers) {
+                Player viewer = Bukkit.getPlayer(viewerId);
+                if (viewer == null) {
+                    continue;
+                }
+                String value = text.render(viewer);
+                if (!value.equals(sent.put(viewerId, value))) {
+                    renderer.setHologramLineText(data, line, viewer, value);
+                }
+            }
+            return Math.max(1, viewers.size());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Turns NPCs with look-at-players enabled towards players. In per-viewer mode every nearby
+// viewer sees the NPC face them, otherwise everyone sees it face the nearest player.
+public class LookBehaviour implements NPCBehaviour {
+
+    private static final double LOOK_RADIUS = 10.0; // Look at players within 10 blocks
+
+    private final NPCManager npcManager;
+    private final int interval;
+    private final boolean perViewer;
+    // Smaller turns are not sent, they are not visible and would only cost a packet
+    private final float minAngle;
+    // Share of the remaining turn made per update, 1 turns straight to the player
+    private final float smoothing;
+
+    // Reused every update
+    private final Location scratch;
+    private final List<Player> nearby;
+    private final float[] turn;
+
+    public LookBehaviour(NaltNPC plugin, NPCManager npcManager) {
+        this.npcManager = npcManager;
+        this.interval = Math.max(1, plugin.getConfig().getInt("look.update-interval-ticks", 2));
+        this.minAngle = (float) Math.max(0.0, plugin.getConfig().getDouble("look.min-angle", 1.5));
+        this.smoothing = (float) Math.min(1.0, Math.max(0.05, plugin.getConfig().getDouble("look.smoothing", 0.5)));
+        this.scratch = new Location(null, 0, 0, 0);
+        this.nearby = new ArrayList<>();
+        this.turn = new float[2];
+
+        boolean perViewerMode = plugin.getConfig().getString("look.mode", "per-viewer").equalsIgnoreCase("per-viewer");
+        if (perViewerMode && !npcManager.getRenderer().isVirtual()) {
+            plugin.getLogger().info("Per-viewer look needs render-mode 'virtual', NPCs look at the nearest player instead.");
+        }
+        this.perViewer = perViewerMode && npcManager.getRenderer().isVirtual();
+    }
+
+    @Override
+    public String getName() {
+        return "look";
+    }
+
+    @Override
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public boolean appliesTo(NPCData data) {
+        return data.isLookAtPlayers() && (!perViewer || !data.getViewers().isEmpty());
+    }
+
+    @Override
+    public void update(NPCData data) {
+        if (perViewer) {
+            updatePerViewer(data);
+            return;
+        }
+
+        Location npcLoc = data.getLocation();
+        // Only players in the neighbouring grid cells can be in range
+        Player nearest = npcManager.getSpatialGrid().nearestPlayer(npcLoc, LOOK_RADIUS);
+        if (nearest != null && turnTowards(npcLoc, nearest, data.getHeadYaw(), data.getHeadPitch())) {
+            data.setHeadRotation(turn[0], turn[1]);
+            npcManager.getRenderer().rotate(data, turn[0], turn[1]);
+        }
+    }
+
+    // Only the (NPC, player) pairs in the NPC's grid neighbourhood are looked at, each gets its own packets
+    private void updatePerViewer(NPCData data) {
+        Location npcLoc = data.getLocation();
+        Set<UUID> viewers = data.getViewers();
+        Map<UUID, float[]> heads = data.getViewerHeads();
+        if (heads.size() > viewers.size()) {
+            heads.keySet().retainAll(viewers);
+        }
+
+        nearby.clear();
+        npcManager.getSpatialGrid().collectPlayers(npcLoc, LOOK_RADIUS, nearby);
+        for (int i = 0; i < nearby.size(); i++) {
+            Player player = nearby.get(i);
+            UUID playerId = player.getUniqueId();
+            if (!viewers.contains(playerId)) {
+                continue;
+            }
+            float[] head = heads.get(playerId);
+            float yaw = head != null ? head[0] : data.getHeadYaw();
+            float pitch = head != null ? head[1] : data.getHeadPitch();
+            if (!turnTowards(npcLoc, player, yaw, pitch)) {
+                continue;
+            }
+            if (head == null) {
+                head = new float[2];
+                heads.put(playerId, head);
+            }
+            head[0] = turn[0];
+            head[1] = turn[1];
+            npcManager.getRenderer().rotateFor(player, data, turn[0], turn[1]);
+        }
+        nearby.clear();
+    }
+
+    // Works out the next head rotation into turn, false if the NPC is already close enough to facing the player
+    private boolean turnTowards(Location npcLoc, Player player, float yaw, float pitch) {
+        player.getLocation(scratch);
+        double dx = scratch.getX() - npcLoc.getX();
+        double dy = scratch.getY() + player.getEyeHeight() - npcLoc.getY();
+        double dz = scratch.getZ() - npcLoc.getZ();
+        // Same angles as Location.setDirection, without the vector and location copies
+        float targetYaw = (float) Math.toDegrees(Math.atan2(-dx, dz));
+        float targetPitch = (float) Math.toDegrees(Math.atan2(-dy, Math.sqrt(dx * dx + dz * dz)));
+
+        float yawDelta = wrapDegrees(targetYaw - yaw);
+        float pitchDelta = targetPitch - pitch;
+        if (Math.abs(yawDelta) < minAngle && Math.abs(pitchDelta) < minAngle) {
+            return false;
+        }
+
+        // Ease towards the player, the last small step goes straight there
+        float step = Math.abs(yawDelta) * smoothing < minAngle && Math.abs(pitchDelta) * smoothing < minAngle ? 1.0f : smoothing;
+        turn[0] = wrapDegrees(yaw + yawDelta * step);
+        turn[1] = pitch + pitchDelta * step;
+        return true;
+    }
+
+    // Into -180..180, so the NPC always turns the short way round
+    private static float wrapDegrees(float degrees) {
+        degrees %= 360.0f;
+        if (degrees >= 180.0f) {
+            degrees -= 360.0f;
+        } else if (degrees < -180.0f) {
+            degrees += 360.0f;
+        }
+        return degrees;
+    }
+}
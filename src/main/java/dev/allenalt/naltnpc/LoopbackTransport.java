@@ -0,0 +1,39 @@
+package dev.allenalt.naltnpc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Delivers messages to every other loopback transport in the same JVM, for trying out and testing sync without a proxy
+public class LoopbackTransport implements SyncTransport {
+
+    private static final List<LoopbackTransport> CONNECTED = new CopyOnWriteArrayList<>();
+
+    private Consumer<byte[]> receiver;
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        CONNECTED.add(this);
+    }
+
+    @Override
+    public void send(byte[] message) {
+        for (LoopbackTransport transport : CONNECTED) {
+            if (transport != this) {
+                // Every receiver gets its own copy, as if it had come over the network
+                transport.receiver.accept(message.clone());
+            }
+        }
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void stop() {
+        CONNECTED.remove(this);
+    }
+}
@@ -0,0 +1,157 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Appends the metrics to metrics.csv or metrics.jsonl every interval. Values are totals since the
+// plugin started or the last /npc stats reset, durations in nanoseconds.
+public class MetricsDump {
+
+    private static final String CSV_HEADER = "time,metric,count,p50_ns,p99_ns,max_ns,mean_ns\n";
+
+    private final NaltNPC plugin;
+    private final NPCManager npcManager;
+    private final NPCMetrics metrics;
+    private final long intervalTicks;
+    private final boolean json;
+    private final File file;
+    private BukkitTask task;
+
+    public MetricsDump(NaltNPC plugin, NPCManager npcManager, NPCMetrics metrics) {
+        this.plugin = plugin;
+        this.npcManager = npcManager;
+        this.metrics = metrics;
+        this.intervalTicks = Math.max(1L, plugin.getConfig().getLong("metrics.dump.interval-seconds", 60L)) * 20L;
+        String format = plugin.getConfig().getString("metrics.dump.format", "csv").toLowerCase();
+        if (!format.equals("csv") && !format.equals("json")) {
+            plugin.getLogger().warning("Unknown metrics.dump.format '" + format + "', using csv.");
+        }
+        this.json = format.equals("json");
+        this.file = new File(plugin.getDataFolder(), json ? "metrics.jsonl" : "metrics.csv");
+    }
+
+    public void start() {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::dump, intervalTicks, intervalTicks);
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    // NPC counts are read here on the main thread, only the file write happens off it
+    private void dump() {
+        long time = System.currentTimeMillis();
+        Map<String, LatencyHistogram.Snapshot> timers = metrics.snapshotTimers();
+        Map<String, Long> counters = metrics.snapshotCounters();
+        Map<String, Long> npcs = new TreeMap<>();
+        long loaded = 0;
+        for (NPCData data : npcManager.getNPCs()) {
+            String world = data.getLocation().getWorld() != null ? data.getLocation().getWorld().getName() : "?";
+            npcs.merge(world, 1L, Long::sum);
+            if (data.isSpawned()) {
+                loaded++;
+            }
+        }
+        String text = json ? toJson(time, timers, counters, npcs, loaded) : toCsv(time, timers, counters, npcs, loaded);
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(text));
+    }
+
+    private String toCsv(long time, Map<String, LatencyHistogram.Snapshot> timers, Map<String, Long> counters,
+                         Map<String, Long> npcs, long loaded) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : timers.entrySet()) {
+            LatencyHistogram.Snapshot timer = entry.getValue();
+            out.append(time).append(',').append(csv(entry.getKey())).append(',').append(timer.getCount())
+                    .append(',').append(timer.getPercentile(50)).append(',').append(timer.getPercentile(99))
+                    .append(',').append(timer.getMax()).append(',').append((long) timer.getMean()).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            out.append(time).append(',').append(csv(entry.getKey())).append(',').append(entry.getValue()).append(",,,,\n");
+        }
+        long total = 0;
+        for (Map.Entry<String, Long> entry : npcs.entrySet()) {
+            out.append(time).append(',').append(csv("npcs." + entry.getKey())).append(',').append(entry.getValue()).append(",,,,\n");
+            total += entry.getValue();
+        }
+        out.append(time).append(",npcs,").append(total).append(",,,,\n");
+        out.append(time).append(",npcs-loaded,").append(loaded).append(",,,,\n");
+        return out.toString();
+    }
+
+    // World names may contain anything, quote them when they would break the row
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // One JSON object per line
+    private String toJson(long time, Map<String, LatencyHistogram.Snapshot> timers, Map<String, Long> counters,
+                          Map<String, Long> npcs, long loaded) {
+        StringBuilder out = new StringBuilder();
+        out.append("{\"time\":").append(time).append(",\"since\":").append(metrics.getSince()).append(",\"timers\":{");
+        boolean first = true;
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : timers.entrySet()) {
+            LatencyHistogram.Snapshot timer = entry.getValue();
+            out.append(first ? "" : ",").append(json(entry.getKey())).append(":{\"count\":").append(timer.getCount())
+                    .append(",\"p50_ns\":").append(timer.getPercentile(50))
+                    .append(",\"p99_ns\":").append(timer.getPercentile(99))
+                    .append(",\"max_ns\":").append(timer.getMax())
+                    .append(",\"mean_ns\":").append((long) timer.getMean()).append('}');
+            first = false;
+        }
+        out.append("},\"counters\":{");
+        first = true;
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            out.append(first ? "" : ",").append(json(entry.getKey())).append(':').append(entry.getValue());
+            first = false;
+        }
+        long total = 0;
+        out.append("},\"npcs\":{\"worlds\":{");
+        first = true;
+        for (Map.Entry<String, Long> entry : npcs.entrySet()) {
+            out.append(first ? "" : ",").append(json(entry.getKey())).append(':').append(entry.getValue());
+            total += entry.getValue();
+            first = false;
+        }
+        out.append("},\"total\":").append(total).append(",\"loaded\":").append(loaded).append("}}\n");
+        return out.toString();
+    }
+
+    private static String json(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private synchronized void write(String text) {
+        try {
+            if (!json && !file.exists()) {
+                text = CSV_HEADER + text;
+            }
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Could not write " + file.getName() + "!");
+            e.printStackTrace();
+        }
+    }
+}
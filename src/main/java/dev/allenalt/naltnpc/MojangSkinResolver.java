@@ -0,0 +1,98 @@
+package dev.allenalt.naltnpc;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+
+// Resolves names through the Mojang API, or any service answering in the same format
+public class MojangSkinResolver implements SkinResolver {
+
+    public static final String PROFILE_URL = "https://api.mojang.com/users/profiles/minecraft/{name}";
+    public static final String SESSION_URL = "https://sessionserver.mojang.com/session/minecraft/profile/{uuid}?unsigned=false";
+
+    private final String profileUrl;
+    private final String sessionUrl;
+    private final HttpClient client;
+    private final Duration timeout;
+
+    public MojangSkinResolver(String profileUrl, String sessionUrl, Duration timeout) {
+        this.profileUrl = profileUrl;
+        this.sessionUrl = sessionUrl;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    @Override
+    public Skin resolve(String name) throws IOException {
+        JsonObject profile = get(profileUrl.replace("{name}", URLEncoder.encode(name, StandardCharsets.UTF_8)));
+        if (profile == null || !profile.has("id")) {
+            return null;
+        }
+        String id = profile.get("id").getAsString();
+
+        JsonObject session = get(sessionUrl.replace("{uuid}", id));
+        if (session == null || !session.has("properties")) {
+            return null;
+        }
+        for (JsonElement element : session.getAsJsonArray("properties")) {
+            JsonObject property = element.getAsJsonObject();
+            if ("textures".equals(property.get("name").getAsString())) {
+                String signature = property.has("signature") ? property.get("signature").getAsString() : null;
+                String profileName = profile.has("name") ? profile.get("name").getAsString() : name;
+                return new Skin(profileName, parseUuid(id), property.get("value").getAsString(), signature,
+                        System.currentTimeMillis());
+            }
+        }
+        return null;
+    }
+
+    // null when the service has no such profile
+    private JsonObject get(String url) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        }
+
+        int status = response.statusCode();
+        if (status == 204 || status == 404) {
+            return null;
+        }
+        if (status != 200) {
+            throw new IOException("HTTP " + status + " from " + url);
+        }
+        try {
+            JsonElement json = JsonParser.parseString(response.body());
+            return json.isJsonObject() ? json.getAsJsonObject() : null;
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid JSON from " + url, e);
+        }
+    }
+
+    // The API returns ids without dashes
+    private static UUID parseUuid(String id) {
+        if (id.length() == 32) {
+            id = id.substring(0, 8) + "-" + id.substring(8, 12) + "-" + id.substring(12, 16) + "-"
+                    + id.substring(16, 20) + "-" + id.substring(20);
+        }
+        return UUID.fromString(id);
+    }
+}
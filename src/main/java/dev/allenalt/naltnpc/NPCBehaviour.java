@@ -0,0 +1,23 @@
+package dev.allenalt.naltnpc;
+
+// Recurring per-NPC work run by the NPCScheduler within its per-tick time budget
+public interface NPCBehaviour {
+
+    // Shown in /npc timings
+    String getName();
+
+    // Ticks between updates for NPCs with a player close by, distant NPCs are updated less often
+    int getInterval();
+
+    boolean appliesTo(NPCData data);
+
+    void update(NPCData data);
+
+    // Called once at the start of every scheduler tick, before any NPC is updated
+    default void startTick(long tick) {
+    }
+
+    // The NPC was removed, drop anything kept for it
+    default void forget(NPCData data) {
+    }
+}
@@ -1,24 +1,60 @@
 package dev.allenalt.naltnpc;
 
 import org.bukkit.Location;
-import org.bukkit.entity.ArmorStand;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
+import org.bukkit.entity.TextDisplay;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+// Live NPC state, owned by the main thread. Other threads read NPCRecord snapshots from NPCManager.getSnapshot()
 public class NPCData {
-    
+
+    public static final int OVERRIDE_HOLOGRAM = 1;
+    public static final int OVERRIDE_ACTIONS = 1 << 1;
+    public static final int OVERRIDE_SKIN = 1 << 2;
+    public static final int OVERRIDE_LOOK = 1 << 3;
+    public static final int OVERRIDE_RENDER_DISTANCE = 1 << 4;
+
     private final String id;
     private final EntityType type;
     private String name;
     private Entity entity;
     private Location location;
-    private ArmorStand hologram;
+    // Where the head currently points, not saved, the location keeps the NPC's resting facing
+    private float headYaw;
+    private float headPitch;
+    // Head rotation last sent to each viewer in per-viewer look mode, {yaw, pitch}
+    private final Map<UUID, float[]> viewerHeads;
+    // Shared values of a template NPC, null for an NPC that keeps all of them itself
+    private NPCTemplate template;
+    // Which of the template's values this NPC replaces with its own, OVERRIDE_* bits
+    private int overrides;
+    // Own values, only read for an NPC without a template or with the matching override bit
+    private Hologram hologram;
+    private List<TextDisplay> hologramDisplays;
     private boolean lookAtPlayers;
+    // Copy-on-write, actions change rarely and are read on every click. Null until the NPC has its own.
     private List<NPCAction> actions;
     private String skinName;
+    private boolean spawned;
+    private double renderDistance;
+    private final Set<UUID> viewers;
+    // Free-form labels used to select groups of NPCs
+    private final Set<String> tags;
+    // Null for an NPC that stands still, the progress is not saved and starts over on a restart
+    private Route route;
+    private final Route.Progress routeProgress;
 
     public NPCData(String id, EntityType type, String name, Entity entity, Location location) {
         this.id = id;
@@ -26,10 +62,18 @@ public class NPCData {
         this.name = name;
         this.entity = entity;
         this.location = location;
+        this.headYaw = location.getYaw();
+        this.headPitch = location.getPitch();
         this.hologram = null;
+        this.hologramDisplays = new ArrayList<>();
         this.lookAtPlayers = false;
-        this.actions = new ArrayList<>();
+        this.actions = null;
         this.skinName = null;
+        this.renderDistance = 0; // Use the configured default
+        this.viewers = new HashSet<>();
+        this.viewerHeads = new HashMap<>();
+        this.tags = new LinkedHashSet<>();
+        this.routeProgress = new Route.Progress();
     }
 
     public String getId() {
@@ -65,55 +109,274 @@ public class NPCData {
 
     public void setLocation(Location location) {
         this.location = location;
+        this.headYaw = location.getYaw();
+        this.headPitch = location.getPitch();
+    }
+
+    public float getHeadYaw() {
+        return headYaw;
+    }
+
+    public float getHeadPitch() {
+        return headPitch;
+    }
+
+    public void setHeadRotation(float yaw, float pitch) {
+        this.headYaw = yaw;
+        this.headPitch = pitch;
+    }
+
+    public NPCTemplate getTemplate() {
+        return template;
     }
 
-    public ArmorStand getHologram() {
-        return hologram;
+    public int getOverrides() {
+        return overrides;
     }
 
-    public void setHologram(ArmorStand hologram) {
+    // Whether the NPC uses its own value for the given OVERRIDE_* field
+    public boolean owns(int field) {
+        return template == null || (overrides & field) != 0;
+    }
+
+    // Switches to the given template keeping only the overridden values. A null template makes
+    // everything the NPC currently looks like its own.
+    public void setTemplate(NPCTemplate template, int overrides) {
+        if (template == null) {
+            hologram = getHologram();
+            lookAtPlayers = isLookAtPlayers();
+            skinName = getSkinName();
+            renderDistance = getRenderDistance();
+            if (!owns(OVERRIDE_ACTIONS)) {
+                actions = this.template.getActions().isEmpty() ? null : new CopyOnWriteArrayList<>(this.template.getActions());
+            }
+            this.template = null;
+            this.overrides = 0;
+            return;
+        }
+        this.template = template;
+        this.overrides = overrides;
+        // Inherited values come from the template, own copies would only take up memory
+        if (!owns(OVERRIDE_HOLOGRAM)) {
+            hologram = null;
+        }
+        if (!owns(OVERRIDE_ACTIONS)) {
+            actions = null;
+        }
+        if (!owns(OVERRIDE_SKIN)) {
+            skinName = null;
+        }
+    }
+
+    private void override(int field) {
+        if (template != null) {
+            overrides |= field;
+        }
+    }
+
+    public Hologram getHologram() {
+        return owns(OVERRIDE_HOLOGRAM) ? hologram : template.getHologram();
+    }
+
+    public void setHologram(Hologram hologram) {
         this.hologram = hologram;
+        override(OVERRIDE_HOLOGRAM);
+    }
+
+    // One display per hologram line, only used by the entity renderer
+    public List<TextDisplay> getHologramDisplays() {
+        return hologramDisplays;
     }
 
     public boolean isLookAtPlayers() {
-        return lookAtPlayers;
+        return owns(OVERRIDE_LOOK) ? lookAtPlayers : template.isLookAtPlayers();
     }
 
     public void setLookAtPlayers(boolean lookAtPlayers) {
         this.lookAtPlayers = lookAtPlayers;
+        override(OVERRIDE_LOOK);
     }
 
     public void addAction(String executorType, String command) {
+        if (actions == null) {
+            // The first own action starts from the inherited ones
+            actions = new CopyOnWriteArrayList<>(getActions());
+        }
         actions.add(new NPCAction(executorType, command));
+        override(OVERRIDE_ACTIONS);
     }
 
     public void clearActions() {
-        actions.clear();
+        actions = null;
+        override(OVERRIDE_ACTIONS);
     }
 
     public List<NPCAction> getActions() {
-        return new ArrayList<>(actions);
+        if (!owns(OVERRIDE_ACTIONS)) {
+            return template.getActions();
+        }
+        return actions != null ? Collections.unmodifiableList(actions) : Collections.emptyList();
     }
 
     public int getActionCount() {
-        return actions.size();
+        if (!owns(OVERRIDE_ACTIONS)) {
+            return template.getActions().size();
+        }
+        return actions != null ? actions.size() : 0;
     }
 
     public String getSkinName() {
-        return skinName;
+        return owns(OVERRIDE_SKIN) ? skinName : template.getSkinName();
     }
 
     public void setSkinName(String skinName) {
         this.skinName = skinName;
+        override(OVERRIDE_SKIN);
+    }
+
+    public double getRenderDistance() {
+        return owns(OVERRIDE_RENDER_DISTANCE) ? renderDistance : template.getRenderDistance();
+    }
+
+    public void setRenderDistance(double renderDistance) {
+        this.renderDistance = renderDistance;
+        override(OVERRIDE_RENDER_DISTANCE);
+    }
+
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(tags);
+    }
+
+    public boolean hasTag(String tag) {
+        return tags.contains(tag.toLowerCase());
+    }
+
+    public boolean addTag(String tag) {
+        return tags.add(tag.toLowerCase());
+    }
+
+    public boolean removeTag(String tag) {
+        return tags.remove(tag.toLowerCase());
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    // A new route is walked from its first waypoint
+    public void setRoute(Route route) {
+        this.route = route;
+        routeProgress.reset();
+    }
+
+    public Route.Progress getRouteProgress() {
+        return routeProgress;
+    }
+
+    // Where the NPC belongs when not walking: the start of its route, or just where it stands
+    public Location getHomeLocation() {
+        return route != null && route.size() > 0 ? route.getStart(location.getWorld()) : location;
+    }
+
+    // Players the NPC is currently shown to, maintained by the VisibilityEngine
+    public Set<UUID> getViewers() {
+        return viewers;
+    }
+
+    public Map<UUID, float[]> getViewerHeads() {
+        return viewerHeads;
+    }
+
+    // Whether the renderer currently has the NPC materialized in the world
+    public boolean isSpawned() {
+        return spawned;
+    }
+
+    public void setSpawned(boolean spawned) {
+        this.spawned = spawned;
+    }
+
+    // Template is the one the record names, or null if it names none or this server does not have it
+    public static NPCData fromRecord(NPCRecord record, World world, NPCTemplate template) {
+        Location location = new Location(world, record.getX(), record.getY(), record.getZ(), record.getYaw(), record.getPitch());
+        NPCData data = new NPCData(record.getId(), record.getType(), record.getName(), null, location);
+        data.setTemplate(template, record.getOverrides());
+        if (data.owns(OVERRIDE_HOLOGRAM)) {
+            data.setHologram(record.getHologram());
+        }
+        if (data.owns(OVERRIDE_LOOK)) {
+            data.setLookAtPlayers(record.isLookAtPlayers());
+        }
+        if (data.owns(OVERRIDE_SKIN)) {
+            data.setSkinName(record.getSkinName());
+        }
+        if (data.owns(OVERRIDE_RENDER_DISTANCE)) {
+            data.setRenderDistance(record.getRenderDistance());
+        }
+        if (data.owns(OVERRIDE_ACTIONS) && !record.getActions().isEmpty()) {
+            data.actions = new CopyOnWriteArrayList<>(record.getActions());
+        }
+        for (String tag : record.getTags()) {
+            data.addTag(tag);
+        }
+        data.setRoute(record.getRoute());
+        return data;
+    }
+
+    // A walking NPC is saved at the start of its route, so walking never makes it dirty
+    public NPCRecord snapshot() {
+        Location home = getHomeLocation();
+        return new NPCRecord(id, type, name, home.getWorld().getName(), home.getX(), home.getY(),
+                home.getZ(), home.getYaw(), home.getPitch(), getHologram(), isLookAtPlayers(), getSkinName(),
+                getRenderDistance(), getActions(), tags, route, template != null ? template.getName() : null, overrides);
     }
 
     public static class NPCAction {
+        // The only placeholder in action commands. Hologram placeholders such as {player_displayname} can hold
+        // text the player chose through nickname plugins, and would let them add arguments to console commands.
+        private static final String PLAYER_TOKEN = "{player}";
+
         private final String executorType;
         private final String command;
+        // The command without its leading '/', split around {player} once so a click only joins the parts
+        private final String[] segments;
 
+        // Interned, the same few commands repeat across many NPCs
         public NPCAction(String executorType, String command) {
-            this.executorType = executorType;
-            this.command = command;
+            this.executorType = executorType.intern();
+            this.command = command.intern();
+            this.segments = split(command.startsWith("/") ? command.substring(1) : command);
+        }
+
+        private static String[] split(String command) {
+            List<String> segments = new ArrayList<>(2);
+            int start = 0;
+            int open = command.indexOf('{');
+            while (open >= 0) {
+                if (command.regionMatches(true, open, PLAYER_TOKEN, 0, PLAYER_TOKEN.length())) {
+                    segments.add(command.substring(start, open).intern());
+                    start = open + PLAYER_TOKEN.length();
+                }
+                open = command.indexOf('{', open + 1);
+            }
+            segments.add(command.substring(start).intern());
+            return segments.toArray(new String[0]);
+        }
+
+        public boolean hasPlayerToken() {
+            return segments.length > 1;
+        }
+
+        // The command as run for this player, without a leading '/'
+        public String render(String playerName) {
+            if (segments.length == 1) {
+                return segments[0];
+            }
+            StringBuilder builder = new StringBuilder(segments[0]);
+            for (int i = 1; i < segments.length; i++) {
+                builder.append(playerName).append(segments[i]);
+            }
+            return builder.toString();
         }
 
         public String getExecutorType() {
@@ -0,0 +1,85 @@
+package dev.allenalt.naltnpc;
+
+import com.comphenix.protocol.ProtocolLibrary;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.player.PlayerInteractEntityEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Turns clicks on NPCs into their actions
+public class NPCInteractionListener implements Listener {
+
+    private final NPCManager npcManager;
+    private final ClickCooldowns cooldowns;
+    private final ActionDispatcher dispatcher;
+    private final LongAdder clicks;
+
+    public NPCInteractionListener(NaltNPC plugin, NPCManager npcManager) {
+        this.npcManager = npcManager;
+        this.cooldowns = new ClickCooldowns(plugin.getConfig().getLong("interactions.cooldown-ms", 1000L));
+        this.dispatcher = new ActionDispatcher(plugin);
+        this.clicks = plugin.getMetrics().counter(NPCMetrics.CLICKS);
+
+        if (npcManager.getRenderer() instanceof VirtualNPCRenderer) {
+            // Virtual NPCs have no entity, their clicks only show up as packets
+            ProtocolLibrary.getProtocolManager().addPacketListener(
+                    new VirtualClickListener(plugin, this, (VirtualNPCRenderer) npcManager.getRenderer()));
+        }
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                cooldowns.purge(System.currentTimeMillis());
+            }
+        }.runTaskTimer(plugin, 1200L, 1200L);
+    }
+
+    public ActionDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public void click(Player player, NPCData data) {
+        clicks.increment();
+        if (data.getActionCount() == 0 || !cooldowns.tryClick(player.getUniqueId(), data.getId(), System.currentTimeMillis())) {
+            return;
+        }
+        dispatcher.enqueue(player, data);
+    }
+
+    @EventHandler(priority = EventPriority.LOW)
+    public void onInteractEntity(PlayerInteractEntityEvent event) {
+        NPCData data = npcManager.getNPCByEntity(event.getRightClicked().getUniqueId());
+        if (data == null) {
+            return;
+        }
+        event.setCancelled(true);
+        // Fired once per hand, only the main hand counts as a click
+        if (event.getHand() == EquipmentSlot.HAND) {
+            click(event.getPlayer(), data);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOW)
+    public void onDamage(EntityDamageByEntityEvent event) {
+        NPCData data = npcManager.getNPCByEntity(event.getEntity().getUniqueId());
+        if (data == null) {
+            return;
+        }
+        event.setCancelled(true);
+        if (event.getDamager() instanceof Player) {
+            click((Player) event.getDamager(), data);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        cooldowns.forget(event.getPlayer().getUniqueId());
+    }
+}
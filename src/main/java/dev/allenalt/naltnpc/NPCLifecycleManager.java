@@ -0,0 +1,160 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.*;
+
+// NPCData is the source of truth, entities and holograms only exist while their chunk is loaded
+public class NPCLifecycleManager implements Listener {
+
+    private final NaltNPC plugin;
+    private final NPCManager npcManager;
+    private final int spawnsPerTick;
+
+    // NPCs whose chunk has loaded, materialized a few per tick
+    private final Deque<NPCData> pendingSpawns;
+    // world name -> NPCs whose world is not loaded
+    private final Map<String, List<NPCRecord>> pendingWorlds;
+    private final List<Runnable> idleCallbacks;
+    private BukkitTask spawnTask;
+
+    public NPCLifecycleManager(NaltNPC plugin, NPCManager npcManager) {
+        this.plugin = plugin;
+        this.npcManager = npcManager;
+        this.spawnsPerTick = Math.max(1, plugin.getConfig().getInt("loading.spawns-per-tick", 20));
+        this.pendingSpawns = new ArrayDeque<>();
+        this.pendingWorlds = new HashMap<>();
+        this.idleCallbacks = new ArrayList<>();
+    }
+
+    public void enqueue(NPCData data) {
+        pendingSpawns.add(data);
+        startSpawning();
+    }
+
+    public void deferUntilWorldLoads(NPCRecord record) {
+        pendingWorlds.computeIfAbsent(record.getWorld(), name -> new ArrayList<>()).add(record);
+    }
+
+    public int getPendingWorldCount() {
+        int count = 0;
+        for (List<NPCRecord> records : pendingWorlds.values()) {
+            count += records.size();
+        }
+        return count;
+    }
+
+    // Runs once the spawn queue is empty, right away if it already is
+    public void whenIdle(Runnable callback) {
+        if (spawnTask == null && pendingSpawns.isEmpty()) {
+            callback.run();
+        } else {
+            idleCallbacks.add(callback);
+        }
+    }
+
+    public static boolean isChunkReady(Location location) {
+        World world = location.getWorld();
+        int chunkX = location.getBlockX() >> 4;
+        int chunkZ = location.getBlockZ() >> 4;
+        // Spawning into a chunk whose entities are still loading would duplicate the persisted ones
+        return world.isChunkLoaded(chunkX, chunkZ) && world.getChunkAt(chunkX, chunkZ).isEntitiesLoaded();
+    }
+
+    public void materialize(NPCData data) {
+        if (data.isSpawned() || npcManager.getNPC(data.getId()) != data || !isChunkReady(data.getLocation())) {
+            return; // Already there, removed meanwhile, or the chunk load event will bring it back
+        }
+        npcManager.getRenderer().restore(data);
+        data.setSpawned(true);
+    }
+
+    public void dematerialize(NPCData data) {
+        if (data.isSpawned()) {
+            npcManager.getRenderer().despawn(data);
+            data.setSpawned(false);
+        }
+    }
+
+    private void startSpawning() {
+        if (spawnTask != null) {
+            return;
+        }
+        spawnTask = new BukkitRunnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < spawnsPerTick && !pendingSpawns.isEmpty(); i++) {
+                    materialize(pendingSpawns.poll());
+                }
+                if (pendingSpawns.isEmpty()) {
+                    cancel();
+                    spawnTask = null;
+                    List<Runnable> callbacks = new ArrayList<>(idleCallbacks);
+                    idleCallbacks.clear();
+                    callbacks.forEach(Runnable::run);
+                }
+            }
+        }.runTaskTimer(plugin, 1L, 1L);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        for (NPCData data : npcManager.getRegistry().getInChunk(chunk.getWorld(), chunk.getX(), chunk.getZ())) {
+            if (!data.isSpawned()) {
+                pendingSpawns.add(data);
+            }
+        }
+        if (!pendingSpawns.isEmpty()) {
+            startSpawning();
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        for (NPCData data : npcManager.getRegistry().getInChunk(chunk.getWorld(), chunk.getX(), chunk.getZ())) {
+            dematerialize(data);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        World world = event.getWorld();
+        // Pending saves must be snapshotted while the NPCs are still registered
+        plugin.getPersistence().flush();
+        // Copied because unregistering changes the world's view
+        for (NPCData data : new ArrayList<>(npcManager.getRegistry().getInWorld(world))) {
+            dematerialize(data);
+            deferUntilWorldLoads(data.snapshot());
+            npcManager.unregisterNPC(data.getId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        List<NPCRecord> records = pendingWorlds.remove(event.getWorld().getName());
+        if (records == null) {
+            return;
+        }
+        for (NPCRecord record : records) {
+            if (!npcManager.npcExists(record.getId())) {
+                NPCData data = npcManager.fromRecord(record, event.getWorld());
+                npcManager.registerNPC(data);
+                pendingSpawns.add(data);
+            }
+        }
+        startSpawning();
+    }
+}
@@ -0,0 +1,81 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class NPCLoader {
+
+    private final NaltNPC plugin;
+    private final NPCManager npcManager;
+    private final NPCLifecycleManager lifecycle;
+
+    public NPCLoader(NaltNPC plugin, NPCManager npcManager, NPCLifecycleManager lifecycle) {
+        this.plugin = plugin;
+        this.npcManager = npcManager;
+        this.lifecycle = lifecycle;
+    }
+
+    // Completes on the main thread once every loaded NPC is registered
+    public CompletableFuture<Void> load(CompletableFuture<List<NPCRecord>> records) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> registered = new CompletableFuture<>();
+        records.whenComplete((loaded, error) -> {
+            // Still on the thread that parsed the file
+            long parseMillis = (System.nanoTime() - start) / 1_000_000L;
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                if (error != null) {
+                    plugin.getLogger().severe("Could not load " + plugin.getPersistence().getStorage().getName() + "!");
+                    error.printStackTrace();
+                    registered.completeExceptionally(error);
+                    return;
+                }
+                plugin.getLogger().info("Parsed " + loaded.size() + " NPCs in " + parseMillis + "ms.");
+                register(loaded);
+                registered.complete(null);
+            });
+        });
+        return registered;
+    }
+
+    private void register(List<NPCRecord> records) {
+        long start = System.nanoTime();
+        List<NPCData> registered = new ArrayList<>();
+        for (NPCRecord record : records) {
+            if (npcManager.npcExists(record.getId())) {
+                continue; // Created by a command while the file was still loading
+            }
+            if (!npcManager.supportsType(record.getType())) {
+                // Left in storage untouched, it loads again once virtual rendering is enabled
+                plugin.getLogger().warning("Skipping player NPC '" + record.getId() + "': player NPCs need render-mode 'virtual' and ProtocolLib.");
+                continue;
+            }
+            World world = plugin.getServer().getWorld(record.getWorld());
+            if (world == null) {
+                lifecycle.deferUntilWorldLoads(record);
+                continue;
+            }
+            NPCData data = npcManager.fromRecord(record, world);
+            npcManager.registerNPC(data);
+            registered.add(data);
+        }
+        plugin.getLogger().info("Registered " + registered.size() + " NPCs in " + (System.nanoTime() - start) / 1_000_000L
+                + "ms, " + lifecycle.getPendingWorldCount() + " wait for their world to load.");
+
+        long spawnStart = System.nanoTime();
+        int ready = 0;
+        for (NPCData data : registered) {
+            // NPCs in unloaded chunks are materialized by the lifecycle manager when the chunk loads
+            if (NPCLifecycleManager.isChunkReady(data.getLocation())) {
+                lifecycle.enqueue(data);
+                ready++;
+            }
+        }
+        int spawning = ready;
+        int waiting = registered.size() - ready;
+        lifecycle.whenIdle(() -> plugin.getLogger().info("Spawned " + spawning + " NPCs in "
+                + (System.nanoTime() - spawnStart) / 1_000_000L + "ms, " + waiting + " wait for their chunk to load."));
+    }
+}
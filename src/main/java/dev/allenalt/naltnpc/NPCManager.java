@@ -2,94 +2,224 @@ package dev.allenalt.naltnpc;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
-import org.bukkit.entity.ArmorStand;
-import org.bukkit.entity.Entity;
+import org.bukkit.World;
 import org.bukkit.entity.EntityType;
-import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Villager;
 import org.bukkit.entity.Zombie;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class NPCManager {
 
     private final NaltNPC plugin;
-    private final Map<String, NPCData> npcs;
+    private final NPCRegistry registry;
     private final Map<UUID, String> selectedNPCs;
+    private final Map<UUID, Set<String>> bulkSelections;
+    private final SpatialGrid spatialGrid;
+    private final PlaceholderManager placeholders;
+    private final NPCRenderer renderer;
+    private final NPCScheduler scheduler;
+    private final SkinCache skins;
+    private final NPCTemplates templates;
+
+    // Open while a bulk edit applies its data changes, entity updates are queued on it meanwhile
+    private BulkTransaction transaction;
 
     public NPCManager(NaltNPC plugin) {
         this.plugin = plugin;
-        this.npcs = new HashMap<>();
-        this.selectedNPCs = new HashMap<>();
-        
-        // Start look at players task
-        startLookAtPlayersTask();
+        this.selectedNPCs = new ConcurrentHashMap<>();
+        this.bulkSelections = new ConcurrentHashMap<>();
+        this.spatialGrid = new SpatialGrid();
+        spatialGrid.trackOnlinePlayers();
+        this.registry = new NPCRegistry(spatialGrid);
+        this.placeholders = new PlaceholderManager(plugin);
+        this.skins = new SkinCache(plugin, new MojangSkinResolver(
+                plugin.getConfig().getString("skins.profile-url", MojangSkinResolver.PROFILE_URL),
+                plugin.getConfig().getString("skins.session-url", MojangSkinResolver.SESSION_URL),
+                Duration.ofMillis(Math.max(500L, plugin.getConfig().getLong("skins.timeout-ms", 5000L)))));
+        this.renderer = createRenderer();
+        this.templates = new NPCTemplates(plugin);
+        templates.load();
+        this.scheduler = new NPCScheduler(plugin, registry, spatialGrid);
+        scheduler.register(new LookBehaviour(plugin, this));
+        scheduler.register(new WaypointBehaviour(plugin, this));
+
+        // Changes made during a tick become visible to other threads together at its end
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                registry.publish();
+            }
+        }.runTaskTimer(plugin, 1L, 1L);
     }
 
-    public void createNPC(String id, EntityType type, String name, Location location) {
-        // PLAYER type NPCs cannot be spawned - show error
-        if (type == EntityType.PLAYER) {
-            plugin.getLogger().warning("Cannot create NPC with PLAYER type. PLAYER entities cannot be spawned.");
-            return;
+    // Entities and live NPC state are only ever changed on the main thread
+    private static void checkMainThread() {
+        if (!Bukkit.isPrimaryThread()) {
+            throw new IllegalStateException("NPCs can only be changed on the main thread");
         }
-        
-        Entity entity = location.getWorld().spawnEntity(location, type);
-        entity.setCustomName(name);
-        entity.setCustomNameVisible(true);
-        entity.setGravity(false);
-        entity.setInvulnerable(true);
-        entity.setPersistent(true);
-        
-        // Prevent NPC from moving
-        if (entity instanceof LivingEntity) {
-            LivingEntity living = (LivingEntity) entity;
-            living.setAI(false);
-            living.setCollidable(false);
+    }
+
+    private void changed(String id) {
+        registry.markChanged(id);
+        if (transaction != null) {
+            transaction.markChanged(id);
+        }
+    }
+
+    // Runs an entity update now, or queues it while a bulk edit is open
+    private void render(NPCData data, Runnable effect) {
+        if (transaction == null) {
+            effect.run();
+        } else {
+            // The NPC may be removed or replaced before its turn comes
+            transaction.defer(() -> {
+                if (registry.get(data.getId()) == data) {
+                    effect.run();
+                }
+            });
+        }
+    }
+
+    public boolean createNPC(String id, EntityType type, String name, Location location) {
+        checkMainThread();
+        if (!supportsType(type)) {
+            plugin.getLogger().warning("Cannot create NPC '" + id + "': player NPCs need render-mode 'virtual' and ProtocolLib.");
+            return false;
         }
         
-        NPCData data = new NPCData(id, type, name, entity, location);
+        NPCData data = new NPCData(id, type, name, null, location);
         data.setLookAtPlayers(false); // Default to false
-        npcs.put(id, data);
+        addNPC(data);
+        return true;
+    }
+
+    // Creates an NPC that takes everything but its name from the template
+    public boolean createNPC(String id, NPCTemplate template, String name, Location location) {
+        checkMainThread();
+        if (!supportsType(template.getType())) {
+            plugin.getLogger().warning("Cannot create NPC '" + id + "': player NPCs need render-mode 'virtual' and ProtocolLib.");
+            return false;
+        }
+
+        NPCData data = new NPCData(id, template.getType(), name, null, location);
+        data.setTemplate(template, 0);
+        addNPC(data);
+        if (data.getSkinName() != null) {
+            fetchSkin(data);
+        }
+        return true;
+    }
+
+    // The live NPC for a saved one, using the template it names if this server has it
+    public NPCData fromRecord(NPCRecord record, World world) {
+        NPCTemplate template = templates.get(record.getTemplate());
+        if (record.getTemplate() != null && (template == null || template.getType() != record.getType())) {
+            plugin.getLogger().warning("NPC '" + record.getId() + "' uses missing template '" + record.getTemplate()
+                    + "', it keeps its own copy of the template's values.");
+            template = null;
+        }
+        return NPCData.fromRecord(record, world, template);
+    }
+
+    // Player entities cannot be spawned on the server, player NPCs only exist as packets
+    public boolean supportsType(EntityType type) {
+        return type != EntityType.PLAYER || renderer.isVirtual();
+    }
+
+    // Registers a new NPC and spawns it if its chunk is loaded, the lifecycle manager handles the rest
+    public void addNPC(NPCData data) {
+        checkMainThread();
+        registry.register(data);
+        scheduler.track(data);
+        changed(data.getId());
+        render(data, () -> {
+            if (!data.isSpawned() && NPCLifecycleManager.isChunkReady(data.getLocation())) {
+                renderer.spawn(data);
+                data.setSpawned(true);
+            }
+        });
+    }
+
+    // Adds a loaded NPC without rendering it, the loader restores it once its chunk is ready
+    public void registerNPC(NPCData data) {
+        checkMainThread();
+        registry.register(data);
+        scheduler.track(data);
+        // Fetched while the world loads, so the skin is usually ready when the NPC is shown
+        if (data.getSkinName() != null) {
+            fetchSkin(data);
+        }
     }
 
     public void removeNPC(String id) {
-        NPCData data = npcs.get(id);
+        checkMainThread();
+        NPCData data = registry.get(id);
         if (data != null) {
-            if (data.getEntity() != null) {
-                data.getEntity().remove();
-            }
-            if (data.getHologram() != null) {
-                data.getHologram().remove();
+            Runnable despawn = () -> {
+                if (data.isSpawned()) {
+                    renderer.despawn(data);
+                    data.setSpawned(false);
+                }
+            };
+            if (transaction == null) {
+                despawn.run();
+            } else {
+                transaction.defer(despawn);
             }
-            npcs.remove(id);
+            unregisterNPC(id);
+            changed(id);
         }
     }
 
+    // Forgets an NPC without touching the world, the caller has already despawned it
+    public void unregisterNPC(String id) {
+        checkMainThread();
+        registry.unregister(id);
+    }
+
     public void moveNPC(String id, Location location) {
-        NPCData data = npcs.get(id);
+        checkMainThread();
+        NPCData data = registry.get(id);
         if (data != null) {
             data.setLocation(location);
-            if (data.getEntity() != null) {
-                data.getEntity().teleport(location);
-            }
-            if (data.getHologram() != null) {
-                Location hologramLoc = location.clone().add(0, 2.5, 0);
-                data.getHologram().teleport(hologramLoc);
-            }
+            registry.relocate(data);
+            changed(id);
+            render(data, () -> {
+                if (!data.isSpawned()) {
+                    return; // Rendered at the new location once its chunk loads
+                }
+                if (NPCLifecycleManager.isChunkReady(data.getLocation())) {
+                    renderer.teleport(data, data.getLocation());
+                } else {
+                    renderer.despawn(data);
+                    data.setSpawned(false);
+                }
+            });
         }
     }
 
     public void addHologramLine(String id, String text) {
-        NPCData data = npcs.get(id);
+        checkMainThread();
+        NPCData data = registry.get(id);
         if (data != null) {
             if (data.getHologram() == null) {
-                createHologram(id, text);
+                data.setHologram(Hologram.of(text));
             } else {
-                String currentText = data.getHologram().getCustomName();
-                data.getHologram().setCustomName(currentText + "\n" + text);
+                data.setHologram(data.getHologram().withAddedLine(text));
             }
+            changed(id);
+            render(data, () -> {
+                if (data.isSpawned()) {
+                    renderer.updateHologram(data);
+                }
+            });
         }
     }
 
@@ -98,92 +228,513 @@ public class NPCManager {
     }
 
     public void setHologram(String id, String text, boolean textShadow) {
-        removeHologram(id);
-        createHologram(id, text, textShadow);
-    }
-
-    private void createHologram(String id, String text) {
-        createHologram(id, text, false);
+        NPCData data = registry.get(id);
+        if (data != null) {
+            // Replaces the text but keeps the rest of the styling
+            Hologram hologram = data.getHologram() == null ? Hologram.of(text)
+                    : data.getHologram().withLines(Collections.singletonList(text));
+            setHologram(id, hologram.withShadow(textShadow));
+        }
     }
 
-    private void createHologram(String id, String text, boolean textShadow) {
-        NPCData data = npcs.get(id);
+    public void setHologram(String id, Hologram hologram) {
+        checkMainThread();
+        NPCData data = registry.get(id);
         if (data != null) {
-            Location hologramLoc = data.getLocation().clone().add(0, 2.5, 0);
-            ArmorStand hologram = (ArmorStand) hologramLoc.getWorld().spawnEntity(hologramLoc, EntityType.ARMOR_STAND);
-            hologram.setCustomName(text);
-            hologram.setCustomNameVisible(true);
-            hologram.setGravity(false);
-            hologram.setInvulnerable(true);
-            hologram.setVisible(false);
-            hologram.setMarker(true);
-            
-            // Set text shadow (this is cosmetic, actual implementation may vary by client)
-            if (!textShadow) {
-                // Note: Text shadow is client-side, this is a placeholder
-                // In practice, you might need to use display entities in 1.19.4+
-            }
-            
             data.setHologram(hologram);
+            changed(id);
+            render(data, () -> {
+                if (data.isSpawned()) {
+                    renderer.updateHologram(data);
+                }
+            });
+        }
+    }
+
+    // Returns false if the NPC has no such line
+    public boolean setHologramLine(String id, int line, String text) {
+        checkMainThread();
+        NPCData data = registry.get(id);
+        if (data == null || data.getHologram() == null || line < 0 || line >= data.getHologram().size()) {
+            return false;
         }
+        data.setHologram(data.getHologram().withLine(line, text));
+        changed(id);
+        render(data, () -> {
+            if (data.isSpawned()) {
+                renderer.updateHologramLine(data, line);
+            }
+        });
+        return true;
+    }
+
+    public boolean removeHologramLine(String id, int line) {
+        NPCData data = registry.get(id);
+        if (data == null || data.getHologram() == null || line < 0 || line >= data.getHologram().size()) {
+            return false;
+        }
+        Hologram hologram = data.getHologram().withoutLine(line);
+        setHologram(id, hologram.size() == 0 ? null : hologram);
+        return true;
+    }
+
+    public Hologram getHologram(String id) {
+        NPCData data = registry.get(id);
+        return data != null ? data.getHologram() : null;
     }
 
     public void removeHologram(String id) {
-        NPCData data = npcs.get(id);
+        NPCData data = registry.get(id);
         if (data != null && data.getHologram() != null) {
-            data.getHologram().remove();
-            data.setHologram(null);
+            setHologram(id, (Hologram) null);
+        }
+    }
+
+    public void setRenderDistance(String id, double renderDistance) {
+        checkMainThread();
+        NPCData data = registry.get(id);
+        if (data != null) {
+            data.setRenderDistance(renderDistance);
+            changed(id);
+        }
+    }
+
+    public NPCTemplates getTemplates() {
+        return templates;
+    }
+
+    // Switches the NPC to a template, or with null makes it keep its current values as its own
+    public void setTemplate(String id, NPCTemplate template, int overrides) {
+        checkMainThread();
+        NPCData data = registry.get(id);
+        if (data == null) {
+            return;
+        }
+        Hologram hologram = data.getHologram();
+        String skinName = data.getSkinName();
+        data.setTemplate(template, overrides);
+        changed(id);
+        if (!sameHologram(hologram, data.getHologram())) {
+            render(data, () -> {
+                if (data.isSpawned()) {
+                    renderer.updateHologram(data);
+                }
+            });
+        }
+        if (data.getSkinName() != null && !data.getSkinName().equals(skinName)) {
+            fetchSkin(data);
+        }
+    }
+
+    // A scan, templates change rarely and the registry is not indexed by them
+    public List<String> getTemplateInstances(String name) {
+        List<String> ids = new ArrayList<>();
+        for (NPCData data : registry.getAll()) {
+            if (data.getTemplate() != null && data.getTemplate().getName().equals(name)) {
+                ids.add(data.getId());
+            }
+        }
+        return ids;
+    }
+
+    // Saves what the NPC looks like as the template. Every NPC using it switches over in one go, their
+    // entities catch up under the bulk time budget. The source NPC becomes a plain instance of it.
+    public BulkTransaction saveTemplate(String name, String sourceId) {
+        NPCTemplate template = NPCTemplate.of(name, registry.get(sourceId));
+        templates.put(template);
+        List<String> ids = getTemplateInstances(template.getName());
+        if (!ids.contains(sourceId)) {
+            ids.add(sourceId);
         }
+        return bulk(ids, id -> setTemplate(id, template, id.equals(sourceId) ? 0 : registry.get(id).getOverrides()));
+    }
+
+    // The NPCs that used the template keep looking the same, with their own copy of its values
+    public BulkTransaction deleteTemplate(String name) {
+        BulkTransaction bulk = bulk(getTemplateInstances(name.toLowerCase()), id -> setTemplate(id, null, 0));
+        templates.remove(name);
+        return bulk;
+    }
+
+    // The NPC goes to the first waypoint and walks from there, that is also where it is saved
+    public void setRoute(String id, Route route) {
+        checkMainThread();
+        NPCData data = registry.get(id);
+        if (data != null) {
+            data.setRoute(route);
+            changed(id);
+            if (route != null && route.size() > 0) {
+                moveNPC(id, route.getStart(data.getLocation().getWorld()));
+            }
+        }
+    }
+
+    public Route getRoute(String id) {
+        NPCData data = registry.get(id);
+        return data != null ? data.getRoute() : null;
     }
 
     public void setLookAtPlayers(String id, boolean lookAtPlayers) {
-        NPCData data = npcs.get(id);
+        checkMainThread();
+        NPCData data = registry.get(id);
         if (data != null) {
             data.setLookAtPlayers(lookAtPlayers);
+            changed(id);
         }
     }
 
-    private void startLookAtPlayersTask() {
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                for (NPCData data : npcs.values()) {
-                    if (data.isLookAtPlayers() && data.getEntity() != null) {
-                        Location npcLoc = data.getEntity().getLocation();
-                        Player nearest = null;
-                        double nearestDistance = 10.0; // Look at players within 10 blocks
-
-                        for (Player player : npcLoc.getWorld().getPlayers()) {
-                            double distance = player.getLocation().distance(npcLoc);
-                            if (distance < nearestDistance) {
-                                nearest = player;
-                                nearestDistance = distance;
-                            }
-                        }
-
-                        if (nearest != null) {
-                            Location playerLoc = nearest.getEyeLocation();
-                            Location lookLoc = npcLoc.clone();
-                            lookLoc.setDirection(playerLoc.toVector().subtract(npcLoc.toVector()));
-                            data.getEntity().teleport(lookLoc);
-                        }
-                    }
+    private NPCRenderer createRenderer() {
+        String mode = plugin.getConfig().getString("render-mode", "entity");
+        if (mode.equalsIgnoreCase("virtual")) {
+            if (plugin.getServer().getPluginManager().isPluginEnabled("ProtocolLib")) {
+                plugin.getLogger().info("Rendering NPCs as virtual, packet-only entities.");
+                return new VirtualNPCRenderer(plugin, placeholders, skins);
+            }
+            plugin.getLogger().warning("render-mode 'virtual' requires ProtocolLib, falling back to entity NPCs.");
+        }
+        return new EntityNPCRenderer(plugin, placeholders, registry);
+    }
+
+    public void shutdown() {
+        templates.shutdown();
+        renderer.shutdown();
+        skins.shutdown();
+    }
+
+    public boolean addTag(String id, String tag) {
+        checkMainThread();
+        NPCData data = registry.get(id);
+        if (data == null || !data.addTag(tag)) {
+            return false;
+        }
+        changed(id);
+        return true;
+    }
+
+    public boolean removeTag(String id, String tag) {
+        checkMainThread();
+        NPCData data = registry.get(id);
+        if (data == null || !data.removeTag(tag)) {
+            return false;
+        }
+        changed(id);
+        return true;
+    }
+
+    // Applies every change in one go, entity updates are left on the returned transaction to apply()
+    public BulkTransaction bulk(Collection<String> ids, Consumer<String> change) {
+        BulkTransaction bulk = openBulk();
+        try {
+            for (String id : ids) {
+                if (registry.contains(id)) {
+                    change.accept(id);
+                }
+            }
+        } finally {
+            closeBulk(bulk);
+        }
+        return bulk;
+    }
+
+    private BulkTransaction openBulk() {
+        checkMainThread();
+        if (transaction != null) {
+            throw new IllegalStateException("A bulk edit is already in progress");
+        }
+        transaction = new BulkTransaction();
+        return transaction;
+    }
+
+    private void closeBulk(BulkTransaction bulk) {
+        transaction = null;
+        bulk.finishData();
+    }
+
+    public BulkTransaction moveNPCs(Collection<String> ids, double dx, double dy, double dz) {
+        return bulk(ids, id -> moveNPC(id, registry.get(id).getLocation().clone().add(dx, dy, dz)));
+    }
+
+    public BulkTransaction removeNPCs(Collection<String> ids) {
+        return bulk(new ArrayList<>(ids), this::removeNPC);
+    }
+
+    public BulkTransaction addHologramLines(Collection<String> ids, String text) {
+        return bulk(ids, id -> addHologramLine(id, text));
+    }
+
+    public BulkTransaction setHolograms(Collection<String> ids, String text) {
+        return bulk(ids, id -> setHologram(id, text, registry.get(id).getHologram() != null
+                && registry.get(id).getHologram().isShadow()));
+    }
+
+    public BulkTransaction removeHolograms(Collection<String> ids) {
+        return bulk(ids, this::removeHologram);
+    }
+
+    public BulkTransaction addActions(Collection<String> ids, String executorType, String command) {
+        return bulk(ids, id -> addAction(id, executorType, command));
+    }
+
+    public BulkTransaction clearActions(Collection<String> ids) {
+        return bulk(ids, this::clearActions);
+    }
+
+    public BulkTransaction addTags(Collection<String> ids, String tag) {
+        return bulk(ids, id -> addTag(id, tag));
+    }
+
+    public BulkTransaction removeTags(Collection<String> ids, String tag) {
+        return bulk(ids, id -> removeTag(id, tag));
+    }
+
+    // Records whose id is taken or whose world is not loaded are skipped
+    public BulkTransaction createNPCs(List<NPCRecord> records) {
+        BulkTransaction bulk = openBulk();
+        try {
+            for (NPCRecord record : records) {
+                World world = Bukkit.getWorld(record.getWorld());
+                if (world == null || registry.contains(record.getId()) || !supportsType(record.getType())) {
+                    bulk.markSkipped();
+                    continue;
+                }
+                addNPC(fromRecord(record, world));
+            }
+        } finally {
+            closeBulk(bulk);
+        }
+        return bulk;
+    }
+
+    // Brings an NPC to the state of a record made elsewhere, touching only what differs.
+    // Returns false if nothing changed or the NPC cannot exist here.
+    public boolean apply(NPCRecord record) {
+        checkMainThread();
+        World world = Bukkit.getWorld(record.getWorld());
+        if (world == null || !supportsType(record.getType())) {
+            return false;
+        }
+        String id = record.getId();
+        NPCData data = registry.get(id);
+        if (data != null && (data.getType() != record.getType() || !data.getName().equals(record.getName()))) {
+            // Neither can be changed on a spawned NPC
+            removeNPC(id);
+            data = null;
+        }
+        if (data == null) {
+            data = fromRecord(record, world);
+            addNPC(data);
+            if (data.getSkinName() != null) {
+                fetchSkin(data);
+            }
+            return true;
+        }
+
+        boolean updated = false;
+        // Values the record inherits come from our own copy of the template, templates are not synced
+        NPCTemplate template = templates.get(record.getTemplate());
+        if (template != null && template.getType() != record.getType()) {
+            template = null;
+        }
+        int overrides = template != null ? record.getOverrides() : 0;
+        if (data.getTemplate() != template || data.getOverrides() != overrides) {
+            setTemplate(id, template, overrides);
+            updated = true;
+        }
+        if (!Objects.equals(data.getRoute(), record.getRoute())) {
+            setRoute(id, record.getRoute());
+            updated = true;
+        }
+        // A walking NPC is compared by where it is saved, not where it has walked to
+        Location location = data.getHomeLocation();
+        if (location.getWorld() != world || location.getX() != record.getX() || location.getY() != record.getY()
+                || location.getZ() != record.getZ() || location.getYaw() != record.getYaw()
+                || location.getPitch() != record.getPitch()) {
+            moveNPC(id, new Location(world, record.getX(), record.getY(), record.getZ(), record.getYaw(), record.getPitch()));
+            updated = true;
+        }
+        if (data.owns(NPCData.OVERRIDE_HOLOGRAM) && !sameHologram(data.getHologram(), record.getHologram())) {
+            setHologram(id, record.getHologram());
+            updated = true;
+        }
+        if (data.owns(NPCData.OVERRIDE_LOOK) && data.isLookAtPlayers() != record.isLookAtPlayers()) {
+            setLookAtPlayers(id, record.isLookAtPlayers());
+            updated = true;
+        }
+        if (data.owns(NPCData.OVERRIDE_RENDER_DISTANCE) && data.getRenderDistance() != record.getRenderDistance()) {
+            setRenderDistance(id, record.getRenderDistance());
+            updated = true;
+        }
+        if (data.owns(NPCData.OVERRIDE_SKIN) && !Objects.equals(data.getSkinName(), record.getSkinName())) {
+            if (record.getSkinName() != null) {
+                setSkin(id, record.getSkinName());
+            } else {
+                data.setSkinName(null);
+                changed(id);
+            }
+            updated = true;
+        }
+        if (data.owns(NPCData.OVERRIDE_ACTIONS) && !sameActions(data.getActions(), record.getActions())) {
+            data.clearActions();
+            for (NPCData.NPCAction action : record.getActions()) {
+                data.addAction(action.getExecutorType(), action.getCommand());
+            }
+            changed(id);
+            updated = true;
+        }
+        if (!data.getTags().equals(record.getTags())) {
+            for (String tag : new ArrayList<>(data.getTags())) {
+                if (!record.getTags().contains(tag)) {
+                    removeTag(id, tag);
+                }
+            }
+            for (String tag : record.getTags()) {
+                addTag(id, tag);
+            }
+            updated = true;
+        }
+        return updated;
+    }
+
+    private static boolean sameHologram(Hologram a, Hologram b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getLines().equals(b.getLines()) && a.isShadow() == b.isShadow()
+                && Objects.equals(a.getBackground(), b.getBackground()) && a.getBillboard() == b.getBillboard()
+                && a.getScale() == b.getScale();
+    }
+
+    private static boolean sameActions(List<NPCData.NPCAction> a, List<NPCData.NPCAction> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).getExecutorType().equals(b.get(i).getExecutorType())
+                    || !a.get(i).getCommand().equals(b.get(i).getCommand())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<String> selectInRegion(World world, Location corner1, Location corner2) {
+        double minX = Math.min(corner1.getX(), corner2.getX());
+        double minY = Math.min(corner1.getY(), corner2.getY());
+        double minZ = Math.min(corner1.getZ(), corner2.getZ());
+        double maxX = Math.max(corner1.getX(), corner2.getX());
+        double maxY = Math.max(corner1.getY(), corner2.getY());
+        double maxZ = Math.max(corner1.getZ(), corner2.getZ());
+        List<String> ids = new ArrayList<>();
+        for (NPCData data : registry.getInWorld(world)) {
+            Location location = data.getLocation();
+            if (location.getX() >= minX && location.getX() <= maxX && location.getY() >= minY
+                    && location.getY() <= maxY && location.getZ() >= minZ && location.getZ() <= maxZ) {
+                ids.add(data.getId());
+            }
+        }
+        return ids;
+    }
+
+    public List<String> selectInRadius(Location center, double radius) {
+        double radiusSquared = radius * radius;
+        List<String> ids = new ArrayList<>();
+        for (NPCData data : registry.getInWorld(center.getWorld())) {
+            if (data.getLocation().distanceSquared(center) <= radiusSquared) {
+                ids.add(data.getId());
+            }
+        }
+        return ids;
+    }
+
+    public List<String> selectByTag(String tag) {
+        List<String> ids = new ArrayList<>();
+        for (NPCData data : registry.getAll()) {
+            if (data.hasTag(tag)) {
+                ids.add(data.getId());
+            }
+        }
+        return ids;
+    }
+
+    public void setBulkSelection(Player player, Collection<String> ids) {
+        bulkSelections.put(player.getUniqueId(), new LinkedHashSet<>(ids));
+    }
+
+    public void clearBulkSelection(Player player) {
+        bulkSelections.remove(player.getUniqueId());
+    }
+
+    // Ids of NPCs removed since the selection was made are left out
+    public List<String> getBulkSelection(Player player) {
+        Set<String> selection = bulkSelections.get(player.getUniqueId());
+        List<String> ids = new ArrayList<>();
+        if (selection != null) {
+            for (String id : selection) {
+                if (registry.contains(id)) {
+                    ids.add(id);
                 }
             }
-        }.runTaskTimer(plugin, 0L, 5L); // Run every 5 ticks (0.25 seconds)
+        }
+        return ids;
     }
 
     public boolean npcExists(String id) {
-        return npcs.containsKey(id);
+        return registry.contains(id);
+    }
+
+    public NPCData getNPC(String id) {
+        return registry.get(id);
+    }
+
+    // Also matches hologram displays, so clicks and events never scan the NPC list
+    public NPCData getNPCByEntity(UUID entityId) {
+        return registry.getByEntity(entityId);
     }
 
     public Location getNPCLocation(String id) {
-        NPCData data = npcs.get(id);
+        NPCData data = registry.get(id);
         return data != null ? data.getLocation() : null;
     }
 
+    public Collection<NPCData> getNPCs() {
+        return registry.getAll();
+    }
+
+    // Read-only live view, copy it before registering or removing NPCs while iterating
     public Map<String, NPCData> getAllNPCs() {
-        return new HashMap<>(npcs);
+        return registry.asMap();
+    }
+
+    // Latest published state, for use off the main thread
+    public NPCSnapshot getSnapshot() {
+        return registry.getSnapshot();
+    }
+
+    public NPCRegistry getRegistry() {
+        return registry;
+    }
+
+    public PlaceholderManager getPlaceholders() {
+        return placeholders;
+    }
+
+    public NPCRenderer getRenderer() {
+        return renderer;
+    }
+
+    public NPCScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public SkinCache getSkins() {
+        return skins;
+    }
+
+    public SpatialGrid getSpatialGrid() {
+        return spatialGrid;
     }
 
     public void setSelectedNPC(Player player, String id) {
@@ -195,46 +746,52 @@ public class NPCManager {
     }
 
     public void addAction(String id, String executorType, String command) {
-        NPCData data = npcs.get(id);
+        checkMainThread();
+        NPCData data = registry.get(id);
         if (data != null) {
             data.addAction(executorType, command);
+            changed(id);
         }
     }
 
     public void clearActions(String id) {
-        NPCData data = npcs.get(id);
+        checkMainThread();
+        NPCData data = registry.get(id);
         if (data != null) {
             data.clearActions();
+            changed(id);
         }
     }
 
     public int getActionCount(String id) {
-        NPCData data = npcs.get(id);
+        NPCData data = registry.get(id);
         return data != null ? data.getActionCount() : 0;
     }
 
-    public boolean setSkin(String id, String skinName) {
-        NPCData data = npcs.get(id);
-        if (data == null || data.getEntity() == null) {
-            return false;
+    // Stores the skin name and starts fetching it, the future completes off the main thread
+    public CompletableFuture<Skin> setSkin(String id, String skinName) {
+        checkMainThread();
+        NPCData data = registry.get(id);
+        if (data == null) {
+            return CompletableFuture.completedFuture(null);
         }
-
-        Entity entity = data.getEntity();
-        
-        // Store skin name in NPCData for future reference
         data.setSkinName(skinName);
-        
-        // Basic skin support - this is limited without NMS
-        // For full player skin support, you'd need to use NMS or a library like Citizens
-        
-        // For now, we can set custom name to indicate the skin
-        String currentName = entity.getCustomName();
-        if (currentName != null) {
-            entity.setCustomName(currentName + " §7[" + skinName + "]");
+        changed(id);
+        return fetchSkin(data);
+    }
+
+    // Shows the skin on the NPC once it is loaded, unless the NPC or its skin changed in the meantime
+    private CompletableFuture<Skin> fetchSkin(NPCData data) {
+        String skinName = data.getSkinName();
+        CompletableFuture<Skin> future = skins.get(skinName);
+        if (data.getType() != EntityType.PLAYER) {
+            return future;
         }
-        
-        plugin.getLogger().info("Skin '" + skinName + "' applied to NPC '" + id + "' (limited support)");
-        
-        return true;
+        future.thenAccept(skin -> plugin.getServer().getScheduler().runTask(plugin, () -> {
+            if (skin != null && registry.get(data.getId()) == data && data.isSpawned() && skinName.equals(data.getSkinName())) {
+                renderer.updateSkin(data);
+            }
+        }));
+        return future;
     }
 }
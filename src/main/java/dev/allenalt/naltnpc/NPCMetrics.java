@@ -0,0 +1,68 @@
+package dev.allenalt.naltnpc;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Always-on timers and counters for /npc stats and the metrics dump. Subsystems look their timer or
+// counter up once and keep it, recording is then lock-free from any thread.
+public class NPCMetrics {
+
+    public static final String TICK = "tick";
+    public static final String COMMAND = "command";
+    public static final String SAVE = "save";
+    public static final String SPAWN = "spawn";
+    public static final String TELEPORT = "teleport";
+    public static final String HOLOGRAM = "hologram-update";
+
+    public static final String SAVED_NPCS = "saved-npcs";
+    public static final String SAVE_ERRORS = "save-errors";
+    public static final String CLICKS = "clicks";
+
+    private final Map<String, LatencyHistogram> timers;
+    private final Map<String, LongAdder> counters;
+    private volatile long since;
+
+    public NPCMetrics() {
+        this.timers = new ConcurrentHashMap<>();
+        this.counters = new ConcurrentHashMap<>();
+        this.since = System.currentTimeMillis();
+    }
+
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    // Sorted by name so /npc stats and the dump list them in the same order every time
+    public Map<String, LatencyHistogram.Snapshot> snapshotTimers() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : timers.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    public Map<String, Long> snapshotCounters() {
+        Map<String, Long> snapshots = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshots;
+    }
+
+    public void reset() {
+        timers.values().forEach(LatencyHistogram::reset);
+        counters.values().forEach(LongAdder::reset);
+        since = System.currentTimeMillis();
+    }
+
+    // When recording started, or the last reset
+    public long getSince() {
+        return since;
+    }
+}
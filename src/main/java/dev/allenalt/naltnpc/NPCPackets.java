@@ -0,0 +1,227 @@
+package dev.allenalt.naltnpc;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.EnumWrappers;
+import com.comphenix.protocol.wrappers.PlayerInfoData;
+import com.comphenix.protocol.wrappers.WrappedChatComponent;
+import com.comphenix.protocol.wrappers.WrappedDataValue;
+import com.comphenix.protocol.wrappers.WrappedDataWatcher;
+import com.comphenix.protocol.wrappers.WrappedGameProfile;
+import com.comphenix.protocol.wrappers.WrappedSignedProperty;
+import org.bukkit.Location;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NPCPackets {
+
+    // Server entity ids count up from 0, virtual ids count down from the top so they never collide
+    private static final AtomicInteger NEXT_ENTITY_ID = new AtomicInteger(Integer.MAX_VALUE);
+
+    // Entity metadata indices (1.21.x)
+    private static final int META_CUSTOM_NAME = 2;
+    private static final int META_CUSTOM_NAME_VISIBLE = 3;
+    private static final int META_SILENT = 4;
+    private static final int META_NO_GRAVITY = 5;
+    private static final int META_DISPLAY_SCALE = 12;
+    private static final int META_DISPLAY_BILLBOARD = 15;
+    private static final int META_TEXT = 23;
+    private static final int META_TEXT_BACKGROUND = 25;
+    private static final int META_TEXT_FLAGS = 27;
+    private static final int META_PLAYER_SKIN_PARTS = 17;
+
+    private static final byte TEXT_SHADOW = 0x01;
+    private static final byte TEXT_DEFAULT_BACKGROUND = 0x04;
+    // Cape, jacket, sleeves, trouser legs and hat
+    private static final byte ALL_SKIN_PARTS = 0x7F;
+
+    private final ProtocolManager protocolManager;
+
+    public NPCPackets() {
+        this.protocolManager = ProtocolLibrary.getProtocolManager();
+    }
+
+    public static int nextEntityId() {
+        return NEXT_ENTITY_ID.getAndDecrement();
+    }
+
+    public void spawnEntity(Player viewer, int entityId, UUID uuid, EntityType type, Location location) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.SPAWN_ENTITY);
+        packet.getIntegers().write(0, entityId);
+        packet.getUUIDs().write(0, uuid);
+        packet.getEntityTypeModifier().write(0, type);
+        packet.getDoubles()
+                .write(0, location.getX())
+                .write(1, location.getY())
+                .write(2, location.getZ());
+        packet.getBytes()
+                .write(0, toAngle(location.getPitch()))
+                .write(1, toAngle(location.getYaw()))
+                .write(2, toAngle(location.getYaw()));
+        protocolManager.sendServerPacket(viewer, packet);
+    }
+
+    public void sendNameMetadata(Player viewer, int entityId, String name) {
+        List<WrappedDataValue> values = new ArrayList<>();
+        values.add(customName(name));
+        values.add(new WrappedDataValue(META_CUSTOM_NAME_VISIBLE, WrappedDataWatcher.Registry.get(Boolean.class), true));
+        values.add(new WrappedDataValue(META_SILENT, WrappedDataWatcher.Registry.get(Boolean.class), true));
+        values.add(new WrappedDataValue(META_NO_GRAVITY, WrappedDataWatcher.Registry.get(Boolean.class), true));
+        sendMetadata(viewer, entityId, values);
+    }
+
+    // Full TextDisplay state for one hologram line, sent right after it is spawned
+    public void sendHologramLineMetadata(Player viewer, int entityId, Hologram hologram, String text) {
+        List<WrappedDataValue> values = new ArrayList<>();
+        float scale = hologram.getScale();
+        values.add(new WrappedDataValue(META_DISPLAY_SCALE, WrappedDataWatcher.Registry.get(Vector3f.class),
+                new Vector3f(scale, scale, scale)));
+        values.add(new WrappedDataValue(META_DISPLAY_BILLBOARD, WrappedDataWatcher.Registry.get(Byte.class),
+                (byte) hologram.getBillboard().ordinal()));
+        values.add(text(text));
+        byte flags = 0;
+        if (hologram.isShadow()) {
+            flags |= TEXT_SHADOW;
+        }
+        if (hologram.getBackground() == null) {
+            flags |= TEXT_DEFAULT_BACKGROUND;
+        } else {
+            values.add(new WrappedDataValue(META_TEXT_BACKGROUND, WrappedDataWatcher.Registry.get(Integer.class),
+                    hologram.getBackground()));
+        }
+        values.add(new WrappedDataValue(META_TEXT_FLAGS, WrappedDataWatcher.Registry.get(Byte.class), flags));
+        sendMetadata(viewer, entityId, values);
+    }
+
+    // Only the text of an already spawned line
+    public void sendHologramLineText(Player viewer, int entityId, String text) {
+        sendMetadata(viewer, entityId, Collections.singletonList(text(text)));
+    }
+
+    public void rotate(Player viewer, int entityId, float yaw, float pitch) {
+        PacketContainer look = protocolManager.createPacket(PacketType.Play.Server.ENTITY_LOOK);
+        look.getIntegers().write(0, entityId);
+        look.getBytes()
+                .write(0, toAngle(yaw))
+                .write(1, toAngle(pitch));
+        look.getBooleans().write(0, true);
+        protocolManager.sendServerPacket(viewer, look);
+
+        PacketContainer headRotation = protocolManager.createPacket(PacketType.Play.Server.ENTITY_HEAD_ROTATION);
+        headRotation.getIntegers().write(0, entityId);
+        headRotation.getBytes().write(0, toAngle(yaw));
+        protocolManager.sendServerPacket(viewer, headRotation);
+    }
+
+    // Small moves in 1/4096 block steps. Built once and sent to every viewer, each short must fit the delta.
+    public PacketContainer relativeMove(int entityId, short dx, short dy, short dz) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.REL_ENTITY_MOVE);
+        packet.getIntegers().write(0, entityId);
+        packet.getShorts()
+                .write(0, dx)
+                .write(1, dy)
+                .write(2, dz);
+        // onGround, hasRot, hasPos
+        packet.getBooleans()
+                .write(0, true)
+                .write(1, false)
+                .write(2, true);
+        return packet;
+    }
+
+    public PacketContainer relativeMoveLook(int entityId, short dx, short dy, short dz, float yaw, float pitch) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.REL_ENTITY_MOVE_LOOK);
+        packet.getIntegers().write(0, entityId);
+        packet.getShorts()
+                .write(0, dx)
+                .write(1, dy)
+                .write(2, dz);
+        packet.getBytes()
+                .write(0, toAngle(yaw))
+                .write(1, toAngle(pitch));
+        packet.getBooleans()
+                .write(0, true)
+                .write(1, true)
+                .write(2, true);
+        return packet;
+    }
+
+    public PacketContainer headRotation(int entityId, float yaw) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.ENTITY_HEAD_ROTATION);
+        packet.getIntegers().write(0, entityId);
+        packet.getBytes().write(0, toAngle(yaw));
+        return packet;
+    }
+
+    public void send(Player viewer, PacketContainer packet) {
+        protocolManager.sendServerPacket(viewer, packet);
+    }
+
+    // A player entity can only be spawned for clients that know its profile, unlisted keeps it out of the tab list
+    public static PlayerInfoData playerInfo(UUID uuid, String name, Skin skin) {
+        WrappedGameProfile profile = new WrappedGameProfile(uuid, name);
+        if (skin != null) {
+            profile.getProperties().put("textures", WrappedSignedProperty.fromValues("textures", skin.getValue(), skin.getSignature()));
+        }
+        return new PlayerInfoData(uuid, 0, false, EnumWrappers.NativeGameMode.SURVIVAL, profile, null);
+    }
+
+    // Any number of profiles in one packet
+    public void addPlayerInfo(Player viewer, List<PlayerInfoData> entries) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.PLAYER_INFO);
+        packet.getPlayerInfoActions().write(0, EnumSet.of(EnumWrappers.PlayerInfoAction.ADD_PLAYER,
+                EnumWrappers.PlayerInfoAction.UPDATE_LISTED));
+        packet.getPlayerInfoDataLists().write(1, entries);
+        protocolManager.sendServerPacket(viewer, packet);
+    }
+
+    public void removePlayerInfo(Player viewer, List<UUID> uuids) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.PLAYER_INFO_REMOVE);
+        packet.getUUIDLists().write(0, uuids);
+        protocolManager.sendServerPacket(viewer, packet);
+    }
+
+    public void sendSkinPartsMetadata(Player viewer, int entityId) {
+        sendMetadata(viewer, entityId, Collections.singletonList(
+                new WrappedDataValue(META_PLAYER_SKIN_PARTS, WrappedDataWatcher.Registry.get(Byte.class), ALL_SKIN_PARTS)));
+    }
+
+    public void destroy(Player viewer, List<Integer> entityIds) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.ENTITY_DESTROY);
+        packet.getIntLists().write(0, entityIds);
+        protocolManager.sendServerPacket(viewer, packet);
+    }
+
+    private void sendMetadata(Player viewer, int entityId, List<WrappedDataValue> values) {
+        PacketContainer packet = protocolManager.createPacket(PacketType.Play.Server.ENTITY_METADATA);
+        packet.getIntegers().write(0, entityId);
+        packet.getDataValueCollectionModifier().write(0, values);
+        protocolManager.sendServerPacket(viewer, packet);
+    }
+
+    private static WrappedDataValue customName(String name) {
+        Object component = WrappedChatComponent.fromLegacyText(name).getHandle();
+        return new WrappedDataValue(META_CUSTOM_NAME, WrappedDataWatcher.Registry.getChatComponentSerializer(true),
+                Optional.of(component));
+    }
+
+    private static WrappedDataValue text(String text) {
+        Object component = WrappedChatComponent.fromLegacyText(text).getHandle();
+        return new WrappedDataValue(META_TEXT, WrappedDataWatcher.Registry.getChatComponentSerializer(false), component);
+    }
+
+    private static byte toAngle(float degrees) {
+        return (byte) (int) (degrees * 256.0F / 360.0F);
+    }
+}
@@ -0,0 +1,166 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+public class NPCPersistence {
+
+    private final NaltNPC plugin;
+    private final NPCManager npcManager;
+    private final NPCStorage storage;
+    private final long saveDelayTicks;
+    private final Set<String> dirty;
+    private final List<Consumer<String>> changeListeners;
+    private final ExecutorService writer;
+    private final LatencyHistogram saveTimer;
+    private final LongAdder savedNPCs;
+    private final LongAdder saveErrors;
+    private BukkitTask pendingFlush;
+
+    public NPCPersistence(NaltNPC plugin, NPCManager npcManager, NPCStorage storage) {
+        this.plugin = plugin;
+        this.npcManager = npcManager;
+        this.storage = storage;
+        this.saveDelayTicks = Math.max(1L, plugin.getConfig().getLong("persistence.save-delay-ticks", 40L));
+        this.dirty = new HashSet<>();
+        this.changeListeners = new ArrayList<>();
+        this.saveTimer = plugin.getMetrics().timer(NPCMetrics.SAVE);
+        this.savedNPCs = plugin.getMetrics().counter(NPCMetrics.SAVED_NPCS);
+        this.saveErrors = plugin.getMetrics().counter(NPCMetrics.SAVE_ERRORS);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NaltNPC-Persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Runs on the writer thread so the storage is never read and written at the same time
+    public CompletableFuture<List<NPCRecord>> load() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return storage.load();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, writer);
+    }
+
+    // Told about every NPC changed on this server, e.g. to share the change with other servers
+    public void addChangeListener(Consumer<String> listener) {
+        changeListeners.add(listener);
+    }
+
+    // Main thread only. Changes made within the save window end up in a single write.
+    public void markDirty(String id) {
+        for (Consumer<String> listener : changeListeners) {
+            listener.accept(id);
+        }
+        requeue(id);
+    }
+
+    private void requeue(String id) {
+        dirty.add(id);
+        if (pendingFlush == null) {
+            pendingFlush = plugin.getServer().getScheduler().runTaskLater(plugin, this::flush, saveDelayTicks);
+        }
+    }
+
+    public void flush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel();
+            pendingFlush = null;
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        Snapshot snapshot = takeSnapshot();
+        writer.execute(() -> write(snapshot));
+    }
+
+    // Used on shutdown, blocks until everything queued and still dirty is on disk
+    public void flushSync() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel();
+            pendingFlush = null;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for pending NPC saves to finish!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!dirty.isEmpty()) {
+            write(takeSnapshot());
+        }
+        try {
+            storage.close();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Could not close " + storage.getName() + "!");
+            e.printStackTrace();
+        }
+    }
+
+    public NPCStorage getStorage() {
+        return storage;
+    }
+
+    private Snapshot takeSnapshot() {
+        Map<String, NPCRecord> changed = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        for (String id : dirty) {
+            NPCData data = npcManager.getNPC(id);
+            if (data != null) {
+                changed.put(id, data.snapshot());
+            } else {
+                removed.add(id);
+            }
+        }
+        dirty.clear();
+        return new Snapshot(changed, removed);
+    }
+
+    private void write(Snapshot snapshot) {
+        long start = System.nanoTime();
+        try {
+            storage.write(snapshot.changed, snapshot.removed);
+            saveTimer.record(System.nanoTime() - start);
+            savedNPCs.add(snapshot.changed.size() + snapshot.removed.size());
+        } catch (IOException e) {
+            saveErrors.increment();
+            plugin.getLogger().severe("Could not save " + storage.getName() + "!");
+            e.printStackTrace();
+            retry(snapshot);
+        }
+    }
+
+    private void retry(Snapshot snapshot) {
+        if (!plugin.isEnabled() || writer.isShutdown()) {
+            return;
+        }
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            snapshot.changed.keySet().forEach(this::requeue);
+            snapshot.removed.forEach(this::requeue);
+        });
+    }
+
+    private static class Snapshot {
+        private final Map<String, NPCRecord> changed;
+        private final Set<String> removed;
+
+        private Snapshot(Map<String, NPCRecord> changed, Set<String> removed) {
+            this.changed = changed;
+            this.removed = removed;
+        }
+    }
+}
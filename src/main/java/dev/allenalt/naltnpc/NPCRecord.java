@@ -0,0 +1,148 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.EntityType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Immutable copy of an NPC's persistent state, safe to hand to other threads
+public class NPCRecord {
+
+    private final String id;
+    private final EntityType type;
+    private final String name;
+    private final String world;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final float yaw;
+    private final float pitch;
+    private final Hologram hologram;
+    private final boolean lookAtPlayers;
+    private final String skinName;
+    private final double renderDistance;
+    private final List<NPCData.NPCAction> actions;
+    private final Set<String> tags;
+    // Null for an NPC that stands still
+    private final Route route;
+    // Template the NPC follows and which of its values the NPC overrides (NPCData.OVERRIDE_* bits).
+    // The values above are always the NPC's full state, so it still loads as it was if the template is gone.
+    private final String template;
+    private final int overrides;
+
+    public NPCRecord(String id, EntityType type, String name, String world, double x, double y, double z,
+                     float yaw, float pitch, Hologram hologram, boolean lookAtPlayers, String skinName,
+                     double renderDistance, List<NPCData.NPCAction> actions, Set<String> tags) {
+        this(id, type, name, world, x, y, z, yaw, pitch, hologram, lookAtPlayers, skinName, renderDistance, actions, tags, null);
+    }
+
+    public NPCRecord(String id, EntityType type, String name, String world, double x, double y, double z,
+                     float yaw, float pitch, Hologram hologram, boolean lookAtPlayers, String skinName,
+                     double renderDistance, List<NPCData.NPCAction> actions, Set<String> tags,
+                     Route route) {
+        this(id, type, name, world, x, y, z, yaw, pitch, hologram, lookAtPlayers, skinName, renderDistance, actions, tags,
+                route, null, 0);
+    }
+
+    public NPCRecord(String id, EntityType type, String name, String world, double x, double y, double z,
+                     float yaw, float pitch, Hologram hologram, boolean lookAtPlayers, String skinName,
+                     double renderDistance, List<NPCData.NPCAction> actions, Set<String> tags,
+                     Route route, String template, int overrides) {
+        this.id = id;
+        this.type = type;
+        this.name = name;
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.hologram = hologram;
+        this.lookAtPlayers = lookAtPlayers;
+        this.skinName = skinName;
+        this.renderDistance = renderDistance;
+        // Inherited actions are the template's own immutable list, shared instead of copied for every NPC
+        this.actions = actions.isEmpty() ? Collections.emptyList()
+                : template != null && (overrides & NPCData.OVERRIDE_ACTIONS) == 0 ? actions
+                : Collections.unmodifiableList(new ArrayList<>(actions));
+        this.tags = tags.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new LinkedHashSet<>(tags));
+        this.route = route;
+        this.template = template;
+        this.overrides = overrides;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public EntityType getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    public float getYaw() {
+        return yaw;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public Hologram getHologram() {
+        return hologram;
+    }
+
+    public boolean isLookAtPlayers() {
+        return lookAtPlayers;
+    }
+
+    public String getSkinName() {
+        return skinName;
+    }
+
+    public double getRenderDistance() {
+        return renderDistance;
+    }
+
+    public List<NPCData.NPCAction> getActions() {
+        return actions;
+    }
+
+    public Set<String> getTags() {
+        return tags;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public int getOverrides() {
+        return overrides;
+    }
+}
@@ -0,0 +1,203 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Every way to find an NPC, lookups are O(1) (id prefixes O(log n)) and every view is read-only. The id, world
+// and full views are created once, only getInChunk wraps its cell per call.
+// Indexes are changed on the main thread only, other threads read the published NPCSnapshot.
+public class NPCRegistry {
+
+    private final Map<String, NPCData> byId;
+    // NPC entities and their hologram displays, filled in by the renderer as it spawns them
+    private final Map<UUID, NPCData> byEntity;
+    private final Map<UUID, Map<String, NPCData>> byWorld;
+    // Read-only views of byWorld's values, created along with each world's map
+    private final Map<UUID, Collection<NPCData>> worldViews;
+    private final Map<String, UUID> worldOf;
+    // Lower-cased id + '\0' + id to id, so ids sharing a prefix in any case are next to each other
+    private final NavigableMap<String, String> idIndex;
+    // Grid cells are exactly one chunk, so the spatial grid doubles as the chunk index
+    private final SpatialGrid spatialGrid;
+
+    private final Map<String, NPCData> byIdView;
+    private final Collection<NPCData> allView;
+
+    // Ids whose records are re-snapshotted on the next publish, main thread only
+    private final Set<String> changed;
+    private volatile NPCSnapshot snapshot;
+
+    public NPCRegistry(SpatialGrid spatialGrid) {
+        this.byId = new ConcurrentHashMap<>();
+        this.byEntity = new ConcurrentHashMap<>();
+        this.byWorld = new HashMap<>();
+        this.worldViews = new HashMap<>();
+        this.worldOf = new HashMap<>();
+        this.idIndex = new ConcurrentSkipListMap<>();
+        this.spatialGrid = spatialGrid;
+        this.byIdView = Collections.unmodifiableMap(byId);
+        this.allView = Collections.unmodifiableCollection(byId.values());
+        this.changed = new HashSet<>();
+        this.snapshot = NPCSnapshot.EMPTY;
+    }
+
+    public void register(NPCData data) {
+        NPCData previous = byId.put(data.getId(), data);
+        if (previous != null && previous != data) {
+            removeLocation(previous);
+        }
+        idIndex.put(indexKey(data.getId()), data.getId());
+        relocate(data);
+    }
+
+    public NPCData unregister(String id) {
+        NPCData data = byId.remove(id);
+        if (data != null) {
+            idIndex.remove(indexKey(id));
+            removeLocation(data);
+            changed.add(id);
+        }
+        return data;
+    }
+
+    // Call after changing anything that is part of an NPC's record
+    public void markChanged(String id) {
+        changed.add(id);
+    }
+
+    // Called on the main thread, at most once per tick, so readers never see a half applied change
+    public NPCSnapshot publish() {
+        if (changed.isEmpty()) {
+            return snapshot;
+        }
+        // Only the changed records, the snapshot shares everything else with the previous one
+        Map<String, NPCRecord> records = new HashMap<>();
+        for (String id : changed) {
+            NPCData data = byId.get(id);
+            records.put(id, data != null ? data.snapshot() : null);
+        }
+        changed.clear();
+        snapshot = snapshot.next(records);
+        return snapshot;
+    }
+
+    // Lock-free, safe from any thread
+    public NPCSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Called whenever an NPC's location changed
+    public void relocate(NPCData data) {
+        UUID worldId = data.getLocation().getWorld().getUID();
+        UUID previousWorld = worldOf.put(data.getId(), worldId);
+        if (!worldId.equals(previousWorld)) {
+            if (previousWorld != null) {
+                removeFromWorld(previousWorld, data.getId());
+            }
+            Map<String, NPCData> world = byWorld.get(worldId);
+            if (world == null) {
+                world = new LinkedHashMap<>();
+                byWorld.put(worldId, world);
+                worldViews.put(worldId, Collections.unmodifiableCollection(world.values()));
+            }
+            world.put(data.getId(), data);
+        }
+        spatialGrid.updateNPC(data);
+        changed.add(data.getId());
+    }
+
+    private void removeLocation(NPCData data) {
+        UUID worldId = worldOf.remove(data.getId());
+        if (worldId != null) {
+            removeFromWorld(worldId, data.getId());
+        }
+        spatialGrid.removeNPC(data);
+    }
+
+    private void removeFromWorld(UUID worldId, String id) {
+        Map<String, NPCData> world = byWorld.get(worldId);
+        if (world != null) {
+            world.remove(id);
+            if (world.isEmpty()) {
+                byWorld.remove(worldId);
+                worldViews.remove(worldId);
+            }
+        }
+    }
+
+    public void indexEntity(UUID entityId, NPCData data) {
+        byEntity.put(entityId, data);
+    }
+
+    public void unindexEntity(UUID entityId) {
+        byEntity.remove(entityId);
+    }
+
+    public NPCData get(String id) {
+        return byId.get(id);
+    }
+
+    public boolean contains(String id) {
+        return byId.containsKey(id);
+    }
+
+    public NPCData getByEntity(UUID entityId) {
+        return byEntity.get(entityId);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    // Ids starting with the prefix ignoring case, in order, at most limit of them. Safe from any thread.
+    public List<String> completeIds(String prefix, int limit) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        List<String> ids = new ArrayList<>(Math.min(limit, 16));
+        for (Map.Entry<String, String> entry : idIndex.tailMap(key, true).entrySet()) {
+            if (ids.size() >= limit || !entry.getKey().startsWith(key)) {
+                break;
+            }
+            ids.add(entry.getValue());
+        }
+        return ids;
+    }
+
+    private static String indexKey(String id) {
+        return id.toLowerCase(Locale.ROOT) + '\0' + id;
+    }
+
+    public Map<String, NPCData> asMap() {
+        return byIdView;
+    }
+
+    public Set<String> getIds() {
+        return byIdView.keySet();
+    }
+
+    public Collection<NPCData> getAll() {
+        return allView;
+    }
+
+    public Collection<NPCData> getInWorld(World world) {
+        Collection<NPCData> npcs = worldViews.get(world.getUID());
+        return npcs != null ? npcs : Collections.emptyList();
+    }
+
+    public List<NPCData> getInChunk(World world, int chunkX, int chunkZ) {
+        return spatialGrid.getNPCsInCell(world, chunkX, chunkZ);
+    }
+}
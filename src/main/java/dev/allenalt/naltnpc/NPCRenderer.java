@@ -0,0 +1,45 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+public interface NPCRenderer {
+
+    // Make the NPC exist for players, called after the NPCData is registered
+    void spawn(NPCData data);
+
+    // Re-attach to whatever a previous run left in the world and spawn only what is missing
+    void restore(NPCData data);
+
+    void despawn(NPCData data);
+
+    void teleport(NPCData data, Location location);
+
+    // The NPC took a small step to NPCData.getLocation() while walking, still in the same world
+    void move(NPCData data);
+
+    void rotate(NPCData data, float yaw, float pitch);
+
+    // Turn the head for one viewer only, everyone else keeps seeing their own rotation
+    void rotateFor(Player viewer, NPCData data, float yaw, float pitch);
+
+    // The NPC's skin finished loading, only player NPCs can show it
+    void updateSkin(NPCData data);
+
+    // Re-render the whole hologram from NPCData.getHologram(), null removes it
+    void updateHologram(NPCData data);
+
+    // Only the text of one line changed, the line count and style are unchanged
+    void updateHologramLine(NPCData data, int line);
+
+    // Push already rendered placeholder text, a null viewer means the text every viewer shares
+    void setHologramLineText(NPCData data, int line, Player viewer, String text);
+
+    void showTo(Player player, NPCData data);
+
+    void hideFrom(Player player, NPCData data);
+
+    boolean isVirtual();
+
+    void shutdown();
+}
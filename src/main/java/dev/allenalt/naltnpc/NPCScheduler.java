@@ -0,0 +1,275 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Location;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+// Runs every NPC behaviour from one task under a fixed time budget per tick. NPCs are visited
+// round-robin, whatever does not fit in a tick continues where it stopped on the next one.
+public class NPCScheduler {
+
+    // How often an NPC's distance to the nearest player is looked at again
+    private static final int TIER_CHECK_TICKS = 20;
+    private static final int TIMING_WINDOW_TICKS = 20;
+
+    private static final int NEAR = 0;
+    private static final int MID = 1;
+    private static final int FAR = 2;
+
+    private final NaltNPC plugin;
+    private final NPCRegistry registry;
+    private final SpatialGrid spatialGrid;
+    private final long budgetNanos;
+    private final double nearDistance;
+    private final double farDistance;
+    private final int[] tierMultipliers;
+
+    private final List<NPCBehaviour> behaviours;
+    private final List<Timing> timings;
+    private final List<LatencyHistogram> updateTimers;
+    private final LatencyHistogram tickTimer;
+    private final Deque<Entry> ring;
+
+    private long tick;
+    private int windowTicks;
+    private long windowNanos;
+    private int windowVisits;
+    private int windowOverBudget;
+    private double averageTickNanos;
+    private double averageVisits;
+    private int overBudgetTicks;
+
+    public NPCScheduler(NaltNPC plugin, NPCRegistry registry, SpatialGrid spatialGrid) {
+        this.plugin = plugin;
+        this.registry = registry;
+        this.spatialGrid = spatialGrid;
+        this.budgetNanos = (long) (Math.max(0.1, plugin.getConfig().getDouble("scheduler.tick-budget-ms", 2.0)) * 1_000_000L);
+        this.nearDistance = plugin.getConfig().getDouble("scheduler.near-distance", 16.0);
+        this.farDistance = Math.max(nearDistance, plugin.getConfig().getDouble("scheduler.far-distance", 64.0));
+        this.tierMultipliers = new int[] {
+                1,
+                Math.max(1, plugin.getConfig().getInt("scheduler.mid-interval-multiplier", 2)),
+                Math.max(1, plugin.getConfig().getInt("scheduler.far-interval-multiplier", 8))
+        };
+        this.behaviours = new ArrayList<>();
+        this.timings = new ArrayList<>();
+        this.updateTimers = new ArrayList<>();
+        this.tickTimer = plugin.getMetrics().timer(NPCMetrics.TICK);
+        this.ring = new ArrayDeque<>();
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }.runTaskTimer(plugin, 1L, 1L);
+    }
+
+    public void register(NPCBehaviour behaviour) {
+        behaviours.add(behaviour);
+        timings.add(new Timing(behaviour.getName()));
+        updateTimers.add(plugin.getMetrics().timer(behaviour.getName()));
+        for (Entry entry : ring) {
+            entry.grow(behaviours.size());
+        }
+    }
+
+    // Called for every NPC added to the registry, removed NPCs drop out the next time they come round
+    public void track(NPCData data) {
+        ring.addLast(new Entry(data, behaviours.size(), tick));
+    }
+
+    private void tick() {
+        tick++;
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+
+        for (int i = 0; i < behaviours.size(); i++) {
+            Timing timing = timings.get(i);
+            long behaviourStart = System.nanoTime();
+            behaviours.get(i).startTick(tick);
+            timing.windowNanos += System.nanoTime() - behaviourStart;
+        }
+
+        // Each NPC is visited at most once per tick
+        int remaining = ring.size();
+        int visits = 0;
+        while (remaining > 0 && System.nanoTime() < deadline) {
+            remaining--;
+            Entry entry = ring.pollFirst();
+            if (registry.get(entry.data.getId()) != entry.data) {
+                for (NPCBehaviour behaviour : behaviours) {
+                    behaviour.forget(entry.data);
+                }
+                continue;
+            }
+            ring.addLast(entry);
+            visits++;
+            visit(entry);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        tickTimer.record(elapsed);
+        windowNanos += elapsed;
+        windowVisits += visits;
+        if (remaining > 0) {
+            windowOverBudget++;
+        }
+        if (++windowTicks == TIMING_WINDOW_TICKS) {
+            closeWindow();
+        }
+    }
+
+    private void visit(Entry entry) {
+        NPCData data = entry.data;
+        // NPCs that are not in the world, or have nobody in their world, have nothing to update
+        if (!data.isSpawned() || !spatialGrid.hasPlayers(data.getLocation().getWorld())) {
+            return;
+        }
+
+        if (tick >= entry.nextTierCheck) {
+            entry.nextTierCheck = tick + TIER_CHECK_TICKS;
+            int tier = tierOf(data);
+            if (tier < entry.tier) {
+                // A player came closer, do not leave them waiting out a long far-away interval
+                for (int i = 0; i < entry.nextRun.length; i++) {
+                    entry.nextRun[i] = Math.min(entry.nextRun[i], tick);
+                }
+            }
+            entry.tier = tier;
+        }
+
+        for (int i = 0; i < behaviours.size(); i++) {
+            if (tick < entry.nextRun[i]) {
+                continue;
+            }
+            NPCBehaviour behaviour = behaviours.get(i);
+            entry.nextRun[i] = tick + (long) behaviour.getInterval() * tierMultipliers[entry.tier];
+            if (!behaviour.appliesTo(data)) {
+                continue;
+            }
+            Timing timing = timings.get(i);
+            long behaviourStart = System.nanoTime();
+            try {
+                behaviour.update(data);
+            } catch (RuntimeException e) {
+                // Logged once, a broken behaviour would otherwise flood the console every tick
+                if (timing.errors++ == 0) {
+                    plugin.getLogger().severe("NPC behaviour '" + behaviour.getName() + "' failed for NPC '" + data.getId() + "'!");
+                    e.printStackTrace();
+                }
+            }
+            long behaviourNanos = System.nanoTime() - behaviourStart;
+            timing.windowNanos += behaviourNanos;
+            timing.windowRuns++;
+            updateTimers.get(i).record(behaviourNanos);
+        }
+    }
+
+    private int tierOf(NPCData data) {
+        Location location = data.getLocation();
+        if (spatialGrid.nearestPlayer(location, nearDistance) != null) {
+            return NEAR;
+        }
+        // An NPC seen from further away than the far distance still counts as mid range for its viewers
+        double far = Math.max(farDistance, data.getRenderDistance());
+        return spatialGrid.nearestPlayer(location, far) != null ? MID : FAR;
+    }
+
+    private void closeWindow() {
+        averageTickNanos = (double) windowNanos / windowTicks;
+        averageVisits = (double) windowVisits / windowTicks;
+        overBudgetTicks = windowOverBudget;
+        for (Timing timing : timings) {
+            timing.averageNanos = (double) timing.windowNanos / windowTicks;
+            timing.averageRuns = (double) timing.windowRuns / windowTicks;
+            timing.windowNanos = 0;
+            timing.windowRuns = 0;
+        }
+        windowTicks = 0;
+        windowNanos = 0;
+        windowVisits = 0;
+        windowOverBudget = 0;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    // Averages over the last second
+    public double getAverageTickNanos() {
+        return averageTickNanos;
+    }
+
+    public double getAverageVisits() {
+        return averageVisits;
+    }
+
+    // Ticks in the last second that ran out of budget before visiting every NPC
+    public int getOverBudgetTicks() {
+        return overBudgetTicks;
+    }
+
+    public int getTrackedCount() {
+        return ring.size();
+    }
+
+    public List<Timing> getTimings() {
+        return Collections.unmodifiableList(timings);
+    }
+
+    public static class Timing {
+        private final String name;
+        private long windowNanos;
+        private int windowRuns;
+        private double averageNanos;
+        private double averageRuns;
+        private int errors;
+
+        private Timing(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Time spent per tick, averaged over the last second
+        public double getAverageNanos() {
+            return averageNanos;
+        }
+
+        public double getAverageRuns() {
+            return averageRuns;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+    }
+
+    private static class Entry {
+        private final NPCData data;
+        private long[] nextRun;
+        private int tier;
+        private long nextTierCheck;
+
+        private Entry(NPCData data, int behaviours, long tick) {
+            this.data = data;
+            this.nextRun = new long[behaviours];
+            this.tier = FAR;
+            this.nextTierCheck = tick;
+        }
+
+        private void grow(int behaviours) {
+            long[] grown = new long[behaviours];
+            System.arraycopy(nextRun, 0, grown, 0, nextRun.length);
+            nextRun = grown;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package dev.allenalt.naltnpc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Immutable, versioned view of every NPC, safe to read from any thread without locking.
+// Records are split into shards by id. The next snapshot copies only the shards with a changed NPC and shares
+// the rest, so publishing costs what changed rather than the number of NPCs.
+public class NPCSnapshot {
+
+    // Power of two, at 10k NPCs a changed NPC copies a shard of about 40 records
+    private static final int SHARDS = 256;
+
+    public static final NPCSnapshot EMPTY = new NPCSnapshot(0L, Collections.emptyMap());
+
+    private final long version;
+    private final Map<String, NPCRecord>[] shards;
+    private final int size;
+    private final Map<String, NPCRecord> view;
+
+    public NPCSnapshot(long version, Map<String, NPCRecord> records) {
+        this.version = version;
+        this.shards = newShards();
+        Arrays.fill(shards, Collections.emptyMap());
+        for (Map.Entry<String, NPCRecord> entry : records.entrySet()) {
+            int shard = shard(entry.getKey());
+            if (shards[shard].isEmpty()) {
+                shards[shard] = new HashMap<>();
+            }
+            shards[shard].put(entry.getKey(), entry.getValue());
+        }
+        seal(shards, null);
+        this.size = records.size();
+        this.view = new View();
+    }
+
+    private NPCSnapshot(long version, Map<String, NPCRecord>[] shards, int size) {
+        this.version = version;
+        this.shards = shards;
+        this.size = size;
+        this.view = new View();
+    }
+
+    // The following version with these records replaced, a null record removes the NPC
+    public NPCSnapshot next(Map<String, NPCRecord> changes) {
+        Map<String, NPCRecord>[] next = shards.clone();
+        boolean[] copied = new boolean[SHARDS];
+        int nextSize = size;
+        for (Map.Entry<String, NPCRecord> change : changes.entrySet()) {
+            int shard = shard(change.getKey());
+            if (!copied[shard]) {
+                next[shard] = new HashMap<>(shards[shard]);
+                copied[shard] = true;
+            }
+            NPCRecord record = change.getValue();
+            NPCRecord previous = record != null ? next[shard].put(change.getKey(), record) : next[shard].remove(change.getKey());
+            if (previous == null && record != null) {
+                nextSize++;
+            } else if (previous != null && record == null) {
+                nextSize--;
+            }
+        }
+        seal(next, copied);
+        return new NPCSnapshot(version + 1, next, nextSize);
+    }
+
+    // Increases every time a new snapshot is published, equal versions mean nothing changed
+    public long getVersion() {
+        return version;
+    }
+
+    public NPCRecord get(String id) {
+        return shards[shard(id)].get(id);
+    }
+
+    public boolean contains(String id) {
+        return shards[shard(id)].containsKey(id);
+    }
+
+    public Collection<NPCRecord> getAll() {
+        return view.values();
+    }
+
+    public Map<String, NPCRecord> asMap() {
+        return view;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int shard(String id) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (SHARDS - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, NPCRecord>[] newShards() {
+        return new Map[SHARDS];
+    }
+
+    // Freshly filled shards become read-only, copied is null when every shard was filled
+    private static void seal(Map<String, NPCRecord>[] shards, boolean[] copied) {
+        for (int i = 0; i < SHARDS; i++) {
+            if (copied == null || copied[i]) {
+                shards[i] = shards[i].isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(shards[i]);
+            }
+        }
+    }
+
+    // Read-only map over all shards, lookups go straight to one shard
+    private class View extends AbstractMap<String, NPCRecord> {
+
+        private final Set<Map.Entry<String, NPCRecord>> entries = new AbstractSet<Map.Entry<String, NPCRecord>>() {
+            @Override
+            public Iterator<Map.Entry<String, NPCRecord>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+
+        @Override
+        public NPCRecord get(Object key) {
+            return key instanceof String ? NPCSnapshot.this.get((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains((String) key);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Map.Entry<String, NPCRecord>> entrySet() {
+            return entries;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, NPCRecord>> {
+
+        private int shard;
+        private Iterator<Map.Entry<String, NPCRecord>> current = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && shard < SHARDS) {
+                current = shards[shard++].entrySet().iterator();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, NPCRecord> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package dev.allenalt.naltnpc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Where NPC definitions are kept between restarts. Only called from the persistence writer thread.
+public interface NPCStorage {
+
+    // Shown in log messages, usually the file name
+    String getName();
+
+    List<NPCRecord> load() throws IOException;
+
+    // Only the NPCs that changed since the last write are passed in, removed ones are deleted
+    void write(Map<String, NPCRecord> changed, Set<String> removed) throws IOException;
+
+    default void close() throws IOException {
+    }
+}
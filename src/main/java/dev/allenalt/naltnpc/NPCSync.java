@@ -0,0 +1,260 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Bukkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Keeps the NPCs of several servers the same. Local changes made in one tick are sent together as the
+// full state of each changed NPC, tagged with a per-NPC version. Remote changes are only applied when
+// their version is newer than ours, so duplicates, replays and reordering do no harm. A starting server
+// asks the others for a snapshot of the current state instead of replaying history.
+public class NPCSync {
+
+    private static final byte PROTOCOL = 1;
+
+    private static final byte MESSAGE_CHANGES = 1;
+    private static final byte MESSAGE_SNAPSHOT_REQUEST = 2;
+    private static final byte MESSAGE_SNAPSHOT = 3;
+
+    private static final byte CHANGE_UPSERT = 1;
+    private static final byte CHANGE_REMOVE = 2;
+
+    private final NaltNPC plugin;
+    private final NPCManager npcManager;
+    private final NPCPersistence persistence;
+    private final SyncTransport transport;
+    // Only identifies this server until it restarts
+    private final String node;
+
+    // Latest known version per NPC, removed NPCs keep theirs so an old change cannot bring them back
+    private final Map<String, Version> versions;
+    private final Set<String> pending;
+    private boolean flushScheduled;
+    private boolean applying;
+
+    public NPCSync(NaltNPC plugin, NPCManager npcManager, NPCPersistence persistence, SyncTransport transport) {
+        this.plugin = plugin;
+        this.npcManager = npcManager;
+        this.persistence = persistence;
+        this.transport = transport;
+        this.node = UUID.randomUUID().toString();
+        this.versions = new HashMap<>();
+        this.pending = new LinkedHashSet<>();
+    }
+
+    // Called once the local NPCs are loaded, so the snapshot we get is applied on top of them
+    public void start() {
+        persistence.addChangeListener(this::localChange);
+        transport.start(this::receive);
+        send(MESSAGE_SNAPSHOT_REQUEST, null, Collections.emptyList());
+    }
+
+    public void stop() {
+        if (!pending.isEmpty()) {
+            flush();
+        }
+        transport.stop();
+    }
+
+    private void localChange(String id) {
+        if (applying) {
+            return; // Came from another server, it already knows
+        }
+        pending.add(id);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            plugin.getServer().getScheduler().runTask(plugin, this::flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        List<Change> changes = new ArrayList<>(pending.size());
+        for (String id : pending) {
+            Version current = versions.get(id);
+            NPCData data = npcManager.getNPC(id);
+            Version next = new Version(current != null ? current.counter + 1 : 1, node, data == null);
+            versions.put(id, next);
+            changes.add(new Change(id, next, data != null ? data.snapshot() : null));
+        }
+        pending.clear();
+        send(MESSAGE_CHANGES, null, changes);
+    }
+
+    private void sendSnapshot(String target) {
+        List<Change> changes = new ArrayList<>();
+        for (NPCData data : npcManager.getNPCs()) {
+            // Counter 0: loaded from storage and not changed anywhere since
+            Version version = versions.getOrDefault(data.getId(), new Version(0, node, false));
+            changes.add(new Change(data.getId(), version, data.snapshot()));
+        }
+        for (Map.Entry<String, Version> entry : versions.entrySet()) {
+            if (entry.getValue().removed) {
+                changes.add(new Change(entry.getKey(), entry.getValue(), null));
+            }
+        }
+        send(MESSAGE_SNAPSHOT, target, changes);
+    }
+
+    // Splits the changes over as many messages as the transport needs
+    private void send(byte type, String target, List<Change> changes) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int count = 0;
+            for (Change change : changes) {
+                byte[] encoded = encode(change);
+                if (encoded.length + 256 > transport.getMaxMessageSize()) {
+                    // Would not fit even on its own, the transport could only truncate it
+                    plugin.getLogger().warning("NPC '" + change.id + "' is too large to sync (" + encoded.length
+                            + " bytes), other servers keep their version of it.");
+                    continue;
+                }
+                if (count > 0 && body.size() + encoded.length + 256 > transport.getMaxMessageSize()) {
+                    transport.send(message(type, target, count, body));
+                    body.reset();
+                    count = 0;
+                }
+                body.write(encoded);
+                count++;
+            }
+            if (count > 0 || changes.isEmpty()) {
+                transport.send(message(type, target, count, body));
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("Could not send NPC changes to other servers!");
+            e.printStackTrace();
+        }
+    }
+
+    private byte[] message(byte type, String target, int count, ByteArrayOutputStream body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PROTOCOL);
+        out.writeByte(type);
+        BinaryNPCStorage.writeString(out, node);
+        BinaryNPCStorage.writeString(out, target);
+        out.writeInt(count);
+        body.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encode(Change change) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(change.record != null ? CHANGE_UPSERT : CHANGE_REMOVE);
+        BinaryNPCStorage.writeString(out, change.id);
+        out.writeLong(change.version.counter);
+        BinaryNPCStorage.writeString(out, change.version.node);
+        if (change.record != null) {
+            BinaryNPCStorage.writeRecord(out, change.record);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void receive(byte[] message) {
+        if (!Bukkit.isPrimaryThread()) {
+            plugin.getServer().getScheduler().runTask(plugin, () -> receive(message));
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(message);
+        try {
+            if (in.get() != PROTOCOL) {
+                plugin.getLogger().warning("Ignoring an NPC sync message from a different NaltNPC version.");
+                return;
+            }
+            byte type = in.get();
+            String origin = BinaryNPCStorage.readString(in);
+            String target = BinaryNPCStorage.readString(in);
+            if (node.equals(origin)) {
+                return;
+            }
+            if (type == MESSAGE_SNAPSHOT_REQUEST) {
+                sendSnapshot(origin);
+                return;
+            }
+            // Our own snapshot may replace NPCs nobody has changed since we loaded them
+            boolean adopt = type == MESSAGE_SNAPSHOT && node.equals(target);
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.get();
+                String id = BinaryNPCStorage.readString(in);
+                long counter = in.getLong();
+                String versionNode = BinaryNPCStorage.readString(in);
+                NPCRecord record = kind == CHANGE_UPSERT ? BinaryNPCStorage.readRecord(id, in, plugin.getLogger()) : null;
+                apply(id, new Version(counter, versionNode, kind == CHANGE_REMOVE), record, adopt);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            plugin.getLogger().warning("Ignoring a malformed NPC sync message.");
+        }
+    }
+
+    private void apply(String id, Version remote, NPCRecord record, boolean adopt) {
+        Version local = versions.get(id);
+        boolean newer = local == null ? remote.counter > 0 || adopt : remote.compareTo(local) > 0;
+        if (!newer || (!remote.removed && record == null)) {
+            return; // Already have it, or an NPC type this server does not know
+        }
+        versions.put(id, remote);
+        // The remote state wins, a local edit still waiting to be sent would only echo it back
+        pending.remove(id);
+
+        applying = true;
+        try {
+            if (remote.removed) {
+                if (npcManager.npcExists(id)) {
+                    npcManager.removeNPC(id);
+                    persistence.markDirty(id);
+                }
+            } else if (npcManager.apply(record)) {
+                persistence.markDirty(id);
+            }
+        } finally {
+            applying = false;
+        }
+    }
+
+    // Higher counter wins, equal counters are decided by node id so every server picks the same one
+    private static class Version implements Comparable<Version> {
+        private final long counter;
+        private final String node;
+        private final boolean removed;
+
+        private Version(long counter, String node, boolean removed) {
+            this.counter = counter;
+            this.node = node;
+            this.removed = removed;
+        }
+
+        @Override
+        public int compareTo(Version other) {
+            int byCounter = Long.compare(counter, other.counter);
+            return byCounter != 0 ? byCounter : node.compareTo(other.node);
+        }
+    }
+
+    private static class Change {
+        private final String id;
+        private final Version version;
+        private final NPCRecord record;
+
+        private Change(String id, Version version, NPCRecord record) {
+            this.id = id;
+            this.version = version;
+            this.record = record;
+        }
+    }
+}
@@ -7,139 +7,279 @@ import org.bukkit.entity.EntityType;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
+// Runs on every key press, so nothing here copies or sorts the NPCs: ids come from the registry's
+// sorted index and every other list is built once. Safe from any thread, Paper completes async.
 public class NPCTabCompleter implements TabCompleter {
 
-    private final NPCManager npcManager;
+    private static final List<String> SUBCOMMANDS = Arrays.asList(
+            "create", "skin", "hologram", "look", "range", "list", "teleport", "tp",
+            "movehere", "move", "remove", "delete", "action", "tag", "waypoint", "template", "bulk", "timings", "storage", "stats"
+    );
+    private static final List<String> ACTIONS = Arrays.asList("add", "set", "remove");
+    private static final List<String> BULK_ACTIONS = Arrays.asList("select", "import", "move", "hologram", "action", "tag", "remove");
+    private static final List<String> HOLOGRAM_ACTIONS = Arrays.asList("add", "set", "remove", "setline", "removeline",
+            "shadow", "background", "billboard", "scale");
+    private static final List<String> BOOLEANS = Arrays.asList("true", "false");
+    private static final List<String> ADD_REMOVE = Arrays.asList("add", "remove");
+    private static final List<String> EXECUTORS = Arrays.asList("CONSOLE", "PLAYER", "SERVER");
+    private static final List<String> BACKGROUNDS = Arrays.asList("#AARRGGBB", "default", "none");
+    private static final List<String> BILLBOARDS = Arrays.asList("center", "fixed", "vertical", "horizontal");
+    private static final List<String> RANGES = Arrays.asList("<blocks>", "default");
+    private static final List<String> BULK_SELECT = Arrays.asList("radius", "region", "tag", "all", "clear");
+    private static final List<String> WAYPOINT_ACTIONS = Arrays.asList("add", "remove", "clear", "list", "speed", "loop");
+    private static final List<String> TEMPLATE_ACTIONS = Arrays.asList("save", "use", "spawn", "reset", "detach", "delete", "list");
+    private static final List<String> TEXT_SHADOW = Arrays.asList("text_shadow", "<text>");
 
-    public NPCTabCompleter(NPCManager npcManager) {
-        this.npcManager = npcManager;
+    private final NPCRegistry registry;
+    private final NPCTemplates templates;
+    private final List<String> entityTypes;
+    private final int maxResults;
+
+    public NPCTabCompleter(NaltNPC plugin, NPCManager npcManager) {
+        this.registry = npcManager.getRegistry();
+        this.templates = npcManager.getTemplates();
+        this.entityTypes = getValidEntityTypes(npcManager);
+        this.maxResults = Math.max(1, plugin.getConfig().getInt("tab-complete.max-results", 50));
     }
 
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
-        List<String> completions = new ArrayList<>();
+        // Filter completions based on what the user has typed
+        String currentArg = args[args.length - 1];
 
         if (args.length == 1) {
             // Main subcommands
-            completions.addAll(Arrays.asList(
-                "create", "skin", "hologram", "look", "list", "teleport", "tp",
-                "movehere", "move", "remove", "delete", "action"
-            ));
+            return filter(SUBCOMMANDS, currentArg);
         } else if (args.length == 2) {
             String subCommand = args[0].toLowerCase();
-            
+
             switch (subCommand) {
                 case "create":
                     // Suggest ID (player can type their own)
-                    completions.add("<id>");
-                    break;
+                    return filter(Collections.singletonList("<id>"), currentArg);
                 case "skin":
                 case "hologram":
                 case "look":
+                case "range":
                 case "teleport":
                 case "tp":
                 case "movehere":
                 case "move":
                 case "remove":
                 case "delete":
+                case "tag":
+                case "waypoint":
                     // Suggest existing NPC IDs
-                    completions.addAll(npcManager.getAllNPCs().keySet());
-                    break;
+                    return registry.completeIds(currentArg, maxResults);
                 case "action":
                     // Suggest action types
-                    completions.addAll(Arrays.asList("add", "set", "remove"));
-                    break;
+                    return filter(ACTIONS, currentArg);
+                case "template":
+                    return filter(TEMPLATE_ACTIONS, currentArg);
+                case "bulk":
+                    return filter(BULK_ACTIONS, currentArg);
+                case "stats":
+                    return filter(Collections.singletonList("reset"), currentArg);
             }
         } else if (args.length == 3) {
             String subCommand = args[0].toLowerCase();
-            
+
             switch (subCommand) {
                 case "create":
                     // Suggest all entity types
-                    completions.addAll(getValidEntityTypes());
-                    break;
+                    return filter(entityTypes, currentArg);
                 case "skin":
                     // Suggest skin name placeholder
-                    completions.add("<skinName>");
-                    break;
+                    return filter(Collections.singletonList("<skinName>"), currentArg);
                 case "hologram":
                     // Suggest hologram actions
-                    completions.addAll(Arrays.asList("add", "set", "remove"));
-                    break;
+                    return filter(HOLOGRAM_ACTIONS, currentArg);
                 case "look":
                     // Suggest true/false
-                    completions.addAll(Arrays.asList("true", "false"));
-                    break;
+                    return filter(BOOLEANS, currentArg);
+                case "range":
+                    return filter(RANGES, currentArg);
                 case "move":
                     // Suggest coordinate placeholder
-                    completions.add("<x>");
-                    break;
+                    return filter(Collections.singletonList("<x>"), currentArg);
                 case "action":
                     // Suggest existing NPC IDs for action command
-                    completions.addAll(npcManager.getAllNPCs().keySet());
+                    return registry.completeIds(currentArg, maxResults);
+                case "tag":
+                    return filter(ADD_REMOVE, currentArg);
+                case "waypoint":
+                    return filter(WAYPOINT_ACTIONS, currentArg);
+                case "template":
+                    switch (args[1].toLowerCase()) {
+                        case "save":
+                        case "spawn":
+                        case "delete":
+                        case "remove":
+                            return templates.completeNames(currentArg, maxResults);
+                        case "use":
+                        case "reset":
+                        case "detach":
+                            return registry.completeIds(currentArg, maxResults);
+                    }
                     break;
+                case "bulk":
+                    return filter(getBulkCompletions(args[1].toLowerCase()), currentArg);
             }
         } else if (args.length == 4) {
             String subCommand = args[0].toLowerCase();
-            
+
             switch (subCommand) {
                 case "create":
                     // Suggest name placeholder
-                    completions.add("<name>");
-                    break;
+                    return filter(Collections.singletonList("<name>"), currentArg);
                 case "hologram":
                     String hologramAction = args[2].toLowerCase();
-                    if (hologramAction.equals("set")) {
-                        completions.add("text_shadow");
-                        completions.add("<text>");
-                    } else {
-                        completions.add("<text>");
+                    switch (hologramAction) {
+                        case "set":
+                            return filter(TEXT_SHADOW, currentArg);
+                        case "setline":
+                        case "removeline":
+                            return filter(Collections.singletonList("<line>"), currentArg);
+                        case "shadow":
+                            return filter(BOOLEANS, currentArg);
+                        case "background":
+                            return filter(BACKGROUNDS, currentArg);
+                        case "billboard":
+                            return filter(BILLBOARDS, currentArg);
+                        case "scale":
+                            return filter(Collections.singletonList("<scale>"), currentArg);
+                        case "remove":
+                            break;
+                        default:
+                            return filter(Collections.singletonList("<text>"), currentArg);
                     }
                     break;
                 case "move":
-                    completions.add("<y>");
-                    break;
+                    return filter(Collections.singletonList("<y>"), currentArg);
                 case "action":
                     // Suggest executor types
-                    completions.addAll(Arrays.asList("CONSOLE", "PLAYER", "SERVER"));
+                    return filter(EXECUTORS, currentArg);
+                case "tag":
+                    return filter(Collections.singletonList("<tag>"), currentArg);
+                case "waypoint":
+                    return filter(getWaypointCompletions(args[2].toLowerCase()), currentArg);
+                case "template":
+                    switch (args[1].toLowerCase()) {
+                        case "save":
+                            return registry.completeIds(currentArg, maxResults);
+                        case "use":
+                            return templates.completeNames(currentArg, maxResults);
+                        case "spawn":
+                            return filter(Collections.singletonList("<id>"), currentArg);
+                        case "reset":
+                            return filter(NPCTemplate.getFields(), currentArg);
+                    }
+                    break;
+                case "bulk":
+                    String bulkAction = args[1].toLowerCase();
+                    if (bulkAction.equals("select") && args[2].equalsIgnoreCase("radius")) {
+                        return filter(Collections.singletonList("<blocks>"), currentArg);
+                    } else if (bulkAction.equals("action") && args[2].equalsIgnoreCase("add")) {
+                        return filter(EXECUTORS, currentArg);
+                    } else if (bulkAction.equals("tag") || (bulkAction.equals("select") && args[2].equalsIgnoreCase("tag"))) {
+                        return filter(Collections.singletonList("<tag>"), currentArg);
+                    } else if (bulkAction.equals("hologram") && !args[2].equalsIgnoreCase("remove")) {
+                        return filter(Collections.singletonList("<text>"), currentArg);
+                    } else if (bulkAction.equals("move")) {
+                        return filter(Collections.singletonList("<dy>"), currentArg);
+                    }
                     break;
             }
         } else if (args.length == 5) {
             String subCommand = args[0].toLowerCase();
-            
+
             if (subCommand.equals("hologram")) {
                 String hologramAction = args[2].toLowerCase();
                 if (hologramAction.equals("set") && args[3].equalsIgnoreCase("text_shadow")) {
-                    completions.addAll(Arrays.asList("true", "false"));
+                    return filter(BOOLEANS, currentArg);
+                } else if (hologramAction.equals("setline")) {
+                    return filter(Collections.singletonList("<text>"), currentArg);
                 }
             } else if (subCommand.equals("move")) {
-                completions.add("<z>");
+                return filter(Collections.singletonList("<z>"), currentArg);
             } else if (subCommand.equals("action")) {
-                completions.add("<command>");
+                return filter(Collections.singletonList("<command>"), currentArg);
+            } else if (subCommand.equals("template") && args[1].equalsIgnoreCase("spawn")) {
+                return filter(Collections.singletonList("<npcName>"), currentArg);
+            } else if (subCommand.equals("bulk")) {
+                if (args[1].equalsIgnoreCase("move")) {
+                    return filter(Collections.singletonList("<dz>"), currentArg);
+                } else if (args[1].equalsIgnoreCase("action") && args[2].equalsIgnoreCase("add")) {
+                    return filter(Collections.singletonList("<command>"), currentArg);
+                }
             }
         }
 
-        // Filter completions based on what the user has typed
-        String currentArg = args[args.length - 1].toLowerCase();
-        return completions.stream()
-                .filter(s -> s.toLowerCase().startsWith(currentArg))
-                .collect(Collectors.toList());
+        return Collections.emptyList();
+    }
+
+    // Options starting with what was typed, ignoring case, at most maxResults of them
+    private List<String> filter(List<String> options, String typed) {
+        List<String> completions = new ArrayList<>(Math.min(options.size(), maxResults));
+        for (String option : options) {
+            if (completions.size() >= maxResults) {
+                break;
+            }
+            if (option.regionMatches(true, 0, typed, 0, typed.length())) {
+                completions.add(option);
+            }
+        }
+        return completions;
+    }
+
+    private static List<String> getWaypointCompletions(String waypointAction) {
+        switch (waypointAction) {
+            case "add":
+                return Collections.singletonList("<pauseTicks>");
+            case "remove":
+                return Collections.singletonList("<n>");
+            case "speed":
+                return Collections.singletonList("<blocks/s>");
+            case "loop":
+                return BOOLEANS;
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    private static List<String> getBulkCompletions(String bulkAction) {
+        switch (bulkAction) {
+            case "select":
+                return BULK_SELECT;
+            case "move":
+                return Collections.singletonList("<dx>");
+            case "hologram":
+                return ACTIONS;
+            case "action":
+            case "tag":
+                return ADD_REMOVE;
+            case "import":
+                return Collections.singletonList("<file>");
+            default:
+                return Collections.emptyList();
+        }
     }
 
-    private List<String> getValidEntityTypes() {
+    // Built once, the renderer and so the supported types never change while the plugin runs
+    private static List<String> getValidEntityTypes(NPCManager npcManager) {
         List<String> types = new ArrayList<>();
         for (EntityType type : EntityType.values()) {
             // Filter out some unsuitable types
-            if (type.isSpawnable() && type.isAlive() && 
-                type != EntityType.PLAYER &&  // Cannot spawn PLAYER type
+            if ((type.isSpawnable() || type == EntityType.PLAYER) && type.isAlive() &&
+                npcManager.supportsType(type) &&  // PLAYER only as a virtual NPC
                 type != EntityType.ENDER_DRAGON &&
                 type != EntityType.WITHER) {
                 types.add(type.name());
             }
         }
-        return types;
+        return Collections.unmodifiableList(types);
     }
 }
@@ -0,0 +1,98 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.EntityType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Immutable shared look and behaviour of a group of NPCs. Every NPC using it reads these values
+// unless it overrides them, so a hundred shop clerks hold one hologram and one action list between them.
+public class NPCTemplate {
+
+    // Names of the NPCData.OVERRIDE_* bits, in bit order, as saved and typed in commands
+    private static final List<String> FIELDS = Collections.unmodifiableList(
+            Arrays.asList("hologram", "actions", "skin", "look", "range"));
+
+    private final String name;
+    private final EntityType type;
+    private final String skinName;
+    private final Hologram hologram;
+    private final List<NPCData.NPCAction> actions;
+    private final boolean lookAtPlayers;
+    private final double renderDistance;
+
+    public NPCTemplate(String name, EntityType type, String skinName, Hologram hologram, List<NPCData.NPCAction> actions,
+                       boolean lookAtPlayers, double renderDistance) {
+        this.name = name.toLowerCase();
+        this.type = type;
+        this.skinName = skinName;
+        this.hologram = hologram;
+        this.actions = actions.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(actions));
+        this.lookAtPlayers = lookAtPlayers;
+        this.renderDistance = renderDistance;
+    }
+
+    // Everything an NPC currently looks like, own values and inherited ones alike
+    public static NPCTemplate of(String name, NPCData data) {
+        return new NPCTemplate(name, data.getType(), data.getSkinName(), data.getHologram(), data.getActions(),
+                data.isLookAtPlayers(), data.getRenderDistance());
+    }
+
+    public static List<String> getFields() {
+        return FIELDS;
+    }
+
+    // The OVERRIDE_* bit of a field name, 0 for an unknown name
+    public static int fieldBit(String field) {
+        int index = FIELDS.indexOf(field.toLowerCase());
+        return index < 0 ? 0 : 1 << index;
+    }
+
+    public static int parseFields(List<String> fields) {
+        int bits = 0;
+        for (String field : fields) {
+            bits |= fieldBit(field);
+        }
+        return bits;
+    }
+
+    public static List<String> fieldNames(int bits) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < FIELDS.size(); i++) {
+            if ((bits & (1 << i)) != 0) {
+                names.add(FIELDS.get(i));
+            }
+        }
+        return names;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public EntityType getType() {
+        return type;
+    }
+
+    public String getSkinName() {
+        return skinName;
+    }
+
+    public Hologram getHologram() {
+        return hologram;
+    }
+
+    public List<NPCData.NPCAction> getActions() {
+        return actions;
+    }
+
+    public boolean isLookAtPlayers() {
+        return lookAtPlayers;
+    }
+
+    public double getRenderDistance() {
+        return renderDistance;
+    }
+}
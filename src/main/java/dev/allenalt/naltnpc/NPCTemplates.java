@@ -0,0 +1,148 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// The templates in templates.yml. Changed on the main thread only, read from any thread.
+// A few templates are edited rarely, so the whole file is written again after every change.
+public class NPCTemplates {
+
+    private final NaltNPC plugin;
+    private final File file;
+    private final File tempFile;
+    // Sorted by name for listing and tab completion
+    private final ConcurrentSkipListMap<String, NPCTemplate> templates;
+    // Newest serialized file, every write takes whatever is newest so saves cannot land out of order
+    private volatile byte[] pendingSave;
+    private volatile boolean unsaved;
+
+    public NPCTemplates(NaltNPC plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "templates.yml");
+        this.tempFile = new File(plugin.getDataFolder(), "templates.yml.tmp");
+        this.templates = new ConcurrentSkipListMap<>();
+    }
+
+    // Before the NPCs are loaded, they look up their templates by name
+    public void load() {
+        templates.clear();
+        if (!file.exists()) {
+            return;
+        }
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (IOException | InvalidConfigurationException e) {
+            plugin.getLogger().severe("Could not load templates.yml, NPCs keep their own copy of the template values!");
+            e.printStackTrace();
+            return;
+        }
+        ConfigurationSection section = config.getConfigurationSection("templates");
+        if (section == null) {
+            return;
+        }
+        for (String name : section.getKeys(false)) {
+            ConfigurationSection template = section.getConfigurationSection(name);
+            if (template == null) {
+                continue;
+            }
+            EntityType type;
+            try {
+                type = EntityType.valueOf(template.getString("type", "").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Skipping template '" + name + "': invalid entity type '" + template.getString("type") + "'.");
+                continue;
+            }
+            templates.put(name.toLowerCase(), new NPCTemplate(name, type, template.getString("skin"),
+                    YamlNPCStorage.readHologram(name, template, plugin.getLogger()),
+                    YamlNPCStorage.readActions(name, template, plugin.getLogger()),
+                    template.getBoolean("lookAtPlayers"), template.getDouble("renderDistance")));
+        }
+        plugin.getLogger().info("Loaded " + templates.size() + " NPC templates.");
+    }
+
+    public NPCTemplate get(String name) {
+        return name != null ? templates.get(name.toLowerCase()) : null;
+    }
+
+    public Collection<NPCTemplate> getAll() {
+        return Collections.unmodifiableCollection(templates.values());
+    }
+
+    public void put(NPCTemplate template) {
+        templates.put(template.getName(), template);
+        save();
+    }
+
+    public void remove(String name) {
+        if (templates.remove(name.toLowerCase()) != null) {
+            save();
+        }
+    }
+
+    public List<String> completeNames(String prefix, int limit) {
+        List<String> names = new ArrayList<>();
+        for (String name : templates.tailMap(prefix.toLowerCase()).keySet()) {
+            if (names.size() >= limit || !name.startsWith(prefix.toLowerCase())) {
+                break;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    // Serialized on the main thread, written off it
+    private void save() {
+        YamlConfiguration config = new YamlConfiguration();
+        for (NPCTemplate template : templates.values()) {
+            String path = "templates." + template.getName();
+            config.set(path + ".type", template.getType().name());
+            config.set(path + ".skin", template.getSkinName());
+            config.set(path + ".lookAtPlayers", template.isLookAtPlayers());
+            config.set(path + ".renderDistance", template.getRenderDistance() > 0 ? template.getRenderDistance() : null);
+            YamlNPCStorage.writeHologram(config, path, template.getHologram());
+            YamlNPCStorage.writeActions(config, path, template.getActions());
+        }
+        pendingSave = config.saveToString().getBytes(StandardCharsets.UTF_8);
+        unsaved = true;
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this::write);
+    }
+
+    // On disable, a write still waiting for its async task would be lost
+    public void shutdown() {
+        write();
+    }
+
+    private synchronized void write() {
+        if (!unsaved) {
+            return;
+        }
+        unsaved = false;
+        byte[] bytes = pendingSave;
+        try {
+            Files.write(tempFile.toPath(), bytes);
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("Could not save templates.yml!");
+            e.printStackTrace();
+        }
+    }
+}
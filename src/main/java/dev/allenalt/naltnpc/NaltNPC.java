@@ -5,47 +5,105 @@ import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Display;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class NaltNPC extends JavaPlugin {
 
+    private final NPCMetrics metrics = new NPCMetrics();
     private NPCManager npcManager;
+    private NPCPersistence persistence;
+    private BulkCommand bulkCommand;
+    private NPCSync sync;
+    private MetricsDump metricsDump;
     private File npcsFile;
-    private FileConfiguration npcsConfig;
+
+    public NaltNPC() {
+    }
+
+    // Bukkit's constructor for creating a plugin outside a server, used by the benchmarks
+    protected NaltNPC(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onEnable() {
         getLogger().info("NaltNPC v1.0.0 by Dev_Allenalt_tw has been enabled!");
         
+        saveDefaultConfig();
+        
         // Initialize NPC manager
         npcManager = new NPCManager(this);
+        getServer().getPluginManager().registerEvents(npcManager.getSpatialGrid(), this);
         
         // Setup data files
         setupDataFiles();
+        persistence = new NPCPersistence(this, npcManager, createStorage());
+        bulkCommand = new BulkCommand(this, npcManager, persistence);
+        
+        // Spawn NPCs only while their chunk is loaded
+        NPCLifecycleManager lifecycle = new NPCLifecycleManager(this, npcManager);
+        getServer().getPluginManager().registerEvents(lifecycle, this);
+        
+        // Show NPCs per player as they cross each NPC's render distance
+        getServer().getPluginManager().registerEvents(new VisibilityEngine(this, npcManager), this);
+        new HologramRefresher(this, npcManager);
+
+        // Run NPC actions when players click them
+        getServer().getPluginManager().registerEvents(new NPCInteractionListener(this, npcManager), this);
         
         // Load NPCs from config
-        loadNPCs();
+        CompletableFuture<Void> loaded = new NPCLoader(this, npcManager, lifecycle).load(persistence.load());
+
+        // Share NPC changes with the other servers of the network
+        if (getConfig().getBoolean("sync.enabled", false)) {
+            sync = new NPCSync(this, npcManager, persistence, createSyncTransport());
+            loaded.thenRun(sync::start);
+        }
+        
+        // Write the metrics to a file for offline analysis
+        if (getConfig().getBoolean("metrics.dump.enabled", false)) {
+            metricsDump = new MetricsDump(this, npcManager, metrics);
+            metricsDump.start();
+        }
         
-        // Register tab completer
-        getCommand("npc").setTabCompleter(new NPCTabCompleter(npcManager));
+        // Register tab completer, answered off the main thread where the server supports it
+        NPCTabCompleter tabCompleter = new NPCTabCompleter(this, npcManager);
+        getCommand("npc").setTabCompleter(tabCompleter);
+        AsyncTabCompletion.register(this, tabCompleter, getCommand("npc"));
         
         getLogger().info("NaltNPC plugin loaded successfully!");
     }
 
     @Override
     public void onDisable() {
+        if (sync != null) {
+            sync.stop();
+        }
+        if (metricsDump != null) {
+            metricsDump.stop();
+        }
         // Save all NPCs before shutdown
-        saveNPCs();
+        if (persistence != null) {
+            persistence.flushSync();
+        }
+        if (npcManager != null) {
+            npcManager.shutdown();
+        }
         getLogger().info("NaltNPC has been disabled!");
     }
 
@@ -55,7 +113,7 @@ public class NaltNPC extends JavaPlugin {
         }
         
         npcsFile = new File(getDataFolder(), "npcs.yml");
-        if (!npcsFile.exists()) {
+        if (!npcsFile.exists() && !getStorageType().equals("binary") && !getStorageType().equals("sql")) {
             try {
                 npcsFile.createNewFile();
             } catch (IOException e) {
@@ -63,26 +121,44 @@ public class NaltNPC extends JavaPlugin {
                 e.printStackTrace();
             }
         }
-        npcsConfig = YamlConfiguration.loadConfiguration(npcsFile);
     }
 
-    private void loadNPCs() {
-        // Load NPCs from config file
-        if (npcsConfig.contains("npcs")) {
-            for (String id : npcsConfig.getConfigurationSection("npcs").getKeys(false)) {
-                String path = "npcs." + id;
-                // NPC data will be loaded here when server is ready
-            }
+    private String getStorageType() {
+        return getConfig().getString("persistence.storage", "yaml").toLowerCase();
+    }
+
+    private NPCStorage createStorage() {
+        switch (getStorageType()) {
+            case "binary":
+                // npcs.yml is only converted while there is no binary file yet
+                File binaryFile = new File(getDataFolder(), "npcs.dat");
+                return new BinaryNPCStorage(binaryFile, getLogger(), binaryFile.exists() ? null : npcsFile);
+            case "sql":
+                // npcs.yml is only converted into an empty database
+                String url = getConfig().getString("persistence.sql.url", "");
+                if (url.isEmpty()) {
+                    url = "jdbc:h2:" + new File(getDataFolder(), "npcs").getAbsolutePath();
+                }
+                return new SqlNPCStorage(url, getConfig().getString("persistence.sql.user", "sa"),
+                        getConfig().getString("persistence.sql.password", ""),
+                        getConfig().getInt("persistence.sql.pool-size", 2), getLogger(), npcsFile);
+            case "yaml":
+                return new YamlNPCStorage(npcsFile, getLogger());
+            default:
+                getLogger().warning("Unknown persistence.storage '" + getStorageType() + "', using yaml.");
+                return new YamlNPCStorage(npcsFile, getLogger());
         }
     }
 
-    private void saveNPCs() {
-        try {
-            npcsConfig.save(npcsFile);
-        } catch (IOException e) {
-            getLogger().severe("Could not save npcs.yml file!");
-            e.printStackTrace();
+    private SyncTransport createSyncTransport() {
+        String transport = getConfig().getString("sync.transport", "plugin-message");
+        if (transport.equalsIgnoreCase("loopback")) {
+            return new LoopbackTransport();
         }
+        if (!transport.equalsIgnoreCase("plugin-message")) {
+            getLogger().warning("Unknown sync.transport '" + transport + "', using plugin-message.");
+        }
+        return new PluginMessageTransport(this);
     }
 
     @Override
@@ -103,6 +179,16 @@ public class NaltNPC extends JavaPlugin {
             return true;
         }
 
+        // Only the part that runs now, work handed to other threads or later ticks is timed where it runs
+        long start = System.nanoTime();
+        try {
+            return handle(player, args);
+        } finally {
+            metrics.timer(NPCMetrics.COMMAND).record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean handle(Player player, String[] args) {
         String subCommand = args[0].toLowerCase();
 
         switch (subCommand) {
@@ -114,6 +200,8 @@ public class NaltNPC extends JavaPlugin {
                 return handleHologram(player, args);
             case "look":
                 return handleLook(player, args);
+            case "range":
+                return handleRange(player, args);
             case "list":
                 return handleList(player);
             case "teleport":
@@ -128,6 +216,20 @@ public class NaltNPC extends JavaPlugin {
                 return handleRemove(player, args);
             case "action":
                 return handleAction(player, args);
+            case "tag":
+                return handleTag(player, args);
+            case "waypoint":
+                return handleWaypoint(player, args);
+            case "template":
+                return handleTemplate(player, args);
+            case "bulk":
+                return bulkCommand.handle(player, args);
+            case "timings":
+                return handleTimings(player);
+            case "storage":
+                return handleStorage(player);
+            case "stats":
+                return handleStats(player, args);
             default:
                 sendHelp(player);
                 return true;
@@ -163,19 +265,11 @@ public class NaltNPC extends JavaPlugin {
         }
 
         Location loc = player.getLocation();
-        npcManager.createNPC(id, entityType, name, loc);
-        
-        // Save to config
-        String path = "npcs." + id;
-        npcsConfig.set(path + ".type", type);
-        npcsConfig.set(path + ".name", name);
-        npcsConfig.set(path + ".world", loc.getWorld().getName());
-        npcsConfig.set(path + ".x", loc.getX());
-        npcsConfig.set(path + ".y", loc.getY());
-        npcsConfig.set(path + ".z", loc.getZ());
-        npcsConfig.set(path + ".yaw", loc.getYaw());
-        npcsConfig.set(path + ".pitch", loc.getPitch());
-        saveNPCs();
+        if (!npcManager.createNPC(id, entityType, name, loc)) {
+            player.sendMessage(ChatColor.RED + "Player NPCs need render-mode 'virtual' in config.yml and ProtocolLib!");
+            return true;
+        }
+        persistence.markDirty(id);
 
         player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' created successfully!");
         return true;
@@ -195,24 +289,35 @@ public class NaltNPC extends JavaPlugin {
             return true;
         }
 
-        boolean success = npcManager.setSkin(id, skinName);
-        
-        if (success) {
-            // Save to config
-            npcsConfig.set("npcs." + id + ".skin", skinName);
-            saveNPCs();
-            player.sendMessage(ChatColor.GREEN + "Skin set to '" + skinName + "' for NPC '" + id + "'!");
-        } else {
-            player.sendMessage(ChatColor.RED + "Failed to set skin. This NPC type may not support skins.");
-            player.sendMessage(ChatColor.YELLOW + "Note: Only certain mob types support skin changes.");
+        // Player names are 3-16 letters, digits or underscores
+        if (!skinName.matches("[A-Za-z0-9_]{3,16}")) {
+            player.sendMessage(ChatColor.RED + "'" + skinName + "' is not a valid player name!");
+            return true;
         }
 
+        UUID playerId = player.getUniqueId();
+        npcManager.setSkin(id, skinName).whenComplete((skin, error) -> getServer().getScheduler().runTask(this, () -> {
+            Player target = getServer().getPlayer(playerId);
+            if (target == null) {
+                return;
+            }
+            if (error != null) {
+                target.sendMessage(ChatColor.RED + "Could not fetch skin '" + skinName + "', it will be retried later.");
+            } else if (skin == null) {
+                target.sendMessage(ChatColor.RED + "No player named '" + skinName + "' exists!");
+            } else {
+                target.sendMessage(ChatColor.GREEN + "Skin of '" + skin.getName() + "' loaded for NPC '" + id + "'.");
+            }
+        }));
+        persistence.markDirty(id);
+        player.sendMessage(ChatColor.GREEN + "Skin set to '" + skinName + "' for NPC '" + id + "', fetching...");
+
         return true;
     }
 
     private boolean handleHologram(Player player, String[] args) {
-        if (args.length < 4) {
-            player.sendMessage(ChatColor.RED + "Usage: /npc hologram <id> <add/set/remove> <text>");
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc hologram <id> <add/set/remove/setline/removeline/shadow/background/billboard/scale> [value]");
             return true;
         }
 
@@ -224,11 +329,24 @@ public class NaltNPC extends JavaPlugin {
             return true;
         }
 
+        if (action.equals("remove")) {
+            npcManager.removeHologram(id);
+            player.sendMessage(ChatColor.GREEN + "Hologram removed!");
+            persistence.markDirty(id);
+            return true;
+        }
+
+        if (args.length < 4) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc hologram <id> " + action + " <value>");
+            return true;
+        }
+
         StringBuilder textBuilder = new StringBuilder();
         for (int i = 3; i < args.length; i++) {
             textBuilder.append(args[i]).append(" ");
         }
         String text = ChatColor.translateAlternateColorCodes('&', textBuilder.toString().trim());
+        Hologram hologram = npcManager.getHologram(id);
 
         switch (action) {
             case "add":
@@ -236,7 +354,7 @@ public class NaltNPC extends JavaPlugin {
                 player.sendMessage(ChatColor.GREEN + "Hologram line added!");
                 break;
             case "set":
-                boolean textShadow = false;
+                boolean textShadow = hologram != null && hologram.isShadow();
                 // Check if text_shadow parameter exists
                 if (args.length > 4 && args[3].equalsIgnoreCase("text_shadow")) {
                     if (args.length > 5) {
@@ -252,18 +370,108 @@ public class NaltNPC extends JavaPlugin {
                 npcManager.setHologram(id, text, textShadow);
                 player.sendMessage(ChatColor.GREEN + "Hologram set with text_shadow: " + textShadow);
                 break;
-            case "remove":
-                npcManager.removeHologram(id);
-                player.sendMessage(ChatColor.GREEN + "Hologram removed!");
+            case "setline":
+            case "removeline":
+                int line;
+                try {
+                    line = Integer.parseInt(args[3]) - 1;
+                } catch (NumberFormatException e) {
+                    player.sendMessage(ChatColor.RED + "Line must be a number!");
+                    return true;
+                }
+                if (action.equals("setline")) {
+                    if (args.length < 5) {
+                        player.sendMessage(ChatColor.RED + "Usage: /npc hologram <id> setline <line> <text>");
+                        return true;
+                    }
+                    textBuilder = new StringBuilder();
+                    for (int i = 4; i < args.length; i++) {
+                        textBuilder.append(args[i]).append(" ");
+                    }
+                    text = ChatColor.translateAlternateColorCodes('&', textBuilder.toString().trim());
+                    if (!npcManager.setHologramLine(id, line, text)) {
+                        player.sendMessage(ChatColor.RED + "The hologram has no line " + args[3] + "!");
+                        return true;
+                    }
+                    player.sendMessage(ChatColor.GREEN + "Hologram line " + args[3] + " set!");
+                } else {
+                    if (!npcManager.removeHologramLine(id, line)) {
+                        player.sendMessage(ChatColor.RED + "The hologram has no line " + args[3] + "!");
+                        return true;
+                    }
+                    player.sendMessage(ChatColor.GREEN + "Hologram line " + args[3] + " removed!");
+                }
+                break;
+            case "shadow":
+            case "background":
+            case "billboard":
+            case "scale":
+                if (hologram == null) {
+                    player.sendMessage(ChatColor.RED + "This NPC has no hologram!");
+                    return true;
+                }
+                Hologram styled = applyHologramStyle(player, hologram, action, args[3]);
+                if (styled == null) {
+                    return true;
+                }
+                npcManager.setHologram(id, styled);
+                player.sendMessage(ChatColor.GREEN + "Hologram " + action + " set to " + args[3] + "!");
                 break;
             default:
-                player.sendMessage(ChatColor.RED + "Invalid action! Use add, set, or remove.");
+                player.sendMessage(ChatColor.RED + "Invalid action! Use add, set, remove, setline, removeline, shadow, background, billboard or scale.");
                 return true;
         }
 
+        persistence.markDirty(id);
         return true;
     }
 
+    // Returns null after telling the player what was wrong with the value
+    private Hologram applyHologramStyle(Player player, Hologram hologram, String option, String value) {
+        switch (option) {
+            case "shadow":
+                return hologram.withShadow(Boolean.parseBoolean(value));
+            case "background":
+                if (value.equalsIgnoreCase("default")) {
+                    return hologram.withBackground(null);
+                }
+                if (value.equalsIgnoreCase("none")) {
+                    return hologram.withBackground(0);
+                }
+                String hex = value.startsWith("#") ? value.substring(1) : value;
+                try {
+                    if (hex.length() == 6) {
+                        // No alpha given, make the color opaque
+                        return hologram.withBackground(0xFF000000 | Integer.parseInt(hex, 16));
+                    } else if (hex.length() == 8) {
+                        return hologram.withBackground((int) Long.parseLong(hex, 16));
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+                player.sendMessage(ChatColor.RED + "Background must be #RRGGBB, #AARRGGBB, default or none!");
+                return null;
+            case "billboard":
+                try {
+                    return hologram.withBillboard(Display.Billboard.valueOf(value.toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    player.sendMessage(ChatColor.RED + "Billboard must be center, fixed, vertical or horizontal!");
+                    return null;
+                }
+            case "scale":
+                try {
+                    float scale = Float.parseFloat(value);
+                    if (scale > 0 && scale <= 10) {
+                        return hologram.withScale(scale);
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+                player.sendMessage(ChatColor.RED + "Scale must be a number between 0 and 10!");
+                return null;
+            default:
+                return null;
+        }
+    }
+
     private boolean handleLook(Player player, String[] args) {
         if (args.length < 3) {
             player.sendMessage(ChatColor.RED + "Usage: /npc look <id> <true/false>");
@@ -279,13 +487,46 @@ public class NaltNPC extends JavaPlugin {
         }
 
         npcManager.setLookAtPlayers(id, lookAtPlayers);
-        npcsConfig.set("npcs." + id + ".lookAtPlayers", lookAtPlayers);
-        saveNPCs();
+        persistence.markDirty(id);
 
         player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' look at players: " + lookAtPlayers);
         return true;
     }
 
+    private boolean handleRange(Player player, String[] args) {
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc range <id> <blocks|default>");
+            return true;
+        }
+
+        String id = args[1];
+
+        if (!npcManager.npcExists(id)) {
+            player.sendMessage(ChatColor.RED + "NPC with ID '" + id + "' does not exist!");
+            return true;
+        }
+
+        double range = 0;
+        if (!args[2].equalsIgnoreCase("default")) {
+            try {
+                range = Double.parseDouble(args[2]);
+            } catch (NumberFormatException e) {
+                player.sendMessage(ChatColor.RED + "Invalid range!");
+                return true;
+            }
+            if (range <= 0) {
+                player.sendMessage(ChatColor.RED + "Range must be greater than 0!");
+                return true;
+            }
+        }
+
+        npcManager.setRenderDistance(id, range);
+        persistence.markDirty(id);
+
+        player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' render range: " + (range > 0 ? range + " blocks" : "default"));
+        return true;
+    }
+
     private boolean handleList(Player player) {
         Map<String, NPCData> npcs = npcManager.getAllNPCs();
         
@@ -338,16 +579,7 @@ public class NaltNPC extends JavaPlugin {
 
         Location loc = player.getLocation();
         npcManager.moveNPC(id, loc);
-
-        // Update config
-        String path = "npcs." + id;
-        npcsConfig.set(path + ".world", loc.getWorld().getName());
-        npcsConfig.set(path + ".x", loc.getX());
-        npcsConfig.set(path + ".y", loc.getY());
-        npcsConfig.set(path + ".z", loc.getZ());
-        npcsConfig.set(path + ".yaw", loc.getYaw());
-        npcsConfig.set(path + ".pitch", loc.getPitch());
-        saveNPCs();
+        persistence.markDirty(id);
 
         player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' moved to your location!");
         return true;
@@ -374,13 +606,7 @@ public class NaltNPC extends JavaPlugin {
             Location currentLoc = npcManager.getNPCLocation(id);
             Location newLoc = new Location(currentLoc.getWorld(), x, y, z, currentLoc.getYaw(), currentLoc.getPitch());
             npcManager.moveNPC(id, newLoc);
-
-            // Update config
-            String path = "npcs." + id;
-            npcsConfig.set(path + ".x", x);
-            npcsConfig.set(path + ".y", y);
-            npcsConfig.set(path + ".z", z);
-            saveNPCs();
+            persistence.markDirty(id);
 
             player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' moved to coordinates!");
         } catch (NumberFormatException e) {
@@ -404,8 +630,7 @@ public class NaltNPC extends JavaPlugin {
         }
 
         npcManager.removeNPC(id);
-        npcsConfig.set("npcs." + id, null);
-        saveNPCs();
+        persistence.markDirty(id);
 
         player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' removed!");
         return true;
@@ -441,54 +666,466 @@ public class NaltNPC extends JavaPlugin {
             case "add":
                 npcManager.addAction(id, executorType, command);
                 player.sendMessage(ChatColor.GREEN + "Action added to NPC '" + id + "'!");
-                
-                // Save to config
-                int actionIndex = npcManager.getActionCount(id) - 1;
-                String path = "npcs." + id + ".actions." + actionIndex;
-                npcsConfig.set(path + ".type", executorType);
-                npcsConfig.set(path + ".command", command);
-                saveNPCs();
                 break;
             case "set":
                 npcManager.clearActions(id);
                 npcManager.addAction(id, executorType, command);
                 player.sendMessage(ChatColor.GREEN + "Action set for NPC '" + id + "'!");
-                
-                // Save to config
-                npcsConfig.set("npcs." + id + ".actions", null);
-                npcsConfig.set("npcs." + id + ".actions.0.type", executorType);
-                npcsConfig.set("npcs." + id + ".actions.0.command", command);
-                saveNPCs();
                 break;
             case "remove":
                 npcManager.clearActions(id);
                 player.sendMessage(ChatColor.GREEN + "All actions removed from NPC '" + id + "'!");
-                
-                // Save to config
-                npcsConfig.set("npcs." + id + ".actions", null);
-                saveNPCs();
                 break;
             default:
                 player.sendMessage(ChatColor.RED + "Invalid action! Use add, set, or remove.");
                 return true;
         }
 
+        persistence.markDirty(id);
+        return true;
+    }
+
+    private boolean handleTag(Player player, String[] args) {
+        if (args.length < 4) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc tag <id> <add/remove> <tag>");
+            return true;
+        }
+
+        String id = args[1];
+        String action = args[2].toLowerCase();
+        String tag = args[3];
+
+        if (!npcManager.npcExists(id)) {
+            player.sendMessage(ChatColor.RED + "NPC with ID '" + id + "' does not exist!");
+            return true;
+        }
+
+        switch (action) {
+            case "add":
+                if (!npcManager.addTag(id, tag)) {
+                    player.sendMessage(ChatColor.RED + "NPC '" + id + "' already has tag '" + tag + "'!");
+                    return true;
+                }
+                player.sendMessage(ChatColor.GREEN + "Tag '" + tag + "' added to NPC '" + id + "'!");
+                break;
+            case "remove":
+                if (!npcManager.removeTag(id, tag)) {
+                    player.sendMessage(ChatColor.RED + "NPC '" + id + "' does not have tag '" + tag + "'!");
+                    return true;
+                }
+                player.sendMessage(ChatColor.GREEN + "Tag '" + tag + "' removed from NPC '" + id + "'!");
+                break;
+            default:
+                player.sendMessage(ChatColor.RED + "Invalid action! Use add or remove.");
+                return true;
+        }
+
+        persistence.markDirty(id);
         return true;
     }
 
+    private boolean handleWaypoint(Player player, String[] args) {
+        if (args.length < 3) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc waypoint <id> <add [pauseTicks]|remove <n>|clear|list|speed <blocks/s>|loop <true/false>>");
+            return true;
+        }
+
+        String id = args[1];
+        String action = args[2].toLowerCase();
+
+        if (!npcManager.npcExists(id)) {
+            player.sendMessage(ChatColor.RED + "NPC with ID '" + id + "' does not exist!");
+            return true;
+        }
+
+        Route route = npcManager.getRoute(id);
+        if (route == null) {
+            route = new Route(Collections.emptyList(), getConfig().getDouble("waypoints.default-speed", 2.0), true);
+        }
+
+        switch (action) {
+            case "add":
+                if (!player.getWorld().equals(npcManager.getNPCLocation(id).getWorld())) {
+                    player.sendMessage(ChatColor.RED + "Waypoints must be in the NPC's world!");
+                    return true;
+                }
+                int pauseTicks = 0;
+                if (args.length >= 4) {
+                    try {
+                        pauseTicks = Integer.parseInt(args[3]);
+                    } catch (NumberFormatException e) {
+                        player.sendMessage(ChatColor.RED + "Invalid pause!");
+                        return true;
+                    }
+                    if (pauseTicks < 0) {
+                        player.sendMessage(ChatColor.RED + "Pause cannot be negative!");
+                        return true;
+                    }
+                }
+                Location loc = player.getLocation();
+                route = route.withAddedWaypoint(new Route.Waypoint(loc.getX(), loc.getY(), loc.getZ(), pauseTicks));
+                player.sendMessage(ChatColor.GREEN + "Waypoint " + route.size() + " added to NPC '" + id + "'!");
+                break;
+            case "remove":
+                if (args.length < 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc waypoint <id> remove <n>");
+                    return true;
+                }
+                int index;
+                try {
+                    index = Integer.parseInt(args[3]) - 1;
+                } catch (NumberFormatException e) {
+                    player.sendMessage(ChatColor.RED + "Invalid waypoint number!");
+                    return true;
+                }
+                if (index < 0 || index >= route.size()) {
+                    player.sendMessage(ChatColor.RED + "NPC '" + id + "' has no waypoint " + args[3] + "!");
+                    return true;
+                }
+                route = route.withoutWaypoint(index);
+                player.sendMessage(ChatColor.GREEN + "Waypoint " + args[3] + " removed from NPC '" + id + "'!");
+                break;
+            case "clear":
+                npcManager.setRoute(id, null);
+                persistence.markDirty(id);
+                player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' no longer walks!");
+                return true;
+            case "list":
+                List<Route.Waypoint> waypoints = route.getWaypoints();
+                if (waypoints.isEmpty()) {
+                    player.sendMessage(ChatColor.YELLOW + "NPC '" + id + "' has no waypoints!");
+                    return true;
+                }
+                player.sendMessage(ChatColor.GOLD + "=== Waypoints of " + id + " ===");
+                player.sendMessage(ChatColor.YELLOW + "Speed: " + ChatColor.WHITE + route.getSpeed() + " blocks/s"
+                        + ChatColor.YELLOW + " | " + ChatColor.WHITE + (route.isLoop() ? "Loops" : "Walks back and forth")
+                        + ChatColor.YELLOW + " | Length: " + ChatColor.WHITE + String.format("%.1f", route.getLength()) + " blocks");
+                for (int i = 0; i < waypoints.size(); i++) {
+                    Route.Waypoint waypoint = waypoints.get(i);
+                    player.sendMessage(ChatColor.YELLOW + "" + (i + 1) + ": " + ChatColor.WHITE
+                            + String.format("%.1f, %.1f, %.1f", waypoint.getX(), waypoint.getY(), waypoint.getZ())
+                            + (waypoint.getPauseTicks() > 0 ? ChatColor.YELLOW + " (waits " + waypoint.getPauseTicks() + " ticks)" : ""));
+                }
+                return true;
+            case "speed":
+                if (args.length < 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc waypoint <id> speed <blocks/s>");
+                    return true;
+                }
+                double speed;
+                try {
+                    speed = Double.parseDouble(args[3]);
+                } catch (NumberFormatException e) {
+                    player.sendMessage(ChatColor.RED + "Invalid speed!");
+                    return true;
+                }
+                if (speed <= 0) {
+                    player.sendMessage(ChatColor.RED + "Speed must be greater than 0!");
+                    return true;
+                }
+                route = route.withSpeed(speed);
+                player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' walks at " + speed + " blocks/s!");
+                break;
+            case "loop":
+                if (args.length < 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc waypoint <id> loop <true/false>");
+                    return true;
+                }
+                boolean loop = Boolean.parseBoolean(args[3]);
+                route = route.withLoop(loop);
+                player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' " + (loop ? "loops its route!" : "walks its route back and forth!"));
+                break;
+            default:
+                player.sendMessage(ChatColor.RED + "Invalid action! Use add, remove, clear, list, speed or loop.");
+                return true;
+        }
+
+        npcManager.setRoute(id, route);
+        persistence.markDirty(id);
+        return true;
+    }
+
+    private boolean handleTemplate(Player player, String[] args) {
+        if (args.length < 2) {
+            player.sendMessage(ChatColor.RED + "Usage: /npc template <save <name> <id>|use <id> <name>|spawn <name> <id> <npcName>|reset <id> [field]|detach <id>|delete <name>|list>");
+            return true;
+        }
+
+        NPCTemplates templates = npcManager.getTemplates();
+        String action = args[1].toLowerCase();
+        switch (action) {
+            case "save": {
+                if (args.length < 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc template save <name> <id>");
+                    return true;
+                }
+                String name = args[2].toLowerCase();
+                String id = args[3];
+                // The name is a key in templates.yml
+                if (!name.matches("[a-z0-9_-]{1,32}")) {
+                    player.sendMessage(ChatColor.RED + "Template names are up to 32 letters, digits, '_' or '-'!");
+                    return true;
+                }
+                NPCData data = npcManager.getNPC(id);
+                if (data == null) {
+                    player.sendMessage(ChatColor.RED + "NPC with ID '" + id + "' does not exist!");
+                    return true;
+                }
+                NPCTemplate existing = templates.get(name);
+                if (existing != null && existing.getType() != data.getType() && !npcManager.getTemplateInstances(name).isEmpty()) {
+                    player.sendMessage(ChatColor.RED + "Template '" + name + "' is used by " + existing.getType().name()
+                            + " NPCs, it cannot be saved from a " + data.getType().name() + "!");
+                    return true;
+                }
+                bulkCommand.commit(player, "Template '" + name + "' saved", npcManager.saveTemplate(name, id));
+                return true;
+            }
+            case "use": {
+                if (args.length < 4) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc template use <id> <name>");
+                    return true;
+                }
+                String id = args[2];
+                NPCData data = npcManager.getNPC(id);
+                if (data == null) {
+                    player.sendMessage(ChatColor.RED + "NPC with ID '" + id + "' does not exist!");
+                    return true;
+                }
+                NPCTemplate template = templates.get(args[3]);
+                if (template == null) {
+                    player.sendMessage(ChatColor.RED + "Template '" + args[3] + "' does not exist!");
+                    return true;
+                }
+                if (template.getType() != data.getType()) {
+                    player.sendMessage(ChatColor.RED + "Template '" + template.getName() + "' is for " + template.getType().name() + " NPCs!");
+                    return true;
+                }
+                npcManager.setTemplate(id, template, 0);
+                persistence.markDirty(id);
+                player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' now uses template '" + template.getName() + "'!");
+                return true;
+            }
+            case "spawn": {
+                if (args.length < 5) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc template spawn <name> <id> <npcName>");
+                    return true;
+                }
+                NPCTemplate template = templates.get(args[2]);
+                if (template == null) {
+                    player.sendMessage(ChatColor.RED + "Template '" + args[2] + "' does not exist!");
+                    return true;
+                }
+                String id = args[3];
+                if (npcManager.npcExists(id)) {
+                    player.sendMessage(ChatColor.RED + "An NPC with ID '" + id + "' already exists!");
+                    return true;
+                }
+                StringBuilder nameBuilder = new StringBuilder();
+                for (int i = 4; i < args.length; i++) {
+                    nameBuilder.append(args[i]).append(" ");
+                }
+                String name = ChatColor.translateAlternateColorCodes('&', nameBuilder.toString().trim());
+                if (!npcManager.createNPC(id, template, name, player.getLocation())) {
+                    player.sendMessage(ChatColor.RED + "Player NPCs need render-mode 'virtual' in config.yml and ProtocolLib!");
+                    return true;
+                }
+                persistence.markDirty(id);
+                player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' created from template '" + template.getName() + "'!");
+                return true;
+            }
+            case "reset": {
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc template reset <id> [" + String.join("/", NPCTemplate.getFields()) + "]");
+                    return true;
+                }
+                String id = args[2];
+                NPCData data = npcManager.getNPC(id);
+                if (data == null) {
+                    player.sendMessage(ChatColor.RED + "NPC with ID '" + id + "' does not exist!");
+                    return true;
+                }
+                if (data.getTemplate() == null) {
+                    player.sendMessage(ChatColor.RED + "NPC '" + id + "' does not use a template!");
+                    return true;
+                }
+                int overrides = 0;
+                if (args.length >= 4) {
+                    int field = NPCTemplate.fieldBit(args[3]);
+                    if (field == 0) {
+                        player.sendMessage(ChatColor.RED + "Invalid field! Use " + String.join(", ", NPCTemplate.getFields()) + ".");
+                        return true;
+                    }
+                    overrides = data.getOverrides() & ~field;
+                }
+                npcManager.setTemplate(id, data.getTemplate(), overrides);
+                persistence.markDirty(id);
+                player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' takes " + (args.length >= 4 ? args[3].toLowerCase() : "everything")
+                        + " from template '" + data.getTemplate().getName() + "' again!");
+                return true;
+            }
+            case "detach": {
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc template detach <id>");
+                    return true;
+                }
+                String id = args[2];
+                NPCData data = npcManager.getNPC(id);
+                if (data == null) {
+                    player.sendMessage(ChatColor.RED + "NPC with ID '" + id + "' does not exist!");
+                    return true;
+                }
+                if (data.getTemplate() == null) {
+                    player.sendMessage(ChatColor.RED + "NPC '" + id + "' does not use a template!");
+                    return true;
+                }
+                npcManager.setTemplate(id, null, 0);
+                persistence.markDirty(id);
+                player.sendMessage(ChatColor.GREEN + "NPC '" + id + "' no longer uses a template, it keeps its current look!");
+                return true;
+            }
+            case "delete":
+            case "remove": {
+                if (args.length < 3) {
+                    player.sendMessage(ChatColor.RED + "Usage: /npc template delete <name>");
+                    return true;
+                }
+                NPCTemplate template = templates.get(args[2]);
+                if (template == null) {
+                    player.sendMessage(ChatColor.RED + "Template '" + args[2] + "' does not exist!");
+                    return true;
+                }
+                bulkCommand.commit(player, "Template '" + template.getName() + "' deleted", npcManager.deleteTemplate(template.getName()));
+                return true;
+            }
+            case "list": {
+                if (templates.getAll().isEmpty()) {
+                    player.sendMessage(ChatColor.YELLOW + "No templates saved yet!");
+                    return true;
+                }
+                player.sendMessage(ChatColor.GOLD + "=== NPC Templates ===");
+                for (NPCTemplate template : templates.getAll()) {
+                    player.sendMessage(ChatColor.YELLOW + template.getName() + ChatColor.WHITE + " (" + template.getType().name() + ")"
+                            + ChatColor.YELLOW + " - " + npcManager.getTemplateInstances(template.getName()).size() + " NPCs");
+                }
+                return true;
+            }
+            default:
+                player.sendMessage(ChatColor.RED + "Invalid action! Use save, use, spawn, reset, detach, delete or list.");
+                return true;
+        }
+    }
+
+    private boolean handleTimings(Player player) {
+        NPCScheduler scheduler = npcManager.getScheduler();
+        player.sendMessage(ChatColor.GOLD + "=== NPC Timings (last second) ===");
+        player.sendMessage(ChatColor.YELLOW + "Total: " + ChatColor.WHITE + formatMillis(scheduler.getAverageTickNanos())
+                + "/tick of " + formatMillis(scheduler.getBudgetNanos()) + " budget, "
+                + String.format("%.0f", scheduler.getAverageVisits()) + "/" + scheduler.getTrackedCount() + " NPCs visited per tick");
+        if (scheduler.getOverBudgetTicks() > 0) {
+            player.sendMessage(ChatColor.RED + "Ran out of budget in " + scheduler.getOverBudgetTicks() + " of the last 20 ticks.");
+        }
+        for (NPCScheduler.Timing timing : scheduler.getTimings()) {
+            player.sendMessage(ChatColor.YELLOW + timing.getName() + ": " + ChatColor.WHITE + formatMillis(timing.getAverageNanos())
+                    + "/tick, " + String.format("%.1f", timing.getAverageRuns()) + " updates/tick"
+                    + (timing.getErrors() > 0 ? ChatColor.RED + ", " + timing.getErrors() + " errors" : ""));
+        }
+        return true;
+    }
+
+    private boolean handleStats(Player player, String[] args) {
+        if (args.length >= 2) {
+            if (!args[1].equalsIgnoreCase("reset")) {
+                player.sendMessage(ChatColor.RED + "Usage: /npc stats [reset]");
+                return true;
+            }
+            metrics.reset();
+            player.sendMessage(ChatColor.GREEN + "NPC stats reset.");
+            return true;
+        }
+
+        long seconds = (System.currentTimeMillis() - metrics.getSince()) / 1000;
+        player.sendMessage(ChatColor.GOLD + "=== NPC Stats (last " + seconds + "s) ===");
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : metrics.snapshotTimers().entrySet()) {
+            LatencyHistogram.Snapshot timer = entry.getValue();
+            if (timer.getCount() == 0) {
+                continue;
+            }
+            player.sendMessage(ChatColor.YELLOW + entry.getKey() + ": " + ChatColor.WHITE + timer.getCount() + "x, p50 "
+                    + formatMillis(timer.getPercentile(50)) + ", p99 " + formatMillis(timer.getPercentile(99))
+                    + ", max " + formatMillis(timer.getMax()));
+        }
+        StringBuilder counters = new StringBuilder();
+        for (Map.Entry<String, Long> entry : metrics.snapshotCounters().entrySet()) {
+            counters.append(counters.length() > 0 ? ", " : "").append(entry.getKey()).append(" ").append(entry.getValue());
+        }
+        if (counters.length() > 0) {
+            player.sendMessage(ChatColor.YELLOW + "Counters: " + ChatColor.WHITE + counters);
+        }
+
+        // Loaded means materialized: spawned as an entity, or tracked for packets in virtual mode
+        Map<String, int[]> worlds = new TreeMap<>();
+        int loaded = 0;
+        int total = 0;
+        for (NPCData data : npcManager.getNPCs()) {
+            String world = data.getLocation().getWorld() != null ? data.getLocation().getWorld().getName() : "?";
+            int[] counts = worlds.computeIfAbsent(world, key -> new int[2]);
+            counts[0]++;
+            total++;
+            if (data.isSpawned()) {
+                counts[1]++;
+                loaded++;
+            }
+        }
+        String mode = npcManager.getRenderer().isVirtual() ? "virtual" : "entity";
+        player.sendMessage(ChatColor.YELLOW + "NPCs: " + ChatColor.WHITE + total + " (" + loaded + " loaded, "
+                + (total - loaded) + " unloaded), rendered as " + mode + " NPCs");
+        for (Map.Entry<String, int[]> entry : worlds.entrySet()) {
+            player.sendMessage(ChatColor.YELLOW + "  " + entry.getKey() + ": " + ChatColor.WHITE + entry.getValue()[0]
+                    + " (" + entry.getValue()[1] + " loaded)");
+        }
+        return true;
+    }
+
+    private boolean handleStorage(Player player) {
+        player.sendMessage(ChatColor.YELLOW + "NPCs are stored in " + ChatColor.WHITE
+                + persistence.getStorage().getName() + ChatColor.YELLOW + ".");
+        return true;
+    }
+
+    private static String formatMillis(double nanos) {
+        return String.format("%.3fms", nanos / 1_000_000.0);
+    }
+
     private void sendHelp(Player player) {
         player.sendMessage(ChatColor.GOLD + "=== NaltNPC Commands ===");
         player.sendMessage(ChatColor.YELLOW + "/npc create <id> <type> <name>" + ChatColor.WHITE + " - Create a new NPC");
-        player.sendMessage(ChatColor.YELLOW + "/npc hologram <add/set/remove> <text>" + ChatColor.WHITE + " - Manage hologram");
+        player.sendMessage(ChatColor.YELLOW + "/npc hologram <id> <add/set/remove/setline/removeline> [line] [text]" + ChatColor.WHITE + " - Manage hologram lines");
+        player.sendMessage(ChatColor.YELLOW + "/npc hologram <id> <shadow/background/billboard/scale> <value>" + ChatColor.WHITE + " - Style the hologram");
         player.sendMessage(ChatColor.YELLOW + "/npc look <id> <true/false>" + ChatColor.WHITE + " - Toggle NPC looking at players");
+        player.sendMessage(ChatColor.YELLOW + "/npc range <id> <blocks|default>" + ChatColor.WHITE + " - Set how far away the NPC is visible");
         player.sendMessage(ChatColor.YELLOW + "/npc list" + ChatColor.WHITE + " - List all NPCs");
         player.sendMessage(ChatColor.YELLOW + "/npc teleport <id>" + ChatColor.WHITE + " - Teleport to NPC");
         player.sendMessage(ChatColor.YELLOW + "/npc movehere <id>" + ChatColor.WHITE + " - Move NPC to your location");
         player.sendMessage(ChatColor.YELLOW + "/npc move <id> <x> <y> <z>" + ChatColor.WHITE + " - Move NPC to coordinates");
         player.sendMessage(ChatColor.YELLOW + "/npc remove <id>" + ChatColor.WHITE + " - Remove an NPC");
+        player.sendMessage(ChatColor.YELLOW + "/npc tag <id> <add/remove> <tag>" + ChatColor.WHITE + " - Tag an NPC");
+        player.sendMessage(ChatColor.YELLOW + "/npc waypoint <id> <add/remove/clear/list/speed/loop>" + ChatColor.WHITE + " - Make an NPC walk a route");
+        player.sendMessage(ChatColor.YELLOW + "/npc template <save/use/spawn/reset/detach/delete/list>" + ChatColor.WHITE + " - Share a look between NPCs");
+        player.sendMessage(ChatColor.YELLOW + "/npc bulk" + ChatColor.WHITE + " - Edit many NPCs at once");
+        player.sendMessage(ChatColor.YELLOW + "/npc timings" + ChatColor.WHITE + " - Show time spent on NPC updates");
+        player.sendMessage(ChatColor.YELLOW + "/npc storage" + ChatColor.WHITE + " - Show where NPCs are stored");
+        player.sendMessage(ChatColor.YELLOW + "/npc stats [reset]" + ChatColor.WHITE + " - Show NPC latencies and counts");
     }
 
     public NPCManager getNPCManager() {
         return npcManager;
     }
+
+    public NPCPersistence getPersistence() {
+        return persistence;
+    }
+
+    public NPCMetrics getMetrics() {
+        return metrics;
+    }
 }
@@ -0,0 +1,81 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+// A {name} token usable in hologram lines, its value is cached until the next refresh
+public class Placeholder {
+
+    private final String name;
+    private final int refreshTicks;
+    private final boolean perPlayer;
+    private final Function<Player, String> resolver;
+
+    private String value;
+    private final Map<UUID, String> playerValues;
+    private long refreshedTick;
+
+    public Placeholder(String name, int refreshTicks, boolean perPlayer, Function<Player, String> resolver) {
+        this.name = name;
+        this.refreshTicks = Math.max(1, refreshTicks);
+        this.perPlayer = perPlayer;
+        this.resolver = resolver;
+        this.playerValues = new HashMap<>();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRefreshTicks() {
+        return refreshTicks;
+    }
+
+    public boolean isPerPlayer() {
+        return perPlayer;
+    }
+
+    // Worked out at most once per refresh, and once per player for per-player placeholders
+    public String getValue(Player viewer) {
+        if (!perPlayer) {
+            if (value == null) {
+                value = resolve(null);
+            }
+            return value;
+        }
+        if (viewer == null) {
+            // Shared displays have no single viewer, leave the token as written
+            return "{" + name + "}";
+        }
+        String playerValue = playerValues.get(viewer.getUniqueId());
+        if (playerValue == null) {
+            playerValue = resolve(viewer);
+            playerValues.put(viewer.getUniqueId(), playerValue);
+        }
+        return playerValue;
+    }
+
+    // Drop cached values, they are worked out again the next time a line needs them
+    public void refresh(long tick) {
+        value = null;
+        playerValues.clear();
+        refreshedTick = tick;
+    }
+
+    public long getRefreshedTick() {
+        return refreshedTick;
+    }
+
+    private String resolve(Player viewer) {
+        try {
+            String resolved = resolver.apply(viewer);
+            return resolved != null ? resolved : "";
+        } catch (RuntimeException e) {
+            return "{" + name + "}";
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Player;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class PlaceholderManager {
+
+    private final NaltNPC plugin;
+    private final Map<String, Placeholder> placeholders;
+    // Hologram lines are compiled once and shared by every NPC showing the same text
+    private final Map<String, PlaceholderText> compiled;
+    private long tick;
+
+    public PlaceholderManager(NaltNPC plugin) {
+        this.plugin = plugin;
+        this.placeholders = new HashMap<>();
+        this.compiled = new HashMap<>();
+        registerDefaults();
+    }
+
+    private void registerDefaults() {
+        register("online", 20, () -> String.valueOf(plugin.getServer().getOnlinePlayers().size()));
+        register("max_players", 200, () -> String.valueOf(plugin.getServer().getMaxPlayers()));
+        registerPerPlayer("player", 200, Player::getName);
+        registerPerPlayer("player_displayname", 40, Player::getDisplayName);
+        registerPerPlayer("player_world", 40, player -> player.getWorld().getName());
+    }
+
+    // Other plugins can add their own, e.g. queue sizes
+    public void register(String name, int refreshTicks, Supplier<String> supplier) {
+        add(new Placeholder(name.toLowerCase(), refreshTicks, false, viewer -> supplier.get()));
+    }
+
+    // Only shown per player in virtual render mode, entity holograms are shared by every viewer
+    public void registerPerPlayer(String name, int refreshTicks, Function<Player, String> resolver) {
+        add(new Placeholder(name.toLowerCase(), refreshTicks, true, resolver));
+    }
+
+    private void add(Placeholder placeholder) {
+        placeholders.put(placeholder.getName(), placeholder);
+        // Lines compiled earlier may contain the new token as plain text
+        compiled.clear();
+    }
+
+    public Collection<Placeholder> getPlaceholders() {
+        return Collections.unmodifiableCollection(placeholders.values());
+    }
+
+    public PlaceholderText compile(String text) {
+        PlaceholderText result = compiled.get(text);
+        if (result == null) {
+            result = PlaceholderText.compile(text, placeholders);
+            compiled.put(text, result);
+        }
+        return result;
+    }
+
+    // The text of a hologram line as the viewer sees it, null means the text shared by every viewer
+    public String render(NPCData data, int line, Player viewer) {
+        Hologram hologram = data.getHologram();
+        if (hologram == null || line >= hologram.size()) {
+            return "";
+        }
+        return compile(hologram.getLines().get(line)).render(viewer);
+    }
+
+    // Advances one tick and drops the cached values of placeholders that are due
+    public void tick() {
+        tick++;
+        for (Placeholder placeholder : placeholders.values()) {
+            if (tick % placeholder.getRefreshTicks() == 0) {
+                placeholder.refresh(tick);
+            }
+        }
+    }
+
+    public long getTick() {
+        return tick;
+    }
+}
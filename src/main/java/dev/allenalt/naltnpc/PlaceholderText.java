@@ -0,0 +1,84 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// A hologram line split into literal text and placeholders once, so rendering never re-parses it
+public class PlaceholderText {
+
+    // literals has one more element than placeholders, they alternate starting with a literal
+    private final String[] literals;
+    private final Placeholder[] placeholders;
+    private final boolean perPlayer;
+
+    private PlaceholderText(String[] literals, Placeholder[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        boolean anyPerPlayer = false;
+        for (Placeholder placeholder : placeholders) {
+            anyPerPlayer |= placeholder.isPerPlayer();
+        }
+        this.perPlayer = anyPerPlayer;
+    }
+
+    // Unknown tokens stay part of the literal text
+    public static PlaceholderText compile(String text, Map<String, Placeholder> known) {
+        List<String> literals = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int index = 0;
+        while (index < text.length()) {
+            int open = text.indexOf('{', index);
+            int close = open < 0 ? -1 : text.indexOf('}', open + 1);
+            if (close < 0) {
+                break;
+            }
+            Placeholder placeholder = known.get(text.substring(open + 1, close).toLowerCase());
+            if (placeholder == null) {
+                literal.append(text, index, open + 1);
+                index = open + 1;
+                continue;
+            }
+            literal.append(text, index, open);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            placeholders.add(placeholder);
+            index = close + 1;
+        }
+        literal.append(text, index, text.length());
+        literals.add(literal.toString());
+        return new PlaceholderText(literals.toArray(new String[0]), placeholders.toArray(new Placeholder[0]));
+    }
+
+    public boolean isStatic() {
+        return placeholders.length == 0;
+    }
+
+    public boolean isPerPlayer() {
+        return perPlayer;
+    }
+
+    // Whether any of its placeholders was refreshed after the given tick
+    public boolean refreshedSince(long tick) {
+        for (Placeholder placeholder : placeholders) {
+            if (placeholder.getRefreshedTick() > tick) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String render(Player viewer) {
+        if (placeholders.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(literals[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(placeholders[i].getValue(viewer)).append(literals[i + 1]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,128 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+// Sends messages to every other server behind a BungeeCord or Velocity proxy with the "Forward" plugin message.
+// Plugin messages travel over a player's connection, so a server without players queues its messages
+// until someone joins, and only receives messages while someone is online.
+public class PluginMessageTransport implements SyncTransport, PluginMessageListener, Listener {
+
+    private static final String BUNGEE_CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "NaltNPC";
+    // The proxy reads the forwarded length as an unsigned short
+    private static final int MAX_MESSAGE_SIZE = 32000;
+    private static final int MAX_QUEUED = 1000;
+
+    private final NaltNPC plugin;
+    private final Deque<byte[]> queued;
+    private Consumer<byte[]> receiver;
+
+    public PluginMessageTransport(NaltNPC plugin) {
+        this.plugin = plugin;
+        this.queued = new ArrayDeque<>();
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, BUNGEE_CHANNEL);
+        plugin.getServer().getMessenger().registerIncomingPluginChannel(plugin, BUNGEE_CHANNEL, this);
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    @Override
+    public void send(byte[] message) {
+        Iterator<? extends Player> players = plugin.getServer().getOnlinePlayers().iterator();
+        if (!players.hasNext()) {
+            if (queued.size() >= MAX_QUEUED) {
+                // The snapshot a joining server asks for covers whatever is lost here
+                queued.pollFirst();
+            }
+            queued.addLast(message);
+            return;
+        }
+        forward(players.next(), message);
+    }
+
+    private void forward(Player player, byte[] message) {
+        if (message.length > 0xFFFF) {
+            // The length goes out as an unsigned short, anything longer would arrive corrupt
+            plugin.getLogger().warning("Dropping an NPC sync message of " + message.length + " bytes, the limit is 65535.");
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(message.length);
+            out.write(message);
+        } catch (IOException e) {
+            // Cannot happen with a byte array stream
+            throw new IllegalStateException(e);
+        }
+        player.sendPluginMessage(plugin, BUNGEE_CHANNEL, bytes.toByteArray());
+    }
+
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (queued.isEmpty()) {
+            return;
+        }
+        // The client has to register the channel first, which happens right after joining
+        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            if (!event.getPlayer().isOnline()) {
+                return;
+            }
+            while (!queued.isEmpty()) {
+                forward(event.getPlayer(), queued.pollFirst());
+            }
+        }, 20L);
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        if (!channel.equals(BUNGEE_CHANNEL)) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        try {
+            if (!in.readUTF().equals(SUBCHANNEL)) {
+                return;
+            }
+            byte[] data = new byte[in.readUnsignedShort()];
+            in.readFully(data);
+            receiver.accept(data);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Ignoring a malformed NPC sync message: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+        return MAX_MESSAGE_SIZE;
+    }
+
+    @Override
+    public void stop() {
+        plugin.getServer().getMessenger().unregisterIncomingPluginChannel(plugin, BUNGEE_CHANNEL, this);
+        HandlerList.unregisterAll(this);
+        queued.clear();
+    }
+}
@@ -0,0 +1,281 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Immutable walking route. The path through the waypoints is measured once when the route is made,
+// so walking it is only arithmetic on these arrays. A looping route goes from the last waypoint back
+// to the first, otherwise the NPC turns around at either end.
+public class Route {
+
+    private final List<Waypoint> waypoints;
+    private final double speed; // Blocks per second
+    private final boolean loop;
+
+    // Path points, a loop repeats the first waypoint at the end
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    // Distance walked when reaching each point
+    private final double[] distances;
+    // Facing while walking each segment forwards
+    private final float[] yaws;
+    private final int segments;
+
+    public Route(List<Waypoint> waypoints, double speed, boolean loop) {
+        this.waypoints = Collections.unmodifiableList(new ArrayList<>(waypoints));
+        this.speed = speed;
+        this.loop = loop;
+
+        int count = waypoints.size();
+        int points = loop && count > 1 ? count + 1 : count;
+        this.xs = new double[points];
+        this.ys = new double[points];
+        this.zs = new double[points];
+        this.distances = new double[points];
+        for (int i = 0; i < points; i++) {
+            Waypoint waypoint = waypoints.get(i % count);
+            xs[i] = waypoint.getX();
+            ys[i] = waypoint.getY();
+            zs[i] = waypoint.getZ();
+        }
+        this.segments = Math.max(0, points - 1);
+        this.yaws = new float[Math.max(1, segments)];
+        for (int i = 0; i < segments; i++) {
+            double dx = xs[i + 1] - xs[i];
+            double dy = ys[i + 1] - ys[i];
+            double dz = zs[i + 1] - zs[i];
+            distances[i + 1] = distances[i] + Math.sqrt(dx * dx + dy * dy + dz * dz);
+            // Standing still on a zero length segment keeps the previous facing
+            yaws[i] = dx == 0 && dz == 0 ? (i > 0 ? yaws[i - 1] : 0.0F) : (float) Math.toDegrees(Math.atan2(-dx, dz));
+        }
+    }
+
+    public List<Waypoint> getWaypoints() {
+        return waypoints;
+    }
+
+    public int size() {
+        return waypoints.size();
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public boolean isLoop() {
+        return loop;
+    }
+
+    public double getLength() {
+        return segments > 0 ? distances[segments] : 0.0;
+    }
+
+    // Only routes with somewhere to go are walked
+    public boolean isWalkable() {
+        return getLength() > 0 && speed > 0;
+    }
+
+    // Where an NPC on this route is saved and starts walking from
+    public Location getStart(World world) {
+        return new Location(world, xs[0], ys[0], zs[0], yaws[0], 0.0F);
+    }
+
+    public Route withAddedWaypoint(Waypoint waypoint) {
+        List<Waypoint> copy = new ArrayList<>(waypoints);
+        copy.add(waypoint);
+        return new Route(copy, speed, loop);
+    }
+
+    public Route withoutWaypoint(int index) {
+        List<Waypoint> copy = new ArrayList<>(waypoints);
+        copy.remove(index);
+        return new Route(copy, speed, loop);
+    }
+
+    public Route withSpeed(double speed) {
+        return new Route(waypoints, speed, loop);
+    }
+
+    public Route withLoop(boolean loop) {
+        return new Route(waypoints, speed, loop);
+    }
+
+    // Walks up to the given distance, stopping early at a waypoint that makes the NPC wait
+    public void advance(Progress progress, double blocks) {
+        while (blocks > 0 && progress.pauseTicks <= 0) {
+            int segment = progress.segment;
+            if (progress.forward) {
+                double remaining = distances[segment + 1] - progress.distance;
+                if (blocks < remaining) {
+                    progress.distance += blocks;
+                    return;
+                }
+                blocks -= remaining;
+                progress.distance = distances[segment + 1];
+                arrive(progress, segment + 1);
+            } else {
+                double remaining = progress.distance - distances[segment];
+                if (blocks < remaining) {
+                    progress.distance -= blocks;
+                    return;
+                }
+                blocks -= remaining;
+                progress.distance = distances[segment];
+                arrive(progress, segment);
+            }
+        }
+    }
+
+    private void arrive(Progress progress, int point) {
+        progress.pauseTicks = waypoints.get(point % waypoints.size()).getPauseTicks();
+        if (loop) {
+            if (point == segments) {
+                // Back at the first waypoint, the same place as the start of the path
+                progress.distance = 0;
+                progress.segment = 0;
+            } else {
+                progress.segment = point;
+            }
+        } else if (progress.forward) {
+            if (point == segments) {
+                progress.forward = false;
+                progress.segment = segments - 1;
+            } else {
+                progress.segment = point;
+            }
+        } else {
+            if (point == 0) {
+                progress.forward = true;
+                progress.segment = 0;
+            } else {
+                progress.segment = point - 1;
+            }
+        }
+    }
+
+    // Writes the position and facing for the progress into location, allocation free
+    public void positionAt(Progress progress, Location location) {
+        int segment = progress.segment;
+        double length = distances[segment + 1] - distances[segment];
+        double t = length > 0 ? (progress.distance - distances[segment]) / length : 0.0;
+        location.setX(xs[segment] + (xs[segment + 1] - xs[segment]) * t);
+        location.setY(ys[segment] + (ys[segment + 1] - ys[segment]) * t);
+        location.setZ(zs[segment] + (zs[segment + 1] - zs[segment]) * t);
+        location.setYaw(progress.forward ? yaws[segment] : wrapDegrees(yaws[segment] + 180.0F));
+        location.setPitch(0.0F);
+    }
+
+    private static float wrapDegrees(float degrees) {
+        return degrees >= 180.0F ? degrees - 360.0F : degrees;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Route)) {
+            return false;
+        }
+        Route route = (Route) other;
+        return speed == route.speed && loop == route.loop && waypoints.equals(route.waypoints);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * waypoints.hashCode() + Double.hashCode(speed)) + Boolean.hashCode(loop);
+    }
+
+    // Where an NPC currently is on its route, owned by the main thread
+    public static class Progress {
+        private double distance;
+        private int segment;
+        private boolean forward = true;
+        private int pauseTicks;
+        private long lastTick = -1;
+
+        public int getPauseTicks() {
+            return pauseTicks;
+        }
+
+        public void setPauseTicks(int pauseTicks) {
+            this.pauseTicks = pauseTicks;
+        }
+
+        // Scheduler tick of the last step, -1 before the first
+        public long getLastTick() {
+            return lastTick;
+        }
+
+        public void setLastTick(long lastTick) {
+            this.lastTick = lastTick;
+        }
+
+        public void copyFrom(Progress other) {
+            distance = other.distance;
+            segment = other.segment;
+            forward = other.forward;
+            pauseTicks = other.pauseTicks;
+            lastTick = other.lastTick;
+        }
+
+        // Back to the first waypoint
+        public void reset() {
+            distance = 0;
+            segment = 0;
+            forward = true;
+            pauseTicks = 0;
+            lastTick = -1;
+        }
+    }
+
+    public static class Waypoint {
+        private final double x;
+        private final double y;
+        private final double z;
+        // Ticks the NPC waits here before walking on
+        private final int pauseTicks;
+
+        public Waypoint(double x, double y, double z, int pauseTicks) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.pauseTicks = pauseTicks;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getZ() {
+            return z;
+        }
+
+        public int getPauseTicks() {
+            return pauseTicks;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Waypoint)) {
+                return false;
+            }
+            Waypoint waypoint = (Waypoint) other;
+            return x == waypoint.x && y == waypoint.y && z == waypoint.z && pauseTicks == waypoint.pauseTicks;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * Double.hashCode(x) + Double.hashCode(y)) + Double.hashCode(z)) + pauseTicks;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package dev.allenalt.naltnpc;
+
+import java.util.UUID;
+
+// A player's signed skin textures, as the game profile "textures" property
+public class Skin {
+
+    private final String name;
+    private final UUID uuid;
+    private final String value;
+    private final String signature;
+    // When the textures were fetched, in epoch milliseconds
+    private final long fetchedAt;
+
+    public Skin(String name, UUID uuid, String value, String signature, long fetchedAt) {
+        this.name = name;
+        this.uuid = uuid;
+        this.value = value;
+        this.signature = signature;
+        this.fetchedAt = fetchedAt;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public boolean isExpired(long ttlMillis, long now) {
+        return now - fetchedAt > ttlMillis;
+    }
+}
@@ -0,0 +1,239 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Skins by player name: a small in-memory LRU in front of skins.yml in front of the resolver.
+// Lookups and disk access run on one background thread, so the remote API sees one request at a time.
+public class SkinCache {
+
+    // Names that do not exist are not asked for again for this long
+    private static final long MISS_TTL_MILLIS = 10 * 60 * 1000L;
+
+    private final NaltNPC plugin;
+    private final SkinResolver resolver;
+    private final File file;
+    private final long ttlMillis;
+
+    private final Map<String, Skin> memory;
+    // One lookup per name at a time, later callers share the first one's future
+    private final Map<String, CompletableFuture<Skin>> pending;
+    private final ThreadPoolExecutor executor;
+
+    // Only touched by the skin thread
+    private final Map<String, Skin> disk;
+    private final Map<String, Long> misses;
+    private boolean diskLoaded;
+    private boolean diskDirty;
+
+    public SkinCache(NaltNPC plugin, SkinResolver resolver) {
+        this.plugin = plugin;
+        this.resolver = resolver;
+        this.file = new File(plugin.getDataFolder(), "skins.yml");
+        this.ttlMillis = (long) (Math.max(0.0, plugin.getConfig().getDouble("skins.ttl-hours", 24.0)) * 60 * 60 * 1000L);
+        int memoryEntries = Math.max(1, plugin.getConfig().getInt("skins.memory-entries", 256));
+        this.memory = Collections.synchronizedMap(new LinkedHashMap<String, Skin>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Skin> eldest) {
+                return size() > memoryEntries;
+            }
+        });
+        this.pending = new ConcurrentHashMap<>();
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "NaltNPC Skins");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.disk = new HashMap<>();
+        this.misses = new HashMap<>();
+    }
+
+    // Completes off the main thread with the skin, or null if no player has that name
+    public CompletableFuture<Skin> get(String name) {
+        String key = name.toLowerCase();
+        Skin cached = memory.get(key);
+        if (cached != null && !cached.isExpired(ttlMillis, System.currentTimeMillis())) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return pending.computeIfAbsent(key, k -> {
+            CompletableFuture<Skin> future = new CompletableFuture<>();
+            try {
+                executor.execute(() -> {
+                    try {
+                        future.complete(lookup(k));
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        pending.remove(k, future);
+                        saveIfIdle();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        });
+    }
+
+    // Whatever is in memory right now, possibly expired, without waiting for a lookup
+    public Skin getCached(String name) {
+        return memory.get(name.toLowerCase());
+    }
+
+    public void prefetch(Collection<String> names) {
+        for (String name : names) {
+            get(name);
+        }
+    }
+
+    private Skin lookup(String key) throws IOException {
+        long now = System.currentTimeMillis();
+        loadDisk();
+
+        Skin stored = disk.get(key);
+        if (stored != null && !stored.isExpired(ttlMillis, now)) {
+            memory.put(key, stored);
+            return stored;
+        }
+        Long missedAt = misses.get(key);
+        if (missedAt != null && now - missedAt < MISS_TTL_MILLIS) {
+            return null;
+        }
+
+        Skin skin;
+        try {
+            skin = resolver.resolve(key);
+        } catch (IOException e) {
+            if (stored != null) {
+                // Better an old skin than none while the API is unreachable
+                plugin.getLogger().warning("Could not refresh skin '" + key + "', using the cached one: " + e.getMessage());
+                memory.put(key, stored);
+                return stored;
+            }
+            throw e;
+        }
+
+        if (skin == null) {
+            misses.put(key, now);
+            disk.remove(key);
+            memory.remove(key);
+        } else {
+            misses.remove(key);
+            disk.put(key, skin);
+            memory.put(key, skin);
+        }
+        diskDirty = true;
+        return skin;
+    }
+
+    // After every lookup however it ended, written once the queue runs dry so a burst ends in a single save
+    private void saveIfIdle() {
+        if (diskDirty && executor.getQueue().isEmpty()) {
+            saveDisk();
+        }
+    }
+
+    private void loadDisk() {
+        if (diskLoaded) {
+            return;
+        }
+        diskLoaded = true;
+        if (!file.exists()) {
+            return;
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (IOException | InvalidConfigurationException e) {
+            plugin.getLogger().warning("Could not read skins.yml, skins will be fetched again: " + e.getMessage());
+            return;
+        }
+        ConfigurationSection skins = config.getConfigurationSection("skins");
+        if (skins == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String key : skins.getKeys(false)) {
+            ConfigurationSection section = skins.getConfigurationSection(key);
+            if (section == null || section.getString("value") == null) {
+                continue;
+            }
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(section.getString("uuid", ""));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            Skin skin = new Skin(section.getString("name", key), uuid, section.getString("value"),
+                    section.getString("signature"), section.getLong("fetched"));
+            // Entries past their TTL are evicted on load, they would be fetched again anyway
+            if (!skin.isExpired(ttlMillis, now)) {
+                disk.put(key, skin);
+            } else {
+                diskDirty = true;
+            }
+        }
+    }
+
+    private void saveDisk() {
+        if (!diskDirty) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        YamlConfiguration config = new YamlConfiguration();
+        for (Map.Entry<String, Skin> entry : disk.entrySet()) {
+            Skin skin = entry.getValue();
+            if (skin.isExpired(ttlMillis, now)) {
+                continue;
+            }
+            String path = "skins." + entry.getKey();
+            config.set(path + ".name", skin.getName());
+            config.set(path + ".uuid", skin.getUuid().toString());
+            config.set(path + ".value", skin.getValue());
+            config.set(path + ".signature", skin.getSignature());
+            config.set(path + ".fetched", skin.getFetchedAt());
+        }
+        try {
+            config.save(file);
+            diskDirty = false;
+        } catch (IOException e) {
+            plugin.getLogger().severe("Could not save skins.yml!");
+            e.printStackTrace();
+        }
+    }
+
+    // Lets queued lookups finish, then writes skins.yml once more
+    public void shutdown() {
+        try {
+            executor.execute(this::saveDisk);
+        } catch (RejectedExecutionException e) {
+            // Already shut down
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Skin lookups did not finish in time, some may be fetched again next start.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
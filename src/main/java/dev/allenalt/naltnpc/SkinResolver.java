@@ -0,0 +1,10 @@
+package dev.allenalt.naltnpc;
+
+import java.io.IOException;
+
+// Looks up a player's skin, called off the main thread
+public interface SkinResolver {
+
+    // null if no player has that name
+    Skin resolve(String name) throws IOException;
+}
@@ -0,0 +1,270 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.*;
+
+public class SpatialGrid implements Listener {
+
+    // 16 block cells line up with chunks, so small radii only ever touch a 3x3 neighbourhood
+    public static final int CELL_SHIFT = 4;
+
+    private final Map<UUID, WorldCells> worlds;
+    private final Map<UUID, CellEntry> playerEntries;
+    private final Map<String, CellEntry> npcEntries;
+
+    // Reused by queries so the look task does not allocate a Location per player
+    private final Location scratch;
+
+    public SpatialGrid() {
+        this.worlds = new HashMap<>();
+        this.playerEntries = new HashMap<>();
+        this.npcEntries = new HashMap<>();
+        this.scratch = new Location(null, 0, 0, 0);
+    }
+
+    public static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    public static int toCell(int blockCoord) {
+        return blockCoord >> CELL_SHIFT;
+    }
+
+    public void trackOnlinePlayers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            updatePlayer(player, player.getLocation());
+        }
+    }
+
+    public void updatePlayer(Player player, Location location) {
+        UUID worldId = location.getWorld().getUID();
+        long key = cellKey(toCell(location.getBlockX()), toCell(location.getBlockZ()));
+
+        CellEntry entry = playerEntries.get(player.getUniqueId());
+        if (entry != null) {
+            if (entry.key == key && entry.worldId.equals(worldId)) {
+                return;
+            }
+            removeFromCell(worldCells(entry.worldId).players, entry.key, player);
+        }
+
+        worldCells(worldId).players.computeIfAbsent(key, k -> new ArrayList<>()).add(player);
+        playerEntries.put(player.getUniqueId(), new CellEntry(worldId, key));
+    }
+
+    public void removePlayer(Player player) {
+        CellEntry entry = playerEntries.remove(player.getUniqueId());
+        WorldCells cells = entry != null ? worlds.get(entry.worldId) : null;
+        if (cells != null) {
+            removeFromCell(cells.players, entry.key, player);
+        }
+    }
+
+    public void updateNPC(NPCData data) {
+        Location location = data.getLocation();
+        UUID worldId = location.getWorld().getUID();
+        long key = cellKey(toCell(location.getBlockX()), toCell(location.getBlockZ()));
+
+        CellEntry entry = npcEntries.get(data.getId());
+        if (entry != null) {
+            if (entry.key == key && entry.worldId.equals(worldId)) {
+                return;
+            }
+            removeFromCell(worldCells(entry.worldId).npcs, entry.key, data);
+        }
+
+        worldCells(worldId).npcs.computeIfAbsent(key, k -> new ArrayList<>()).add(data);
+        npcEntries.put(data.getId(), new CellEntry(worldId, key));
+    }
+
+    public void removeNPC(NPCData data) {
+        CellEntry entry = npcEntries.remove(data.getId());
+        WorldCells cells = entry != null ? worlds.get(entry.worldId) : null;
+        if (cells != null) {
+            removeFromCell(cells.npcs, entry.key, data);
+        }
+    }
+
+    public Player nearestPlayer(Location center, double radius) {
+        WorldCells cells = worlds.get(center.getWorld().getUID());
+        if (cells == null || cells.players.isEmpty()) {
+            return null;
+        }
+
+        double x = center.getX();
+        double y = center.getY();
+        double z = center.getZ();
+        int minCellX = toCell((int) Math.floor(x - radius));
+        int maxCellX = toCell((int) Math.floor(x + radius));
+        int minCellZ = toCell((int) Math.floor(z - radius));
+        int maxCellZ = toCell((int) Math.floor(z + radius));
+
+        Player nearest = null;
+        double nearestDistanceSquared = radius * radius;
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                List<Player> cell = cells.players.get(cellKey(cellX, cellZ));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    Player player = cell.get(i);
+                    player.getLocation(scratch);
+                    double dx = scratch.getX() - x;
+                    double dy = scratch.getY() - y;
+                    double dz = scratch.getZ() - z;
+                    double distanceSquared = dx * dx + dy * dy + dz * dz;
+                    if (distanceSquared < nearestDistanceSquared) {
+                        nearest = player;
+                        nearestDistanceSquared = distanceSquared;
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    public void collectPlayers(Location center, double radius, Collection<Player> out) {
+        WorldCells cells = worlds.get(center.getWorld().getUID());
+        if (cells == null || cells.players.isEmpty()) {
+            return;
+        }
+
+        double x = center.getX();
+        double y = center.getY();
+        double z = center.getZ();
+        double radiusSquared = radius * radius;
+        int minCellX = toCell((int) Math.floor(x - radius));
+        int maxCellX = toCell((int) Math.floor(x + radius));
+        int minCellZ = toCell((int) Math.floor(z - radius));
+        int maxCellZ = toCell((int) Math.floor(z + radius));
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                List<Player> cell = cells.players.get(cellKey(cellX, cellZ));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size(); i++) {
+                    Player player = cell.get(i);
+                    player.getLocation(scratch);
+                    double dx = scratch.getX() - x;
+                    double dy = scratch.getY() - y;
+                    double dz = scratch.getZ() - z;
+                    if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                        out.add(player);
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean hasPlayers(World world) {
+        WorldCells cells = worlds.get(world.getUID());
+        return cells != null && !cells.players.isEmpty();
+    }
+
+    public List<NPCData> getNPCsInCell(World world, int cellX, int cellZ) {
+        WorldCells cells = worlds.get(world.getUID());
+        if (cells == null) {
+            return Collections.emptyList();
+        }
+        List<NPCData> cell = cells.npcs.get(cellKey(cellX, cellZ));
+        return cell != null ? Collections.unmodifiableList(cell) : Collections.emptyList();
+    }
+
+    private WorldCells worldCells(UUID worldId) {
+        return worlds.computeIfAbsent(worldId, id -> new WorldCells());
+    }
+
+    private static <T> void removeFromCell(Map<Long, List<T>> cells, long key, T value) {
+        List<T> cell = cells.get(key);
+        if (cell != null) {
+            cell.remove(value);
+            if (cell.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        updatePlayer(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        removePlayer(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        // Most move events stay inside the same cell, skip them before touching any maps
+        if (to == null || (toCell(from.getBlockX()) == toCell(to.getBlockX())
+                && toCell(from.getBlockZ()) == toCell(to.getBlockZ()))) {
+            return;
+        }
+        updatePlayer(event.getPlayer(), to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onTeleport(PlayerTeleportEvent event) {
+        if (event.getTo() != null && event.getTo().getWorld() != null) {
+            updatePlayer(event.getPlayer(), event.getTo());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        updatePlayer(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(PlayerRespawnEvent event) {
+        updatePlayer(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        WorldCells cells = worlds.remove(event.getWorld().getUID());
+        if (cells != null) {
+            for (List<NPCData> cell : cells.npcs.values()) {
+                for (NPCData data : cell) {
+                    npcEntries.remove(data.getId());
+                }
+            }
+        }
+    }
+
+    private static class WorldCells {
+        private final Map<Long, List<Player>> players = new HashMap<>();
+        private final Map<Long, List<NPCData>> npcs = new HashMap<>();
+    }
+
+    private static class CellEntry {
+        private final UUID worldId;
+        private final long key;
+
+        private CellEntry(UUID worldId, long key) {
+            this.worldId = worldId;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.entity.Display;
+import org.bukkit.entity.EntityType;
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Logger;
+
+// NPCs in an H2 database: one row per NPC plus rows for its hologram lines, actions, tags, route and template.
+// The last written state of every NPC is kept, so a save only touches the rows that actually differ.
+public class SqlNPCStorage implements NPCStorage {
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS naltnpc_npcs ("
+                    + "id VARCHAR(255) PRIMARY KEY, type VARCHAR(64) NOT NULL, name VARCHAR NOT NULL, "
+                    + "world VARCHAR NOT NULL, x DOUBLE PRECISION NOT NULL, y DOUBLE PRECISION NOT NULL, "
+                    + "z DOUBLE PRECISION NOT NULL, yaw REAL NOT NULL, pitch REAL NOT NULL, "
+                    + "look_at_players BOOLEAN NOT NULL, skin VARCHAR, render_distance DOUBLE PRECISION NOT NULL, "
+                    + "hologram_shadow BOOLEAN NOT NULL, hologram_background INT, "
+                    + "hologram_billboard VARCHAR(16) NOT NULL, hologram_scale REAL NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS naltnpc_hologram_lines ("
+                    + "npc_id VARCHAR(255) NOT NULL, line_index INT NOT NULL, text VARCHAR NOT NULL, "
+                    + "PRIMARY KEY (npc_id, line_index), "
+                    + "FOREIGN KEY (npc_id) REFERENCES naltnpc_npcs (id) ON DELETE CASCADE)",
+            "CREATE TABLE IF NOT EXISTS naltnpc_actions ("
+                    + "npc_id VARCHAR(255) NOT NULL, action_index INT NOT NULL, executor VARCHAR(16) NOT NULL, "
+                    + "command VARCHAR NOT NULL, PRIMARY KEY (npc_id, action_index), "
+                    + "FOREIGN KEY (npc_id) REFERENCES naltnpc_npcs (id) ON DELETE CASCADE)",
+            "CREATE TABLE IF NOT EXISTS naltnpc_tags ("
+                    + "npc_id VARCHAR(255) NOT NULL, tag VARCHAR NOT NULL, PRIMARY KEY (npc_id, tag), "
+                    + "FOREIGN KEY (npc_id) REFERENCES naltnpc_npcs (id) ON DELETE CASCADE)",
+            "CREATE TABLE IF NOT EXISTS naltnpc_routes ("
+                    + "npc_id VARCHAR(255) PRIMARY KEY, speed DOUBLE PRECISION NOT NULL, loop_route BOOLEAN NOT NULL, "
+                    + "FOREIGN KEY (npc_id) REFERENCES naltnpc_npcs (id) ON DELETE CASCADE)",
+            "CREATE TABLE IF NOT EXISTS naltnpc_waypoints ("
+                    + "npc_id VARCHAR(255) NOT NULL, waypoint_index INT NOT NULL, x DOUBLE PRECISION NOT NULL, "
+                    + "y DOUBLE PRECISION NOT NULL, z DOUBLE PRECISION NOT NULL, pause_ticks INT NOT NULL, "
+                    + "PRIMARY KEY (npc_id, waypoint_index), "
+                    + "FOREIGN KEY (npc_id) REFERENCES naltnpc_npcs (id) ON DELETE CASCADE)",
+            "CREATE TABLE IF NOT EXISTS naltnpc_npc_templates ("
+                    + "npc_id VARCHAR(255) PRIMARY KEY, template VARCHAR NOT NULL, overrides INT NOT NULL, "
+                    + "FOREIGN KEY (npc_id) REFERENCES naltnpc_npcs (id) ON DELETE CASCADE)"
+    };
+
+    // Ids are keys referenced by every child table, they keep their limit and longer ones are not saved
+    private static final int MAX_ID_LENGTH = 255;
+
+    private static final String NPC_COLUMNS = "type = ?, name = ?, world = ?, x = ?, y = ?, z = ?, yaw = ?, pitch = ?, "
+            + "look_at_players = ?, skin = ?, render_distance = ?, hologram_shadow = ?, hologram_background = ?, "
+            + "hologram_billboard = ?, hologram_scale = ?";
+
+    private final String url;
+    private final Logger logger;
+    // npcs.yml to migrate from while the database is still empty, may be null
+    private final File legacyFile;
+    private final JdbcConnectionPool pool;
+
+    // Only touched by the persistence writer thread
+    private final Map<String, NPCRecord> stored;
+    // Rows we could not turn into an NPC, they are kept until an NPC with the same id replaces them
+    private final Set<String> unreadable;
+    private boolean loaded;
+
+    public SqlNPCStorage(String url, String user, String password, int poolSize, Logger logger, File legacyFile) {
+        this.url = url;
+        this.logger = logger;
+        this.legacyFile = legacyFile;
+        this.pool = JdbcConnectionPool.create(url, user, password);
+        this.pool.setMaxConnections(Math.max(1, poolSize));
+        this.stored = new HashMap<>();
+        this.unreadable = new HashSet<>();
+    }
+
+    @Override
+    public String getName() {
+        return url;
+    }
+
+    @Override
+    public List<NPCRecord> load() throws IOException {
+        stored.clear();
+        unreadable.clear();
+        try (Connection connection = pool.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : SCHEMA) {
+                    statement.execute(sql);
+                }
+            }
+            readAll(connection);
+        } catch (SQLException e) {
+            throw new IOException("Could not read NPCs from " + url, e);
+        }
+        loaded = true;
+
+        if (stored.isEmpty() && unreadable.isEmpty() && legacyFile != null && legacyFile.exists()) {
+            migrate();
+        }
+        return new ArrayList<>(stored.values());
+    }
+
+    // One-shot conversion of npcs.yml into the still empty database
+    private void migrate() throws IOException {
+        Map<String, NPCRecord> records = new HashMap<>();
+        for (NPCRecord record : new YamlNPCStorage(legacyFile, logger).load()) {
+            records.put(record.getId(), record);
+        }
+        write(records, Collections.emptySet());
+        YamlNPCStorage.keepAsBackup(legacyFile, records.size(), "the database", logger);
+    }
+
+    private void readAll(Connection connection) throws SQLException {
+        Map<String, List<String>> lines = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT npc_id, text FROM naltnpc_hologram_lines ORDER BY npc_id, line_index")) {
+            while (rows.next()) {
+                lines.computeIfAbsent(rows.getString(1), id -> new ArrayList<>()).add(rows.getString(2));
+            }
+        }
+        Map<String, List<NPCData.NPCAction>> actions = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT npc_id, executor, command FROM naltnpc_actions ORDER BY npc_id, action_index")) {
+            while (rows.next()) {
+                actions.computeIfAbsent(rows.getString(1), id -> new ArrayList<>())
+                        .add(new NPCData.NPCAction(rows.getString(2), rows.getString(3)));
+            }
+        }
+        Map<String, Set<String>> tags = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT npc_id, tag FROM naltnpc_tags ORDER BY npc_id, tag")) {
+            while (rows.next()) {
+                tags.computeIfAbsent(rows.getString(1), id -> new LinkedHashSet<>()).add(rows.getString(2));
+            }
+        }
+        Map<String, List<Route.Waypoint>> waypoints = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT npc_id, x, y, z, pause_ticks FROM naltnpc_waypoints ORDER BY npc_id, waypoint_index")) {
+            while (rows.next()) {
+                waypoints.computeIfAbsent(rows.getString(1), id -> new ArrayList<>())
+                        .add(new Route.Waypoint(rows.getDouble(2), rows.getDouble(3), rows.getDouble(4), rows.getInt(5)));
+            }
+        }
+        Map<String, Route> routes = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT npc_id, speed, loop_route FROM naltnpc_routes")) {
+            while (rows.next()) {
+                String id = rows.getString(1);
+                routes.put(id, new Route(waypoints.getOrDefault(id, Collections.emptyList()), rows.getDouble(2), rows.getBoolean(3)));
+            }
+        }
+
+        Map<String, String> templates = new HashMap<>();
+        Map<String, Integer> overrides = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT npc_id, template, overrides FROM naltnpc_npc_templates")) {
+            while (rows.next()) {
+                templates.put(rows.getString(1), rows.getString(2));
+                overrides.put(rows.getString(1), rows.getInt(3));
+            }
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT id, type, name, world, x, y, z, yaw, pitch, look_at_players, "
+                     + "skin, render_distance, hologram_shadow, hologram_background, hologram_billboard, hologram_scale "
+                     + "FROM naltnpc_npcs")) {
+            while (rows.next()) {
+                String id = rows.getString("id");
+                EntityType type;
+                try {
+                    type = EntityType.valueOf(rows.getString("type"));
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Skipping NPC '" + id + "': invalid entity type '" + rows.getString("type") + "'.");
+                    unreadable.add(id);
+                    continue;
+                }
+
+                Hologram hologram = null;
+                List<String> hologramLines = lines.get(id);
+                if (hologramLines != null) {
+                    Integer background = rows.getInt("hologram_background");
+                    if (rows.wasNull()) {
+                        background = null;
+                    }
+                    Display.Billboard billboard;
+                    try {
+                        billboard = Display.Billboard.valueOf(rows.getString("hologram_billboard"));
+                    } catch (IllegalArgumentException e) {
+                        billboard = Display.Billboard.CENTER;
+                    }
+                    hologram = new Hologram(hologramLines, rows.getBoolean("hologram_shadow"), background, billboard,
+                            rows.getFloat("hologram_scale"));
+                }
+
+                stored.put(id, new NPCRecord(id, type, rows.getString("name"), rows.getString("world"),
+                        rows.getDouble("x"), rows.getDouble("y"), rows.getDouble("z"),
+                        rows.getFloat("yaw"), rows.getFloat("pitch"), hologram, rows.getBoolean("look_at_players"),
+                        rows.getString("skin"), rows.getDouble("render_distance"),
+                        actions.getOrDefault(id, Collections.emptyList()),
+                        tags.getOrDefault(id, Collections.emptySet()), routes.get(id),
+                        templates.get(id), overrides.getOrDefault(id, 0)));
+            }
+        }
+    }
+
+    @Override
+    public void write(Map<String, NPCRecord> changed, Set<String> removed) throws IOException {
+        if (!loaded) {
+            // Without the stored state every change would look like a new NPC
+            throw new IOException(url + " was not loaded, refusing to write to it");
+        }
+
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Batch batch = new Batch(connection)) {
+                for (String id : removed) {
+                    if (stored.containsKey(id) || unreadable.contains(id)) {
+                        batch.deleteNpc.setString(1, id);
+                        batch.deleteNpc.addBatch();
+                    }
+                }
+                for (NPCRecord record : changed.values()) {
+                    if (record.getId().length() > MAX_ID_LENGTH) {
+                        logger.warning("Not saving NPC '" + record.getId() + "' to " + url + ", its id is longer than "
+                                + MAX_ID_LENGTH + " characters.");
+                        continue;
+                    }
+                    addChanges(batch, record);
+                }
+                batch.execute();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not write NPCs to " + url, e);
+        }
+
+        // Only after the commit, a failed write is retried against the old state
+        for (String id : removed) {
+            stored.remove(id);
+            unreadable.remove(id);
+        }
+        for (NPCRecord record : changed.values()) {
+            if (record.getId().length() > MAX_ID_LENGTH) {
+                continue;
+            }
+            stored.put(record.getId(), record);
+            unreadable.remove(record.getId());
+        }
+    }
+
+    private void addChanges(Batch batch, NPCRecord record) throws SQLException {
+        String id = record.getId();
+        NPCRecord before = stored.get(id);
+        if (before == null && !unreadable.contains(id)) {
+            bindNpc(batch.insertNpc, record, 2);
+            batch.insertNpc.setString(1, id);
+            batch.insertNpc.addBatch();
+        } else if (before == null || !sameRow(before, record)) {
+            bindNpc(batch.updateNpc, record, 1);
+            batch.updateNpc.setString(16, id);
+            batch.updateNpc.addBatch();
+        }
+        if (before == null && unreadable.contains(id)) {
+            // Nothing is known about the old child rows, start over
+            batch.deleteLines.setString(1, id);
+            batch.deleteLines.setInt(2, 0);
+            batch.deleteLines.addBatch();
+            batch.deleteActions.setString(1, id);
+            batch.deleteActions.setInt(2, 0);
+            batch.deleteActions.addBatch();
+            batch.deleteTags.setString(1, id);
+            batch.deleteTags.addBatch();
+            deleteRoute(batch, id);
+            batch.deleteTemplate.setString(1, id);
+            batch.deleteTemplate.addBatch();
+        }
+
+        addLineChanges(batch, id, before != null ? lines(before) : Collections.emptyList(), lines(record));
+        addActionChanges(batch, id, before != null ? before.getActions() : Collections.emptyList(), record.getActions());
+        addTagChanges(batch, id, before != null ? before.getTags() : Collections.emptySet(), record.getTags());
+        addRouteChanges(batch, id, before != null ? before.getRoute() : null, record.getRoute());
+        addTemplateChanges(batch, id, before, record);
+    }
+
+    private static void addTemplateChanges(Batch batch, String id, NPCRecord before, NPCRecord after) throws SQLException {
+        String template = before != null ? before.getTemplate() : null;
+        int overrides = before != null ? before.getOverrides() : 0;
+        if (Objects.equals(template, after.getTemplate()) && overrides == after.getOverrides()) {
+            return;
+        }
+        if (template != null) {
+            batch.deleteTemplate.setString(1, id);
+            batch.deleteTemplate.addBatch();
+        }
+        if (after.getTemplate() != null) {
+            batch.insertTemplate.setString(1, id);
+            batch.insertTemplate.setString(2, after.getTemplate());
+            batch.insertTemplate.setInt(3, after.getOverrides());
+            batch.insertTemplate.addBatch();
+        }
+    }
+
+    // Routes are edited rarely and as a whole, so a changed one is written again rather than diffed
+    private static void addRouteChanges(Batch batch, String id, Route before, Route after) throws SQLException {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        if (before != null) {
+            deleteRoute(batch, id);
+        }
+        if (after == null) {
+            return;
+        }
+        batch.insertRoute.setString(1, id);
+        batch.insertRoute.setDouble(2, after.getSpeed());
+        batch.insertRoute.setBoolean(3, after.isLoop());
+        batch.insertRoute.addBatch();
+        List<Route.Waypoint> waypoints = after.getWaypoints();
+        for (int i = 0; i < waypoints.size(); i++) {
+            Route.Waypoint waypoint = waypoints.get(i);
+            batch.insertWaypoint.setString(1, id);
+            batch.insertWaypoint.setInt(2, i);
+            batch.insertWaypoint.setDouble(3, waypoint.getX());
+            batch.insertWaypoint.setDouble(4, waypoint.getY());
+            batch.insertWaypoint.setDouble(5, waypoint.getZ());
+            batch.insertWaypoint.setInt(6, waypoint.getPauseTicks());
+            batch.insertWaypoint.addBatch();
+        }
+    }
+
+    private static void deleteRoute(Batch batch, String id) throws SQLException {
+        batch.deleteWaypoints.setString(1, id);
+        batch.deleteWaypoints.addBatch();
+        batch.deleteRoute.setString(1, id);
+        batch.deleteRoute.addBatch();
+    }
+
+    // Rows past the new end are deleted, changed ones updated and new ones inserted, untouched lines are left alone
+    private static void addLineChanges(Batch batch, String id, List<String> before, List<String> after) throws SQLException {
+        for (int i = 0; i < after.size(); i++) {
+            if (i >= before.size()) {
+                batch.insertLine.setString(1, id);
+                batch.insertLine.setInt(2, i);
+                batch.insertLine.setString(3, after.get(i));
+                batch.insertLine.addBatch();
+            } else if (!before.get(i).equals(after.get(i))) {
+                batch.updateLine.setString(1, after.get(i));
+                batch.updateLine.setString(2, id);
+                batch.updateLine.setInt(3, i);
+                batch.updateLine.addBatch();
+            }
+        }
+        if (before.size() > after.size()) {
+            batch.deleteLines.setString(1, id);
+            batch.deleteLines.setInt(2, after.size());
+            batch.deleteLines.addBatch();
+        }
+    }
+
+    private static void addActionChanges(Batch batch, String id, List<NPCData.NPCAction> before,
+                                         List<NPCData.NPCAction> after) throws SQLException {
+        for (int i = 0; i < after.size(); i++) {
+            NPCData.NPCAction action = after.get(i);
+            if (i >= before.size()) {
+                batch.insertAction.setString(1, id);
+                batch.insertAction.setInt(2, i);
+                batch.insertAction.setString(3, action.getExecutorType());
+                batch.insertAction.setString(4, action.getCommand());
+                batch.insertAction.addBatch();
+            } else if (!sameAction(before.get(i), action)) {
+                batch.updateAction.setString(1, action.getExecutorType());
+                batch.updateAction.setString(2, action.getCommand());
+                batch.updateAction.setString(3, id);
+                batch.updateAction.setInt(4, i);
+                batch.updateAction.addBatch();
+            }
+        }
+        if (before.size() > after.size()) {
+            batch.deleteActions.setString(1, id);
+            batch.deleteActions.setInt(2, after.size());
+            batch.deleteActions.addBatch();
+        }
+    }
+
+    private static void addTagChanges(Batch batch, String id, Set<String> before, Set<String> after) throws SQLException {
+        for (String tag : before) {
+            if (!after.contains(tag)) {
+                batch.deleteTag.setString(1, id);
+                batch.deleteTag.setString(2, tag);
+                batch.deleteTag.addBatch();
+            }
+        }
+        for (String tag : after) {
+            if (!before.contains(tag)) {
+                batch.insertTag.setString(1, id);
+                batch.insertTag.setString(2, tag);
+                batch.insertTag.addBatch();
+            }
+        }
+    }
+
+    // Binds the NPC columns in NPC_COLUMNS order starting at the given parameter
+    private static void bindNpc(PreparedStatement statement, NPCRecord record, int first) throws SQLException {
+        Hologram hologram = record.getHologram();
+        statement.setString(first, record.getType().name());
+        statement.setString(first + 1, record.getName());
+        statement.setString(first + 2, record.getWorld());
+        statement.setDouble(first + 3, record.getX());
+        statement.setDouble(first + 4, record.getY());
+        statement.setDouble(first + 5, record.getZ());
+        statement.setFloat(first + 6, record.getYaw());
+        statement.setFloat(first + 7, record.getPitch());
+        statement.setBoolean(first + 8, record.isLookAtPlayers());
+        statement.setString(first + 9, record.getSkinName());
+        statement.setDouble(first + 10, record.getRenderDistance());
+        statement.setBoolean(first + 11, hologram != null && hologram.isShadow());
+        if (hologram != null && hologram.getBackground() != null) {
+            statement.setInt(first + 12, hologram.getBackground());
+        } else {
+            statement.setNull(first + 12, Types.INTEGER);
+        }
+        statement.setString(first + 13, hologram != null ? hologram.getBillboard().name() : Display.Billboard.CENTER.name());
+        statement.setFloat(first + 14, hologram != null ? hologram.getScale() : 1.0F);
+    }
+
+    private static boolean sameRow(NPCRecord a, NPCRecord b) {
+        Hologram ha = a.getHologram();
+        Hologram hb = b.getHologram();
+        boolean sameStyle = ha == null || hb == null ? ha == hb
+                : ha.isShadow() == hb.isShadow() && Objects.equals(ha.getBackground(), hb.getBackground())
+                && ha.getBillboard() == hb.getBillboard() && ha.getScale() == hb.getScale();
+        return sameStyle && a.getType() == b.getType() && a.getName().equals(b.getName())
+                && a.getWorld().equals(b.getWorld()) && a.getX() == b.getX() && a.getY() == b.getY()
+                && a.getZ() == b.getZ() && a.getYaw() == b.getYaw() && a.getPitch() == b.getPitch()
+                && a.isLookAtPlayers() == b.isLookAtPlayers() && Objects.equals(a.getSkinName(), b.getSkinName())
+                && a.getRenderDistance() == b.getRenderDistance();
+    }
+
+    private static boolean sameAction(NPCData.NPCAction a, NPCData.NPCAction b) {
+        return a.getExecutorType().equals(b.getExecutorType()) && a.getCommand().equals(b.getCommand());
+    }
+
+    private static List<String> lines(NPCRecord record) {
+        return record.getHologram() != null ? record.getHologram().getLines() : Collections.emptyList();
+    }
+
+    @Override
+    public void close() {
+        pool.dispose();
+    }
+
+    // Every statement a save can need, executed parents first so foreign keys always hold
+    private static class Batch implements AutoCloseable {
+        private final PreparedStatement deleteNpc;
+        private final PreparedStatement insertNpc;
+        private final PreparedStatement updateNpc;
+        private final PreparedStatement deleteLines;
+        private final PreparedStatement updateLine;
+        private final PreparedStatement insertLine;
+        private final PreparedStatement deleteActions;
+        private final PreparedStatement updateAction;
+        private final PreparedStatement insertAction;
+        private final PreparedStatement deleteTags;
+        private final PreparedStatement deleteTag;
+        private final PreparedStatement insertTag;
+        private final PreparedStatement deleteWaypoints;
+        private final PreparedStatement deleteRoute;
+        private final PreparedStatement insertRoute;
+        private final PreparedStatement insertWaypoint;
+        private final PreparedStatement deleteTemplate;
+        private final PreparedStatement insertTemplate;
+        private final List<PreparedStatement> ordered;
+
+        private Batch(Connection connection) throws SQLException {
+            ordered = new ArrayList<>();
+            deleteNpc = prepare(connection, "DELETE FROM naltnpc_npcs WHERE id = ?");
+            insertNpc = prepare(connection, "INSERT INTO naltnpc_npcs (id, type, name, world, x, y, z, yaw, pitch, "
+                    + "look_at_players, skin, render_distance, hologram_shadow, hologram_background, hologram_billboard, "
+                    + "hologram_scale) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            updateNpc = prepare(connection, "UPDATE naltnpc_npcs SET " + NPC_COLUMNS + " WHERE id = ?");
+            deleteLines = prepare(connection, "DELETE FROM naltnpc_hologram_lines WHERE npc_id = ? AND line_index >= ?");
+            updateLine = prepare(connection, "UPDATE naltnpc_hologram_lines SET text = ? WHERE npc_id = ? AND line_index = ?");
+            insertLine = prepare(connection, "INSERT INTO naltnpc_hologram_lines (npc_id, line_index, text) VALUES (?, ?, ?)");
+            deleteActions = prepare(connection, "DELETE FROM naltnpc_actions WHERE npc_id = ? AND action_index >= ?");
+            updateAction = prepare(connection, "UPDATE naltnpc_actions SET executor = ?, command = ? WHERE npc_id = ? AND action_index = ?");
+            insertAction = prepare(connection, "INSERT INTO naltnpc_actions (npc_id, action_index, executor, command) VALUES (?, ?, ?, ?)");
+            deleteTags = prepare(connection, "DELETE FROM naltnpc_tags WHERE npc_id = ?");
+            deleteTag = prepare(connection, "DELETE FROM naltnpc_tags WHERE npc_id = ? AND tag = ?");
+            insertTag = prepare(connection, "INSERT INTO naltnpc_tags (npc_id, tag) VALUES (?, ?)");
+            deleteWaypoints = prepare(connection, "DELETE FROM naltnpc_waypoints WHERE npc_id = ?");
+            deleteRoute = prepare(connection, "DELETE FROM naltnpc_routes WHERE npc_id = ?");
+            insertRoute = prepare(connection, "INSERT INTO naltnpc_routes (npc_id, speed, loop_route) VALUES (?, ?, ?)");
+            insertWaypoint = prepare(connection, "INSERT INTO naltnpc_waypoints (npc_id, waypoint_index, x, y, z, pause_ticks) "
+                    + "VALUES (?, ?, ?, ?, ?, ?)");
+            deleteTemplate = prepare(connection, "DELETE FROM naltnpc_npc_templates WHERE npc_id = ?");
+            insertTemplate = prepare(connection, "INSERT INTO naltnpc_npc_templates (npc_id, template, overrides) VALUES (?, ?, ?)");
+        }
+
+        private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            ordered.add(statement);
+            return statement;
+        }
+
+        private void execute() throws SQLException {
+            for (PreparedStatement statement : ordered) {
+                statement.executeBatch();
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (PreparedStatement statement : ordered) {
+                statement.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package dev.allenalt.naltnpc;
+
+import java.util.function.Consumer;
+
+// Carries NPCSync messages between servers. Messages are opaque bytes, delivered at most once and
+// never back to the sender. The receiver may be called off the main thread.
+public interface SyncTransport {
+
+    void start(Consumer<byte[]> receiver);
+
+    void send(byte[] message);
+
+    // The largest message send accepts, bigger batches are split by the caller
+    int getMaxMessageSize();
+
+    void stop();
+}
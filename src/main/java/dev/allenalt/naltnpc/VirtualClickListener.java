@@ -0,0 +1,47 @@
+package dev.allenalt.naltnpc;
+
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.wrappers.EnumWrappers;
+import com.comphenix.protocol.wrappers.WrappedEnumEntityUseAction;
+import org.bukkit.entity.Player;
+
+// USE_ENTITY packets for virtual NPCs, these arrive on a netty thread
+public class VirtualClickListener extends PacketAdapter {
+
+    private final NaltNPC plugin;
+    private final NPCInteractionListener interactions;
+    private final VirtualNPCRenderer renderer;
+
+    public VirtualClickListener(NaltNPC plugin, NPCInteractionListener interactions, VirtualNPCRenderer renderer) {
+        super(plugin, PacketType.Play.Client.USE_ENTITY);
+        this.plugin = plugin;
+        this.interactions = interactions;
+        this.renderer = renderer;
+    }
+
+    @Override
+    public void onPacketReceiving(PacketEvent event) {
+        PacketContainer packet = event.getPacket();
+        int entityId = packet.getIntegers().read(0);
+        WrappedEnumEntityUseAction useAction = packet.getEnumEntityUseActions().read(0);
+        EnumWrappers.EntityUseAction action = useAction.getAction();
+        // A right click sends INTERACT_AT and INTERACT for each hand, only one of them counts
+        if (action == EnumWrappers.EntityUseAction.INTERACT_AT
+                || (action == EnumWrappers.EntityUseAction.INTERACT && useAction.getHand() != EnumWrappers.Hand.MAIN_HAND)) {
+            return;
+        }
+
+        Player player = event.getPlayer();
+        // NPC state is only touched on the main thread
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            String id = renderer.getNPCId(entityId);
+            NPCData data = id != null ? plugin.getNPCManager().getNPC(id) : null;
+            if (data != null && player.isOnline()) {
+                interactions.click(player, data);
+            }
+        });
+    }
+}
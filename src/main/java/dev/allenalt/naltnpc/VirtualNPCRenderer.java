@@ -0,0 +1,522 @@
+package dev.allenalt.naltnpc;
+
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.wrappers.PlayerInfoData;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class VirtualNPCRenderer implements NPCRenderer {
+
+    // Relative moves are in 1/4096 of a block, a short covers a bit under 8 blocks either way
+    private static final double MOVE_UNITS = 4096.0;
+
+    private final NPCPackets packets;
+    private final PlaceholderManager placeholders;
+    private final SkinCache skins;
+    private final int spawnsPerTick;
+    private final Map<String, VirtualNPC> virtualNPCs;
+    // Packet entity id to NPC id, clicks arrive as USE_ENTITY packets for these ids
+    private final Map<Integer, String> entityIdIndex;
+
+    // NPCs waiting to be sent to each viewer, a few per tick so a crowd of NPCs does not arrive in one burst
+    private final Map<UUID, Set<VirtualNPC>> pendingSpawns;
+    // Player NPC profiles to forget per viewer, sent as one packet per viewer each tick
+    private final Map<UUID, List<UUID>> pendingInfoRemovals;
+
+    private final LatencyHistogram spawnTimer;
+    private final LatencyHistogram teleportTimer;
+    private final LatencyHistogram hologramTimer;
+
+    // Reused by every walking step
+    private final List<PacketContainer> lineMoves;
+
+    public VirtualNPCRenderer(NaltNPC plugin, PlaceholderManager placeholders, SkinCache skins) {
+        this.packets = new NPCPackets();
+        this.placeholders = placeholders;
+        this.skins = skins;
+        this.spawnsPerTick = Math.max(1, plugin.getConfig().getInt("visibility.spawns-per-tick", 5));
+        this.virtualNPCs = new HashMap<>();
+        this.entityIdIndex = new HashMap<>();
+        this.pendingSpawns = new LinkedHashMap<>();
+        this.pendingInfoRemovals = new HashMap<>();
+        this.spawnTimer = plugin.getMetrics().timer(NPCMetrics.SPAWN);
+        this.teleportTimer = plugin.getMetrics().timer(NPCMetrics.TELEPORT);
+        this.hologramTimer = plugin.getMetrics().timer(NPCMetrics.HOLOGRAM);
+        this.lineMoves = new ArrayList<>();
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                flushInfoRemovals();
+                flushSpawns();
+            }
+        }.runTaskTimer(plugin, 1L, 1L);
+    }
+
+    @Override
+    public void spawn(NPCData data) {
+        // Nothing exists in the world, the VisibilityEngine sends the NPC to players in range
+        VirtualNPC npc = new VirtualNPC(data);
+        VirtualNPC previous = virtualNPCs.put(data.getId(), npc);
+        if (previous != null) {
+            entityIdIndex.remove(previous.entityId);
+        }
+        entityIdIndex.put(npc.entityId, data.getId());
+    }
+
+    @Override
+    public void restore(NPCData data) {
+        spawn(data);
+    }
+
+    @Override
+    public void despawn(NPCData data) {
+        VirtualNPC npc = virtualNPCs.remove(data.getId());
+        if (npc != null) {
+            entityIdIndex.remove(npc.entityId);
+            for (UUID viewerId : data.getViewers()) {
+                Player viewer = Bukkit.getPlayer(viewerId);
+                if (viewer != null) {
+                    sendDestroy(viewer, npc);
+                }
+            }
+        }
+        data.getViewers().clear();
+    }
+
+    @Override
+    public void teleport(NPCData data, Location location) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null) {
+            return;
+        }
+        npc.yaw = location.getYaw();
+        npc.pitch = location.getPitch();
+        npc.markSent(location);
+        // Respawning keeps this independent of how far the NPC moved, the VisibilityEngine fixes range next pass
+        long start = System.nanoTime();
+        for (Player viewer : spawnedViewers(npc)) {
+            packets.destroy(viewer, npc.entityIds());
+            sendSpawn(viewer, npc);
+        }
+        teleportTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void move(NPCData data) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null) {
+            return;
+        }
+        Location location = data.getLocation();
+        long x = toMoveUnits(location.getX());
+        long y = toMoveUnits(location.getY());
+        long z = toMoveUnits(location.getZ());
+        long dx = x - npc.sentX;
+        long dy = y - npc.sentY;
+        long dz = z - npc.sentZ;
+        if (!fitsShort(dx) || !fitsShort(dy) || !fitsShort(dz)) {
+            // Too far for one relative move, only after a long stall
+            teleport(data, location);
+            return;
+        }
+        // Looking at players owns the rotation, the body then only changes position
+        boolean turn = !data.isLookAtPlayers() && (location.getYaw() != npc.yaw || location.getPitch() != npc.pitch);
+        if (dx == 0 && dy == 0 && dz == 0 && !turn) {
+            return;
+        }
+        npc.sentX = x;
+        npc.sentY = y;
+        npc.sentZ = z;
+
+        // Built once, sent to every viewer. Viewers still waiting for the NPC ignore them and are later
+        // sent it where it is by then.
+        PacketContainer body;
+        PacketContainer head = null;
+        if (data.isLookAtPlayers()) {
+            body = packets.relativeMove(npc.entityId, (short) dx, (short) dy, (short) dz);
+        } else {
+            npc.yaw = location.getYaw();
+            npc.pitch = location.getPitch();
+            body = packets.relativeMoveLook(npc.entityId, (short) dx, (short) dy, (short) dz, npc.yaw, npc.pitch);
+            if (turn) {
+                head = packets.headRotation(npc.entityId, npc.yaw);
+            }
+        }
+        lineMoves.clear();
+        if (dx != 0 || dy != 0 || dz != 0) {
+            for (int i = 0; i < npc.hologramLines.size(); i++) {
+                lineMoves.add(packets.relativeMove(npc.hologramLines.get(i).entityId, (short) dx, (short) dy, (short) dz));
+            }
+        }
+        for (UUID viewerId : data.getViewers()) {
+            Player viewer = Bukkit.getPlayer(viewerId);
+            if (viewer == null) {
+                continue;
+            }
+            packets.send(viewer, body);
+            if (head != null) {
+                packets.send(viewer, head);
+            }
+            for (int i = 0; i < lineMoves.size(); i++) {
+                packets.send(viewer, lineMoves.get(i));
+            }
+        }
+        lineMoves.clear();
+    }
+
+    private static long toMoveUnits(double coordinate) {
+        return Math.round(coordinate * MOVE_UNITS);
+    }
+
+    private static boolean fitsShort(long delta) {
+        return delta >= Short.MIN_VALUE && delta <= Short.MAX_VALUE;
+    }
+
+    @Override
+    public void rotate(NPCData data, float yaw, float pitch) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null) {
+            return;
+        }
+        npc.yaw = yaw;
+        npc.pitch = pitch;
+        for (UUID viewerId : data.getViewers()) {
+            Player viewer = Bukkit.getPlayer(viewerId);
+            if (viewer != null) {
+                packets.rotate(viewer, npc.entityId, yaw, pitch);
+            }
+        }
+    }
+
+    @Override
+    public void rotateFor(Player viewer, NPCData data, float yaw, float pitch) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc != null) {
+            packets.rotate(viewer, npc.entityId, yaw, pitch);
+        }
+    }
+
+    @Override
+    public void updateSkin(NPCData data) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null || !npc.player) {
+            return;
+        }
+        // The client reads the skin from the profile, so the profile is replaced and the entity spawned again
+        for (Player viewer : spawnedViewers(npc)) {
+            packets.destroy(viewer, Collections.singletonList(npc.entityId));
+            packets.removePlayerInfo(viewer, Collections.singletonList(npc.uuid));
+            packets.addPlayerInfo(viewer, Collections.singletonList(playerInfo(npc)));
+            sendEntity(viewer, npc);
+        }
+    }
+
+    @Override
+    public void updateHologram(NPCData data) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null) {
+            return;
+        }
+        // Line count or style changed, respawn every line with fresh metadata
+        long start = System.nanoTime();
+        List<Player> viewers = spawnedViewers(npc);
+        if (!npc.hologramLines.isEmpty()) {
+            for (Player viewer : viewers) {
+                packets.destroy(viewer, npc.hologramEntityIds());
+            }
+        }
+        npc.resizeHologram(data.getHologram());
+        for (Player viewer : viewers) {
+            sendHologram(viewer, npc);
+        }
+        hologramTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void updateHologramLine(NPCData data, int line) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null) {
+            return;
+        }
+        if (data.getHologram() == null || line >= npc.hologramLines.size()) {
+            updateHologram(data);
+            return;
+        }
+        int entityId = npc.hologramLines.get(line).entityId;
+        long start = System.nanoTime();
+        for (UUID viewerId : data.getViewers()) {
+            Player viewer = Bukkit.getPlayer(viewerId);
+            if (viewer != null) {
+                packets.sendHologramLineText(viewer, entityId, placeholders.render(data, line, viewer));
+            }
+        }
+        hologramTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void setHologramLineText(NPCData data, int line, Player viewer, String text) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null || line >= npc.hologramLines.size()) {
+            return;
+        }
+        int entityId = npc.hologramLines.get(line).entityId;
+        long start = System.nanoTime();
+        if (viewer != null) {
+            packets.sendHologramLineText(viewer, entityId, text);
+        } else {
+            for (UUID viewerId : data.getViewers()) {
+                Player target = Bukkit.getPlayer(viewerId);
+                if (target != null) {
+                    packets.sendHologramLineText(target, entityId, text);
+                }
+            }
+        }
+        hologramTimer.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void showTo(Player player, NPCData data) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc != null) {
+            pendingSpawns.computeIfAbsent(player.getUniqueId(), id -> new LinkedHashSet<>()).add(npc);
+        }
+    }
+
+    @Override
+    public void hideFrom(Player player, NPCData data) {
+        VirtualNPC npc = virtualNPCs.get(data.getId());
+        if (npc == null) {
+            return;
+        }
+        Set<VirtualNPC> pending = pendingSpawns.get(player.getUniqueId());
+        if (pending != null && pending.remove(npc)) {
+            return; // Never sent, nothing to take back
+        }
+        sendDestroy(player, npc);
+    }
+
+    // Called on the main thread with the id from a USE_ENTITY packet
+    public String getNPCId(int entityId) {
+        return entityIdIndex.get(entityId);
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        for (VirtualNPC npc : new ArrayList<>(virtualNPCs.values())) {
+            despawn(npc.data);
+        }
+        flushInfoRemovals();
+        pendingSpawns.clear();
+    }
+
+    private void flushSpawns() {
+        Iterator<Map.Entry<UUID, Set<VirtualNPC>>> viewers = pendingSpawns.entrySet().iterator();
+        while (viewers.hasNext()) {
+            Map.Entry<UUID, Set<VirtualNPC>> entry = viewers.next();
+            Player viewer = Bukkit.getPlayer(entry.getKey());
+            if (viewer == null || entry.getValue().isEmpty()) {
+                viewers.remove();
+                continue;
+            }
+
+            List<VirtualNPC> batch = new ArrayList<>(spawnsPerTick);
+            Iterator<VirtualNPC> pending = entry.getValue().iterator();
+            while (pending.hasNext() && batch.size() < spawnsPerTick) {
+                VirtualNPC npc = pending.next();
+                pending.remove();
+                // Despawned or hidden again while it waited
+                if (virtualNPCs.get(npc.data.getId()) == npc && npc.data.getViewers().contains(entry.getKey())) {
+                    batch.add(npc);
+                }
+            }
+
+            // Every player NPC profile in the batch goes out in one player info packet, before the entities
+            List<PlayerInfoData> profiles = new ArrayList<>();
+            for (VirtualNPC npc : batch) {
+                if (npc.player) {
+                    profiles.add(playerInfo(npc));
+                }
+            }
+            if (!profiles.isEmpty()) {
+                packets.addPlayerInfo(viewer, profiles);
+            }
+            // Timed per NPC and viewer, each is what one player receiving one NPC costs
+            for (VirtualNPC npc : batch) {
+                long start = System.nanoTime();
+                sendSpawn(viewer, npc);
+                spawnTimer.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void flushInfoRemovals() {
+        for (Map.Entry<UUID, List<UUID>> entry : pendingInfoRemovals.entrySet()) {
+            Player viewer = Bukkit.getPlayer(entry.getKey());
+            if (viewer != null) {
+                packets.removePlayerInfo(viewer, entry.getValue());
+            }
+        }
+        pendingInfoRemovals.clear();
+    }
+
+    // Viewers the NPC has actually been sent to, not those still waiting for it
+    private List<Player> spawnedViewers(VirtualNPC npc) {
+        List<Player> viewers = new ArrayList<>();
+        for (UUID viewerId : npc.data.getViewers()) {
+            Set<VirtualNPC> pending = pendingSpawns.get(viewerId);
+            Player viewer = Bukkit.getPlayer(viewerId);
+            if (viewer != null && (pending == null || !pending.contains(npc))) {
+                viewers.add(viewer);
+            }
+        }
+        return viewers;
+    }
+
+    private void sendSpawn(Player viewer, VirtualNPC npc) {
+        sendEntity(viewer, npc);
+        sendHologram(viewer, npc);
+    }
+
+    private void sendEntity(Player viewer, VirtualNPC npc) {
+        Location location = npc.data.getLocation().clone();
+        // Respawned facing wherever this viewer last saw it look
+        float[] head = npc.data.getViewerHeads().get(viewer.getUniqueId());
+        location.setYaw(head != null ? head[0] : npc.yaw);
+        location.setPitch(head != null ? head[1] : npc.pitch);
+        packets.spawnEntity(viewer, npc.entityId, npc.uuid, npc.data.getType(), location);
+        if (npc.player) {
+            // The profile name is the name tag, so only the skin layers need metadata
+            packets.sendSkinPartsMetadata(viewer, npc.entityId);
+        } else {
+            packets.sendNameMetadata(viewer, npc.entityId, npc.data.getName());
+        }
+    }
+
+    private void sendDestroy(Player viewer, VirtualNPC npc) {
+        packets.destroy(viewer, npc.entityIds());
+        if (npc.player) {
+            List<UUID> removals = pendingInfoRemovals.computeIfAbsent(viewer.getUniqueId(), id -> new ArrayList<>());
+            removals.add(npc.uuid);
+        }
+    }
+
+    private PlayerInfoData playerInfo(VirtualNPC npc) {
+        // Shown with the default skin until the skin cache has it, then updateSkin sends it again
+        String skinName = npc.data.getSkinName();
+        Skin skin = skinName != null ? skins.getCached(skinName) : null;
+        return NPCPackets.playerInfo(npc.uuid, npc.profileName, skin);
+    }
+
+    private void sendHologram(Player viewer, VirtualNPC npc) {
+        Hologram hologram = npc.data.getHologram();
+        if (hologram == null) {
+            return;
+        }
+        for (int i = 0; i < npc.hologramLines.size(); i++) {
+            HologramLine line = npc.hologramLines.get(i);
+            Location lineLoc = npc.data.getLocation().clone().add(0, hologram.getLineOffset(i), 0);
+            lineLoc.setYaw(0);
+            lineLoc.setPitch(0);
+            packets.spawnEntity(viewer, line.entityId, line.uuid, EntityType.TEXT_DISPLAY, lineLoc);
+            packets.sendHologramLineMetadata(viewer, line.entityId, hologram, placeholders.render(npc.data, i, viewer));
+        }
+    }
+
+    private static class VirtualNPC {
+        private final NPCData data;
+        private final int entityId;
+        private final UUID uuid;
+        private final boolean player;
+        private final String profileName;
+        private final List<HologramLine> hologramLines;
+        private float yaw;
+        private float pitch;
+        // Position the viewers were last sent in relative move units. Spawns use the exact location,
+        // which always rounds to this, so moves never drift apart from what the clients show.
+        private long sentX;
+        private long sentY;
+        private long sentZ;
+
+        private VirtualNPC(NPCData data) {
+            this.data = data;
+            this.entityId = NPCPackets.nextEntityId();
+            this.player = data.getType() == EntityType.PLAYER;
+            this.uuid = player ? profileUuid() : UUID.randomUUID();
+            this.profileName = player ? profileName(data.getName()) : null;
+            this.hologramLines = new ArrayList<>();
+            this.yaw = data.getLocation().getYaw();
+            this.pitch = data.getLocation().getPitch();
+            markSent(data.getLocation());
+            resizeHologram(data.getHologram());
+        }
+
+        private void markSent(Location location) {
+            sentX = toMoveUnits(location.getX());
+            sentY = toMoveUnits(location.getY());
+            sentZ = toMoveUnits(location.getZ());
+        }
+
+        // Version 2 ids are never given to real accounts, so an NPC cannot clash with a player
+        private static UUID profileUuid() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return new UUID((random.nextLong() & ~0xF000L) | 0x2000L, random.nextLong());
+        }
+
+        // Profile names are plain text of at most 16 characters
+        private static String profileName(String name) {
+            String plain = name != null ? ChatColor.stripColor(name) : "";
+            if (plain.isEmpty()) {
+                plain = "NPC";
+            }
+            return plain.length() > 16 ? plain.substring(0, 16) : plain;
+        }
+
+        // Entity ids are kept per line index so a text change can target a single line
+        private void resizeHologram(Hologram hologram) {
+            int size = hologram == null ? 0 : hologram.size();
+            while (hologramLines.size() > size) {
+                hologramLines.remove(hologramLines.size() - 1);
+            }
+            while (hologramLines.size() < size) {
+                hologramLines.add(new HologramLine());
+            }
+        }
+
+        private List<Integer> hologramEntityIds() {
+            List<Integer> ids = new ArrayList<>(hologramLines.size());
+            for (HologramLine line : hologramLines) {
+                ids.add(line.entityId);
+            }
+            return ids;
+        }
+
+        private List<Integer> entityIds() {
+            List<Integer> ids = hologramEntityIds();
+            ids.add(entityId);
+            return ids;
+        }
+    }
+
+    private static class HologramLine {
+        private final int entityId;
+        private final UUID uuid;
+
+        private HologramLine() {
+            this.entityId = NPCPackets.nextEntityId();
+            this.uuid = UUID.randomUUID();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+
+import java.util.*;
+
+// Shows each NPC only to players within its render distance
+public class VisibilityEngine implements Listener, NPCBehaviour {
+
+    private final NaltNPC plugin;
+    private final NPCManager npcManager;
+    private final double defaultRenderDistance;
+    // Players are hidden again only once this far past the render distance, so the boundary does not flicker
+    private final double hysteresis;
+    private final int interval;
+
+    // Reused every pass
+    private final List<Player> nearby;
+    private final Location scratch;
+
+    public VisibilityEngine(NaltNPC plugin, NPCManager npcManager) {
+        this.plugin = plugin;
+        this.npcManager = npcManager;
+        this.defaultRenderDistance = plugin.getConfig().getDouble("visibility.render-distance", 48.0);
+        this.hysteresis = Math.max(0.0, plugin.getConfig().getDouble("visibility.hysteresis", 4.0));
+        this.interval = Math.max(1, plugin.getConfig().getInt("visibility.update-interval-ticks", 10));
+        this.nearby = new ArrayList<>();
+        this.scratch = new Location(null, 0, 0, 0);
+
+        // Nearby NPCs are checked every interval, distant ones less often
+        npcManager.getScheduler().register(this);
+    }
+
+    @Override
+    public String getName() {
+        return "visibility";
+    }
+
+    @Override
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public boolean appliesTo(NPCData data) {
+        return true;
+    }
+
+    public double getRenderDistance(NPCData data) {
+        return data.getRenderDistance() > 0 ? data.getRenderDistance() : defaultRenderDistance;
+    }
+
+    @Override
+    public void update(NPCData data) {
+        NPCRenderer renderer = npcManager.getRenderer();
+        Location location = data.getLocation();
+        double showDistance = getRenderDistance(data);
+        double hideDistance = showDistance + hysteresis;
+        double showDistanceSquared = showDistance * showDistance;
+        Set<UUID> viewers = data.getViewers();
+
+        nearby.clear();
+        npcManager.getSpatialGrid().collectPlayers(location, hideDistance, nearby);
+
+        // Anyone outside the hide distance is no longer a viewer
+        if (!viewers.isEmpty()) {
+            Iterator<UUID> iterator = viewers.iterator();
+            while (iterator.hasNext()) {
+                UUID viewerId = iterator.next();
+                if (!containsPlayer(nearby, viewerId)) {
+                    iterator.remove();
+                    Player viewer = Bukkit.getPlayer(viewerId);
+                    if (viewer != null) {
+                        renderer.hideFrom(viewer, data);
+                    }
+                }
+            }
+        }
+
+        // Players between the show and hide distance keep their current state
+        for (int i = 0; i < nearby.size(); i++) {
+            Player player = nearby.get(i);
+            if (viewers.contains(player.getUniqueId())) {
+                continue;
+            }
+            player.getLocation(scratch);
+            double dx = scratch.getX() - location.getX();
+            double dy = scratch.getY() - location.getY();
+            double dz = scratch.getZ() - location.getZ();
+            if (dx * dx + dy * dy + dz * dz <= showDistanceSquared) {
+                viewers.add(player.getUniqueId());
+                renderer.showTo(player, data);
+            }
+        }
+    }
+
+    private static boolean containsPlayer(List<Player> players, UUID id) {
+        for (int i = 0; i < players.size(); i++) {
+            if (players.get(i).getUniqueId().equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void forgetViewer(Player player, boolean hide) {
+        // The client has dropped every entity it knew about, show them again once back in range
+        UUID id = player.getUniqueId();
+        NPCRenderer renderer = npcManager.getRenderer();
+        // Entities stay marked as shown on the server side, they must be hidden for the next showEntity to count
+        boolean hideEntities = hide && !renderer.isVirtual();
+        for (NPCData data : npcManager.getNPCs()) {
+            if (data.getViewers().remove(id) && hideEntities) {
+                renderer.hideFrom(player, data);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        // Bukkit forgets what a player was shown once they leave
+        forgetViewer(event.getPlayer(), false);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        forgetViewer(event.getPlayer(), true);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(PlayerRespawnEvent event) {
+        forgetViewer(event.getPlayer(), true);
+    }
+}
@@ -0,0 +1,96 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.Location;
+
+// Walks NPCs along their routes. Only NPCs someone can see are moved, an NPC nobody is watching
+// stands where it is and carries on from there once a player comes back into range.
+public class WaypointBehaviour implements NPCBehaviour {
+
+    // A far away NPC updated every few ticks catches up on those, a longer gap (nobody watching) is not made up
+    private static final int MAX_CATCH_UP_TICKS = 20;
+
+    private final NPCManager npcManager;
+    private final int interval;
+
+    private long tick;
+    // Reused every update
+    private final Route.Progress previous;
+
+    public WaypointBehaviour(NaltNPC plugin, NPCManager npcManager) {
+        this.npcManager = npcManager;
+        this.interval = Math.max(1, plugin.getConfig().getInt("waypoints.update-interval-ticks", 1));
+        this.previous = new Route.Progress();
+    }
+
+    @Override
+    public String getName() {
+        return "walk";
+    }
+
+    @Override
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public void startTick(long tick) {
+        this.tick = tick;
+    }
+
+    @Override
+    public boolean appliesTo(NPCData data) {
+        Route route = data.getRoute();
+        return route != null && route.isWalkable() && data.isSpawned() && !data.getViewers().isEmpty();
+    }
+
+    @Override
+    public void update(NPCData data) {
+        Route route = data.getRoute();
+        Route.Progress progress = data.getRouteProgress();
+        long last = progress.getLastTick();
+        int ticks = last < 0 ? 1 : (int) Math.min(tick - last, MAX_CATCH_UP_TICKS);
+        progress.setLastTick(tick);
+
+        // Waiting at a waypoint uses up the time first
+        int pause = progress.getPauseTicks();
+        if (pause >= ticks) {
+            progress.setPauseTicks(pause - ticks);
+            return;
+        }
+        ticks -= pause;
+        progress.setPauseTicks(0);
+
+        Location location = data.getLocation();
+        int chunkX = location.getBlockX() >> 4;
+        int chunkZ = location.getBlockZ() >> 4;
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        float yaw = location.getYaw();
+        float pitch = location.getPitch();
+
+        previous.copyFrom(progress);
+        route.advance(progress, route.getSpeed() / 20.0 * ticks);
+        route.positionAt(progress, location);
+
+        boolean newChunk = (location.getBlockX() >> 4) != chunkX || (location.getBlockZ() >> 4) != chunkZ;
+        if (newChunk && !NPCLifecycleManager.isChunkReady(location)) {
+            // Walking into an unloaded chunk would leave the NPC somewhere it cannot be shown, wait at the edge
+            progress.copyFrom(previous);
+            location.setX(x);
+            location.setY(y);
+            location.setZ(z);
+            location.setYaw(yaw);
+            location.setPitch(pitch);
+            return;
+        }
+        if (newChunk) {
+            // Not a registry relocate, the saved location is the route start and does not change
+            npcManager.getSpatialGrid().updateNPC(data);
+        }
+        if (!data.isLookAtPlayers()) {
+            data.setHeadRotation(location.getYaw(), location.getPitch());
+        }
+        npcManager.getRenderer().move(data);
+    }
+}
@@ -0,0 +1,248 @@
+package dev.allenalt.naltnpc;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Display;
+import org.bukkit.entity.EntityType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+public class YamlNPCStorage implements NPCStorage {
+
+    private final File file;
+    private final File tempFile;
+    private final Logger logger;
+
+    // Only touched by the persistence writer thread
+    private final YamlConfiguration config;
+    private boolean loaded;
+
+    public YamlNPCStorage(File file, Logger logger) {
+        this.file = file;
+        this.tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        this.logger = logger;
+        this.config = new YamlConfiguration();
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public List<NPCRecord> load() throws IOException {
+        try {
+            config.load(file);
+        } catch (InvalidConfigurationException e) {
+            throw new IOException("npcs.yml is not valid YAML", e);
+        }
+        loaded = true;
+
+        List<NPCRecord> records = new ArrayList<>();
+        ConfigurationSection npcs = config.getConfigurationSection("npcs");
+        if (npcs == null) {
+            return records;
+        }
+        for (String id : npcs.getKeys(false)) {
+            NPCRecord record = readRecord(id, npcs.getConfigurationSection(id));
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private NPCRecord readRecord(String id, ConfigurationSection section) {
+        if (section == null) {
+            logger.warning("Skipping NPC '" + id + "': entry is not a section.");
+            return null;
+        }
+
+        EntityType type;
+        try {
+            type = EntityType.valueOf(section.getString("type", "").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warning("Skipping NPC '" + id + "': invalid entity type '" + section.getString("type") + "'.");
+            return null;
+        }
+
+        String world = section.getString("world");
+        if (world == null || !section.contains("x") || !section.contains("y") || !section.contains("z")) {
+            logger.warning("Skipping NPC '" + id + "': missing world or coordinates.");
+            return null;
+        }
+
+        return new NPCRecord(id, type, section.getString("name", id), world,
+                section.getDouble("x"), section.getDouble("y"), section.getDouble("z"),
+                (float) section.getDouble("yaw"), (float) section.getDouble("pitch"),
+                readHologram(id, section, logger), section.getBoolean("lookAtPlayers"),
+                section.getString("skin"), section.getDouble("renderDistance"), readActions(id, section, logger),
+                new LinkedHashSet<>(section.getStringList("tags")), readRoute(section),
+                section.getString("template"), NPCTemplate.parseFields(section.getStringList("overrides")));
+    }
+
+    // Shared with templates.yml, which stores holograms and actions the same way
+    static List<NPCData.NPCAction> readActions(String id, ConfigurationSection section, Logger logger) {
+        List<NPCData.NPCAction> actions = new ArrayList<>();
+        ConfigurationSection actionSection = section.getConfigurationSection("actions");
+        if (actionSection != null) {
+            for (String key : actionSection.getKeys(false)) {
+                String executorType = actionSection.getString(key + ".type", "").toUpperCase();
+                String command = actionSection.getString(key + ".command");
+                if (command == null || (!executorType.equals("CONSOLE") && !executorType.equals("PLAYER")
+                        && !executorType.equals("SERVER"))) {
+                    logger.warning("Skipping invalid action " + key + " of '" + id + "'.");
+                    continue;
+                }
+                actions.add(new NPCData.NPCAction(executorType, command));
+            }
+        }
+        return actions;
+    }
+
+    static void writeActions(ConfigurationSection config, String path, List<NPCData.NPCAction> actions) {
+        for (int i = 0; i < actions.size(); i++) {
+            config.set(path + ".actions." + i + ".type", actions.get(i).getExecutorType());
+            config.set(path + ".actions." + i + ".command", actions.get(i).getCommand());
+        }
+    }
+
+    private Route readRoute(ConfigurationSection section) {
+        ConfigurationSection route = section.getConfigurationSection("route");
+        if (route == null) {
+            return null;
+        }
+        List<Route.Waypoint> waypoints = new ArrayList<>();
+        ConfigurationSection waypointSection = route.getConfigurationSection("waypoints");
+        if (waypointSection != null) {
+            for (String key : waypointSection.getKeys(false)) {
+                waypoints.add(new Route.Waypoint(waypointSection.getDouble(key + ".x"), waypointSection.getDouble(key + ".y"),
+                        waypointSection.getDouble(key + ".z"), waypointSection.getInt(key + ".pause")));
+            }
+        }
+        return new Route(waypoints, route.getDouble("speed"), route.getBoolean("loop"));
+    }
+
+    static Hologram readHologram(String id, ConfigurationSection section, Logger logger) {
+        ConfigurationSection hologram = section.getConfigurationSection("hologram");
+        if (hologram == null) {
+            // Older files stored the whole hologram as one string
+            String legacy = section.getString("hologram");
+            return legacy == null ? null : new Hologram(Arrays.asList(legacy.split("\n")), false, null,
+                    Display.Billboard.CENTER, 1.0F);
+        }
+        List<String> lines = hologram.getStringList("lines");
+        if (lines.isEmpty()) {
+            return null;
+        }
+        Integer background = null;
+        String backgroundValue = hologram.getString("background");
+        if (backgroundValue != null) {
+            try {
+                background = (int) Long.parseLong(backgroundValue, 16);
+            } catch (NumberFormatException e) {
+                logger.warning("Invalid hologram background '" + backgroundValue + "' of '" + id + "'.");
+            }
+        }
+        Display.Billboard billboard;
+        try {
+            billboard = Display.Billboard.valueOf(hologram.getString("billboard", "CENTER").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            billboard = Display.Billboard.CENTER;
+        }
+        return new Hologram(lines, hologram.getBoolean("shadow"), background, billboard,
+                (float) hologram.getDouble("scale", 1.0));
+    }
+
+    static void writeHologram(ConfigurationSection config, String path, Hologram hologram) {
+        if (hologram != null) {
+            config.set(path + ".hologram.lines", hologram.getLines());
+            config.set(path + ".hologram.shadow", hologram.isShadow());
+            config.set(path + ".hologram.background",
+                    hologram.getBackground() != null ? String.format("%08X", hologram.getBackground()) : null);
+            config.set(path + ".hologram.billboard", hologram.getBillboard().name());
+            config.set(path + ".hologram.scale", hologram.getScale());
+        }
+    }
+
+    @Override
+    public void write(Map<String, NPCRecord> changed, Set<String> removed) throws IOException {
+        if (!loaded) {
+            // Writing now would replace every NPC we failed to read with only the new ones
+            throw new IOException("npcs.yml was not loaded, refusing to overwrite it");
+        }
+        for (String id : removed) {
+            config.set("npcs." + id, null);
+        }
+        for (NPCRecord record : changed.values()) {
+            writeRecord(record);
+        }
+
+        Files.write(tempFile.toPath(), config.saveToString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // After a one-shot migration the old file is kept next to the new storage instead of deleted
+    public static void keepAsBackup(File file, int migrated, String target, Logger logger) throws IOException {
+        File backup = new File(file.getParentFile(), file.getName() + ".migrated");
+        Files.move(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Migrated " + migrated + " NPCs from " + file.getName() + " to " + target
+                + ", the old file was kept as " + backup.getName() + ".");
+    }
+
+    private void writeRecord(NPCRecord record) {
+        String path = "npcs." + record.getId();
+        config.set(path, null);
+        config.set(path + ".type", record.getType().name());
+        config.set(path + ".name", record.getName());
+        config.set(path + ".world", record.getWorld());
+        config.set(path + ".x", record.getX());
+        config.set(path + ".y", record.getY());
+        config.set(path + ".z", record.getZ());
+        config.set(path + ".yaw", record.getYaw());
+        config.set(path + ".pitch", record.getPitch());
+        config.set(path + ".lookAtPlayers", record.isLookAtPlayers());
+        writeHologram(config, path, record.getHologram());
+        config.set(path + ".skin", record.getSkinName());
+        config.set(path + ".renderDistance", record.getRenderDistance() > 0 ? record.getRenderDistance() : null);
+        config.set(path + ".tags", record.getTags().isEmpty() ? null : new ArrayList<>(record.getTags()));
+
+        writeActions(config, path, record.getActions());
+        if (record.getTemplate() != null) {
+            config.set(path + ".template", record.getTemplate());
+            List<String> overrides = NPCTemplate.fieldNames(record.getOverrides());
+            config.set(path + ".overrides", overrides.isEmpty() ? null : overrides);
+        }
+
+        Route route = record.getRoute();
+        if (route != null) {
+            config.set(path + ".route.speed", route.getSpeed());
+            config.set(path + ".route.loop", route.isLoop());
+            List<Route.Waypoint> waypoints = route.getWaypoints();
+            for (int i = 0; i < waypoints.size(); i++) {
+                Route.Waypoint waypoint = waypoints.get(i);
+                config.set(path + ".route.waypoints." + i + ".x", waypoint.getX());
+                config.set(path + ".route.waypoints." + i + ".y", waypoint.getY());
+                config.set(path + ".route.waypoints." + i + ".z", waypoint.getZ());
+                config.set(path + ".route.waypoints." + i + ".pause", waypoint.getPauseTicks() > 0 ? waypoint.getPauseTicks() : null);
+            }
+        }
+    }
+}